@@ -0,0 +1,96 @@
+package com.proofpoint.discovery.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.proofpoint.discovery.DynamicAnnouncement;
+import com.proofpoint.discovery.DynamicServiceAnnouncement;
+import com.proofpoint.discovery.Id;
+import com.proofpoint.discovery.Node;
+import com.proofpoint.discovery.Service;
+
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static com.google.common.collect.Iterables.transform;
+import static com.proofpoint.discovery.DynamicServiceAnnouncement.toServiceWith;
+
+/**
+ * Deterministic announcement data shared by the benchmarks. Every node announces
+ * one service of each type, and nodes are spread evenly over the pools. Ids are
+ * drawn from the seeded random too, so hash layouts are the same on every run.
+ */
+class Announcements
+{
+    static final List<String> TYPES = ImmutableList.of("storage", "web", "monitoring", "search", "queue");
+    static final List<String> POOLS = ImmutableList.of("general", "alpha", "beta", "gamma");
+
+    private final List<Id<Node>> nodeIds;
+    private final List<DynamicAnnouncement> announcements;
+
+    Announcements(int nodeCount)
+    {
+        Random random = new Random(nodeCount);
+
+        ImmutableList.Builder<Id<Node>> nodeIds = ImmutableList.builder();
+        ImmutableList.Builder<DynamicAnnouncement> announcements = ImmutableList.builder();
+        for (int node = 0; node < nodeCount; node++) {
+            nodeIds.add(Id.<Node>valueOf(randomUuid(random)));
+            announcements.add(announcement(node, random));
+        }
+        this.nodeIds = nodeIds.build();
+        this.announcements = announcements.build();
+    }
+
+    int size()
+    {
+        return nodeIds.size();
+    }
+
+    Id<Node> getNodeId(int node)
+    {
+        return nodeIds.get(node);
+    }
+
+    DynamicAnnouncement getAnnouncement(int node)
+    {
+        return announcements.get(node);
+    }
+
+    List<Service> getServices()
+    {
+        ImmutableList.Builder<Service> services = ImmutableList.builder();
+        for (int node = 0; node < size(); node++) {
+            DynamicAnnouncement announcement = getAnnouncement(node);
+            services.addAll(transform(announcement.getServiceAnnouncements(), toServiceWith(getNodeId(node), announcement.getLocation(), announcement.getPool())));
+        }
+        return services.build();
+    }
+
+    /**
+     * A new announcement for node in the same pool and location, with service ids
+     * drawn from random.
+     */
+    DynamicAnnouncement changedAnnouncement(int node, Random random)
+    {
+        return announcement(node, random);
+    }
+
+    private static DynamicAnnouncement announcement(int node, Random random)
+    {
+        ImmutableSet.Builder<DynamicServiceAnnouncement> services = ImmutableSet.builder();
+        for (String type : TYPES) {
+            services.add(new DynamicServiceAnnouncement(Id.<Service>valueOf(randomUuid(random)), type, ImmutableMap.of(
+                    "http", "http://10.0." + (node / 256) + "." + (node % 256) + ":" + (8000 + random.nextInt(1000)),
+                    "jmx", "service:jmx:rmi:///jndi/rmi://10.0." + (node / 256) + "." + (node % 256) + ":9999/jmxrmi")));
+        }
+        String pool = POOLS.get(node % POOLS.size());
+        return new DynamicAnnouncement("benchmark", pool, "/benchmark/rack" + (node % 32) + "/host" + node, services.build());
+    }
+
+    private static UUID randomUuid(Random random)
+    {
+        return new UUID(random.nextLong(), random.nextLong());
+    }
+}
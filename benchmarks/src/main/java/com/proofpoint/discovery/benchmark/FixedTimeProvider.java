@@ -0,0 +1,21 @@
+package com.proofpoint.discovery.benchmark;
+
+import org.joda.time.DateTime;
+
+import javax.inject.Provider;
+
+/**
+ * Time that never advances, so announcements put in a benchmark's setup don't
+ * expire during its warmup and measurement iterations.
+ */
+class FixedTimeProvider
+        implements Provider<DateTime>
+{
+    private final DateTime time = new DateTime();
+
+    @Override
+    public DateTime get()
+    {
+        return time;
+    }
+}
@@ -0,0 +1,89 @@
+package com.proofpoint.discovery.benchmark;
+
+import com.proofpoint.discovery.DiscoveryConfig;
+import com.proofpoint.discovery.DynamicAnnouncement;
+import com.proofpoint.discovery.InMemoryDynamicStore;
+import com.proofpoint.discovery.Service;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.Set;
+
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class InMemoryDynamicStoreBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int nodeCount;
+
+    private Announcements announcements;
+    private InMemoryDynamicStore store;
+    private DynamicAnnouncement[] changed;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        announcements = new Announcements(nodeCount);
+        store = new InMemoryDynamicStore(new DiscoveryConfig(), new FixedTimeProvider());
+        for (int node = 0; node < announcements.size(); node++) {
+            store.put(announcements.getNodeId(node), announcements.getAnnouncement(node));
+        }
+
+        Random random = new Random(0);
+        changed = new DynamicAnnouncement[announcements.size()];
+        for (int node = 0; node < announcements.size(); node++) {
+            changed[node] = announcements.changedAnnouncement(node, random);
+        }
+    }
+
+    @Benchmark
+    public boolean putHeartbeat()
+    {
+        int node = nextNode();
+        return store.put(announcements.getNodeId(node), announcements.getAnnouncement(node));
+    }
+
+    @Benchmark
+    public Set<Service> putChangedThenGet()
+    {
+        int node = nextNode();
+        store.put(announcements.getNodeId(node), changed[node]);
+        store.put(announcements.getNodeId(node), announcements.getAnnouncement(node));
+        return store.get("storage", "alpha");
+    }
+
+    @Benchmark
+    public Set<Service> getByType()
+    {
+        return store.get("storage");
+    }
+
+    @Benchmark
+    public Set<Service> getByTypeAndPool()
+    {
+        return store.get("storage", "alpha");
+    }
+
+    @Benchmark
+    public Set<Service> getAll()
+    {
+        return store.getAll();
+    }
+
+    private int nextNode()
+    {
+        int node = next;
+        next = (node + 1) % announcements.size();
+        return node;
+    }
+}
@@ -0,0 +1,53 @@
+package com.proofpoint.discovery.benchmark;
+
+import com.proofpoint.discovery.Service;
+import com.proofpoint.json.JsonCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+
+/**
+ * The encoding CassandraDynamicStore uses for the value of each row: one node's
+ * service list per value.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class JsonCodecBenchmark
+{
+    @Param({"1", "5", "50"})
+    public int servicesPerRow;
+
+    private final JsonCodec<List<Service>> codec = JsonCodec.listJsonCodec(Service.class);
+    private List<Service> services;
+    private String json;
+
+    @Setup
+    public void setup()
+    {
+        // each node announces one service per type
+        int nodeCount = (servicesPerRow + Announcements.TYPES.size() - 1) / Announcements.TYPES.size();
+        services = new Announcements(nodeCount).getServices().subList(0, servicesPerRow);
+        json = codec.toJson(services);
+    }
+
+    @Benchmark
+    public String encode()
+    {
+        return codec.toJson(services);
+    }
+
+    @Benchmark
+    public List<Service> decode()
+    {
+        return codec.fromJson(json);
+    }
+}
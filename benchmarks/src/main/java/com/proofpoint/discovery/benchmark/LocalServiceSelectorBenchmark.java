@@ -0,0 +1,70 @@
+package com.proofpoint.discovery.benchmark;
+
+import com.proofpoint.discovery.DiscoveryConfig;
+import com.proofpoint.discovery.InMemoryDynamicStore;
+import com.proofpoint.discovery.InMemoryStaticStore;
+import com.proofpoint.discovery.LocalServiceSelectorFactory;
+import com.proofpoint.discovery.ServiceChangeNotifier;
+import com.proofpoint.discovery.ServiceSnapshotSource;
+import com.proofpoint.discovery.client.ServiceDescriptor;
+import com.proofpoint.discovery.client.ServiceSelector;
+import com.proofpoint.discovery.client.ServiceSelectorConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class LocalServiceSelectorBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int nodeCount;
+
+    private LocalServiceSelectorFactory factory;
+    private ServiceSelector selector;
+
+    @Setup
+    public void setup()
+    {
+        Announcements announcements = new Announcements(nodeCount);
+        ServiceChangeNotifier changeNotifier = new ServiceChangeNotifier();
+        InMemoryDynamicStore dynamicStore = new InMemoryDynamicStore(new DiscoveryConfig(), new FixedTimeProvider(), changeNotifier);
+        for (int node = 0; node < announcements.size(); node++) {
+            dynamicStore.put(announcements.getNodeId(node), announcements.getAnnouncement(node));
+        }
+
+        factory = new LocalServiceSelectorFactory(new ServiceSnapshotSource(dynamicStore, new InMemoryStaticStore()), changeNotifier, new DiscoveryConfig());
+        factory.start();
+        selector = factory.createServiceSelector("storage", new ServiceSelectorConfig().setPool("alpha"));
+    }
+
+    @TearDown
+    public void teardown()
+    {
+        factory.stop();
+    }
+
+    @Benchmark
+    public List<ServiceDescriptor> selectAllServices()
+    {
+        return selector.selectAllServices();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<ServiceDescriptor> selectAllServicesContended()
+    {
+        return selector.selectAllServices();
+    }
+}
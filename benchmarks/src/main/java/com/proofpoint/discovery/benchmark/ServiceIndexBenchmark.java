@@ -0,0 +1,59 @@
+package com.proofpoint.discovery.benchmark;
+
+import com.proofpoint.discovery.Service;
+import com.proofpoint.discovery.ServiceIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The Cassandra stores answer get(type, pool) from the ServiceIndex built by their
+ * last reload, so these lookups are what a query against a populated store costs
+ * without needing a Cassandra cluster. rebuild measures a reload that found nothing
+ * new in the rows.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ServiceIndexBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int nodeCount;
+
+    private List<Service> services;
+    private ServiceIndex index;
+
+    @Setup
+    public void setup()
+    {
+        services = new Announcements(nodeCount).getServices();
+        index = ServiceIndex.of(services);
+    }
+
+    @Benchmark
+    public Set<Service> getByTypeAndPool()
+    {
+        return index.get("storage", "alpha");
+    }
+
+    @Benchmark
+    public Set<Service> getByType()
+    {
+        return index.get("storage");
+    }
+
+    @Benchmark
+    public ServiceIndex rebuild()
+    {
+        return ServiceIndex.update(index, services);
+    }
+}
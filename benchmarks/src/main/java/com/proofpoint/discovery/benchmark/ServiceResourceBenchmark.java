@@ -0,0 +1,119 @@
+package com.proofpoint.discovery.benchmark;
+
+import com.proofpoint.discovery.AdmissionConfig;
+import com.proofpoint.discovery.AdmissionControl;
+import com.proofpoint.discovery.DiscoveryConfig;
+import com.proofpoint.discovery.InMemoryDynamicStore;
+import com.proofpoint.discovery.InMemoryStaticStore;
+import com.proofpoint.discovery.ServiceChangeNotifier;
+import com.proofpoint.discovery.ServiceResource;
+import com.proofpoint.discovery.ServiceSnapshotSource;
+import com.proofpoint.discovery.Services;
+import com.proofpoint.discovery.event.DiscoveryEventConfig;
+import com.proofpoint.discovery.event.DiscoveryEvents;
+import com.proofpoint.event.client.InMemoryEventClient;
+import com.proofpoint.json.JsonCodec;
+import com.proofpoint.node.NodeInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static com.google.common.collect.Sets.union;
+
+/**
+ * Queries go through the resource, so they include the response cache; the
+ * encode benchmarks show what every cache miss pays for the JSON body.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ServiceResourceBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int nodeCount;
+
+    private final JsonCodec<Services> codec = JsonCodec.jsonCodec(Services.class);
+    private InMemoryDynamicStore dynamicStore;
+    private InMemoryStaticStore staticStore;
+    private ServiceResource resource;
+
+    @Setup
+    public void setup()
+    {
+        Announcements announcements = new Announcements(nodeCount);
+        dynamicStore = new InMemoryDynamicStore(new DiscoveryConfig(), new FixedTimeProvider());
+        for (int node = 0; node < announcements.size(); node++) {
+            dynamicStore.put(announcements.getNodeId(node), announcements.getAnnouncement(node));
+        }
+        staticStore = new InMemoryStaticStore();
+
+        DiscoveryEvents events = new DiscoveryEvents(new InMemoryEventClient(), new DiscoveryEventConfig().setEnabledEvents(""));
+        resource = new ServiceResource(new ServiceSnapshotSource(dynamicStore, staticStore), new NodeInfo("benchmark"), events, new DiscoveryConfig(), new ServiceChangeNotifier(), new AdmissionControl(new AdmissionConfig()));
+    }
+
+    @Benchmark
+    public Response getServicesByTypeAndPool()
+    {
+        return resource.getServices("storage", "alpha", null, null, null, null);
+    }
+
+    @Benchmark
+    public Response getServicesByType()
+    {
+        return resource.getServices("storage", null, null, null, null);
+    }
+
+    @Benchmark
+    public void getAllServices(Blackhole blackhole)
+            throws IOException
+    {
+        ((StreamingOutput) resource.getServices(null, null).getEntity()).write(new BlackholeOutputStream(blackhole));
+    }
+
+    @Benchmark
+    public String encodeByTypeAndPool()
+    {
+        return codec.toJson(new Services("benchmark", union(dynamicStore.get("storage", "alpha"), staticStore.get("storage", "alpha"))));
+    }
+
+    @Benchmark
+    public String encodeAll()
+    {
+        return codec.toJson(new Services("benchmark", union(dynamicStore.getAll(), staticStore.getAll())));
+    }
+
+    private static class BlackholeOutputStream
+            extends OutputStream
+    {
+        private final Blackhole blackhole;
+
+        private BlackholeOutputStream(Blackhole blackhole)
+        {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b)
+        {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            blackhole.consume(b);
+        }
+    }
+}
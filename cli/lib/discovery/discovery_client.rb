@@ -37,25 +37,6 @@ module Discovery
     # nil values for pool and type act as wild cards
     #
     def get_services (type = nil, pool = nil)
-
-      # NOTE: query_for_services asks for everything, rather than using the
-      #       more selective resource paths provided by the discovery services.
-      #       This allows the user to query for all services in a given pool,
-      #       which is not an available resource path
-
-      if !pool.nil? && type.nil?
-        service_data = query_for_services()
-        result = []
-
-        service_data['services'].each do |service|
-          if type.nil? || service['type'].eql?(type)
-            result << service if pool.nil? || service['pool'].eql?(pool)
-          end
-        end
-
-        return result
-      end
-
       service_data = query_for_services(type, pool)
       return service_data["services"]
     end
@@ -263,12 +244,15 @@ module Discovery
     #
     def query_for_services(type = nil, pool = nil)
 
-      raise "Type must not be nil if pool is nil" if type.nil? && !pool.nil?
-
       @discovery_urls.each do |discovery_url|
         resource = "/v1/service"
         resource += "/#{type}" if ! type.nil?
-        resource += "/#{pool}" if ! pool.nil?
+        if type.nil? && !pool.nil?
+          # services of every type in the pool are selected by the server
+          resource += "?pool=#{URI.escape(pool)}"
+        elsif ! pool.nil?
+          resource += "/#{pool}"
+        end
 
         service_uri = URI.parse(discovery_url).merge(resource)
 
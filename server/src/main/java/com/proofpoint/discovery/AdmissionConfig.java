@@ -0,0 +1,123 @@
+package com.proofpoint.discovery;
+
+import com.proofpoint.configuration.Config;
+import com.proofpoint.units.Duration;
+import com.proofpoint.units.MinDuration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits on the requests each class of endpoint may have in progress. Every
+ * admitted or queued request holds an HTTP thread, so the limits of all lanes
+ * together must stay below the HTTP server's thread pool (http-server.threads.max,
+ * 200 by default). The defaults take 182 threads and leave the rest for endpoints
+ * outside of the lanes.
+ */
+public class AdmissionConfig
+{
+    private int readMaxConcurrent = 50;
+    private int readMaxQueued = 50;
+    private int writeMaxConcurrent = 16;
+    private int writeMaxQueued = 16;
+    private int watchMaxConcurrent = 50;
+    private Duration maxQueueWait = new Duration(500, TimeUnit.MILLISECONDS);
+    private Duration retryAfter = new Duration(1, TimeUnit.SECONDS);
+
+    @Min(1)
+    public int getReadMaxConcurrent()
+    {
+        return readMaxConcurrent;
+    }
+
+    @Config("discovery.admission.read.max-concurrent")
+    public AdmissionConfig setReadMaxConcurrent(int readMaxConcurrent)
+    {
+        this.readMaxConcurrent = readMaxConcurrent;
+        return this;
+    }
+
+    @Min(0)
+    public int getReadMaxQueued()
+    {
+        return readMaxQueued;
+    }
+
+    @Config("discovery.admission.read.max-queued")
+    public AdmissionConfig setReadMaxQueued(int readMaxQueued)
+    {
+        this.readMaxQueued = readMaxQueued;
+        return this;
+    }
+
+    @Min(1)
+    public int getWriteMaxConcurrent()
+    {
+        return writeMaxConcurrent;
+    }
+
+    @Config("discovery.admission.write.max-concurrent")
+    public AdmissionConfig setWriteMaxConcurrent(int writeMaxConcurrent)
+    {
+        this.writeMaxConcurrent = writeMaxConcurrent;
+        return this;
+    }
+
+    @Min(0)
+    public int getWriteMaxQueued()
+    {
+        return writeMaxQueued;
+    }
+
+    @Config("discovery.admission.write.max-queued")
+    public AdmissionConfig setWriteMaxQueued(int writeMaxQueued)
+    {
+        this.writeMaxQueued = writeMaxQueued;
+        return this;
+    }
+
+    @Min(1)
+    public int getWatchMaxConcurrent()
+    {
+        return watchMaxConcurrent;
+    }
+
+    /**
+     * Watches park for up to minutes, so they are never queued; excess watches are shed.
+     * A parked watch holds its HTTP thread, so this is the number of watchers the
+     * server supports. Raising it requires raising http-server.threads.max by as much.
+     */
+    @Config("discovery.admission.watch.max-concurrent")
+    public AdmissionConfig setWatchMaxConcurrent(int watchMaxConcurrent)
+    {
+        this.watchMaxConcurrent = watchMaxConcurrent;
+        return this;
+    }
+
+    @NotNull
+    public Duration getMaxQueueWait()
+    {
+        return maxQueueWait;
+    }
+
+    @Config("discovery.admission.max-queue-wait")
+    public AdmissionConfig setMaxQueueWait(Duration maxQueueWait)
+    {
+        this.maxQueueWait = maxQueueWait;
+        return this;
+    }
+
+    @MinDuration(value="1s", message="must be greater than or equal to 1s")
+    public Duration getRetryAfter()
+    {
+        return retryAfter;
+    }
+
+    @Config("discovery.admission.retry-after")
+    public AdmissionConfig setRetryAfter(Duration retryAfter)
+    {
+        this.retryAfter = retryAfter;
+        return this;
+    }
+}
@@ -0,0 +1,66 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.ws.rs.core.Response;
+import java.util.concurrent.TimeUnit;
+
+import static javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE;
+
+/**
+ * The admission lanes of the HTTP resources: service lookups, announcement
+ * writes and change watches are bounded separately, so each stays responsive
+ * while another is flooded.
+ */
+public class AdmissionControl
+{
+    private final AdmissionLane readLane;
+    private final AdmissionLane writeLane;
+    private final AdmissionLane watchLane;
+    private final int retryAfterSeconds;
+
+    @Inject
+    public AdmissionControl(AdmissionConfig config)
+    {
+        Preconditions.checkNotNull(config, "config is null");
+
+        this.readLane = new AdmissionLane(config.getReadMaxConcurrent(), config.getReadMaxQueued(), config.getMaxQueueWait());
+        this.writeLane = new AdmissionLane(config.getWriteMaxConcurrent(), config.getWriteMaxQueued(), config.getMaxQueueWait());
+        this.watchLane = new AdmissionLane(config.getWatchMaxConcurrent(), 0, config.getMaxQueueWait());
+        this.retryAfterSeconds = (int) Math.ceil(config.getRetryAfter().convertTo(TimeUnit.SECONDS));
+    }
+
+    /**
+     * Response for requests that were shed or couldn't be served for lack of capacity.
+     */
+    public Response serviceUnavailable()
+    {
+        return Response.status(SERVICE_UNAVAILABLE)
+                .header("Retry-After", retryAfterSeconds)
+                .build();
+    }
+
+    @Managed
+    @Nested
+    public AdmissionLane getReadLane()
+    {
+        return readLane;
+    }
+
+    @Managed
+    @Nested
+    public AdmissionLane getWriteLane()
+    {
+        return writeLane;
+    }
+
+    @Managed
+    @Nested
+    public AdmissionLane getWatchLane()
+    {
+        return watchLane;
+    }
+}
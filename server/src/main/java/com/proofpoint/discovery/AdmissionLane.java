@@ -0,0 +1,166 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Preconditions;
+import com.proofpoint.units.Duration;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the requests of one class of endpoint. Up to maxConcurrent requests run
+ * at once and up to maxQueued more wait for a slot for at most maxQueueWait. Any
+ * request beyond that is shed, so a flood on one lane can't occupy the threads
+ * other lanes need.
+ */
+@ThreadSafe
+public class AdmissionLane
+{
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxQueueWaitNanos;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong admittedCount = new AtomicLong();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong shedCount = new AtomicLong();
+
+    public AdmissionLane(int maxConcurrent, int maxQueued, Duration maxQueueWait)
+    {
+        Preconditions.checkArgument(maxConcurrent > 0, "maxConcurrent must be positive");
+        Preconditions.checkArgument(maxQueued >= 0, "maxQueued is negative");
+        Preconditions.checkNotNull(maxQueueWait, "maxQueueWait is null");
+
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.maxQueueWaitNanos = (long) maxQueueWait.convertTo(TimeUnit.NANOSECONDS);
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * Admits the calling request, waiting in the queue if the lane is busy. Every
+     * successful call must be followed by {@link #exit()}.
+     *
+     * @return false if the request was shed
+     */
+    public boolean enter()
+    {
+        if (permits.tryAcquire()) {
+            admittedCount.incrementAndGet();
+            return true;
+        }
+
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            shedCount.incrementAndGet();
+            return false;
+        }
+        queuedCount.incrementAndGet();
+        try {
+            if (permits.tryAcquire(maxQueueWaitNanos, TimeUnit.NANOSECONDS)) {
+                admittedCount.incrementAndGet();
+                return true;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            queued.decrementAndGet();
+        }
+        shedCount.incrementAndGet();
+        return false;
+    }
+
+    public void exit()
+    {
+        permits.release();
+    }
+
+    /**
+     * Wraps the streaming entity of an admitted request so that it exits the lane
+     * once written. Jersey writes the entity after the resource method returns, and
+     * serializing it is most of the work of a large response.
+     *
+     * @return null if Jersey won't write the entity, in which case the caller
+     * must exit the lane itself
+     */
+    @Nullable
+    public StreamingOutput exitAfterWrite(final StreamingOutput output, @Nullable HttpServletRequest request)
+    {
+        Preconditions.checkNotNull(output, "output is null");
+
+        // the entity of a response to HEAD is never written
+        if (request != null && HttpMethod.HEAD.equals(request.getMethod())) {
+            return null;
+        }
+        return new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream out)
+                    throws IOException
+            {
+                try {
+                    output.write(out);
+                }
+                finally {
+                    exit();
+                }
+            }
+        };
+    }
+
+    @Managed
+    public int getMaxConcurrent()
+    {
+        return maxConcurrent;
+    }
+
+    @Managed
+    public int getMaxQueued()
+    {
+        return maxQueued;
+    }
+
+    @Managed
+    public int getActive()
+    {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    @Managed
+    public int getQueued()
+    {
+        return queued.get();
+    }
+
+    @Managed
+    public long getAdmittedCount()
+    {
+        return admittedCount.get();
+    }
+
+    /**
+     * Requests that had to wait for a slot, whether or not they got one.
+     */
+    @Managed
+    public long getQueuedCount()
+    {
+        return queuedCount.get();
+    }
+
+    @Managed
+    public long getShedCount()
+    {
+        return shedCount.get();
+    }
+}
@@ -0,0 +1,110 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Preconditions;
+import com.proofpoint.units.Duration;
+import org.joda.time.DateTime;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recommends how long a node should wait before announcing again. The delay
+ * starts at a third of the max age, grows in proportion to how far the put rate
+ * exceeds the target rate, and never exceeds half of the max age. The dynamic
+ * store skips unchanged heartbeats until a quarter of the max age has passed,
+ * so a row can go unwritten for that quarter plus one more delay; the cap keeps
+ * that under three quarters of the max age. A random part of the delay is taken
+ * off so nodes that restarted together drift apart instead of announcing in
+ * lockstep.
+ */
+@ThreadSafe
+public class AnnounceIntervalAdvisor
+{
+    private static final long RATE_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Provider<DateTime> currentTime;
+    private final double baseDelayMillis;
+    private final double maxDelayMillis;
+    private final int targetRate;
+    private final double jitter;
+    private final Random random;
+
+    private final AtomicLong windowPutCount = new AtomicLong();
+    private final AtomicLong windowStart;
+    private volatile double putRate;
+
+    @Inject
+    public AnnounceIntervalAdvisor(DiscoveryConfig config, Provider<DateTime> currentTime)
+    {
+        this(config, currentTime, new Random());
+    }
+
+    AnnounceIntervalAdvisor(DiscoveryConfig config, Provider<DateTime> currentTime, Random random)
+    {
+        Preconditions.checkNotNull(config, "config is null");
+        Preconditions.checkNotNull(currentTime, "currentTime is null");
+        Preconditions.checkNotNull(random, "random is null");
+
+        this.currentTime = currentTime;
+        this.baseDelayMillis = config.getMaxAge().toMillis() / 3;
+        this.maxDelayMillis = config.getMaxAge().toMillis() / 2;
+        this.targetRate = config.getAnnounceTargetRate();
+        this.jitter = config.getAnnounceJitterPercent() / 100.0;
+        this.random = random;
+        this.windowStart = new AtomicLong(currentTime.get().getMillis());
+    }
+
+    public void recordPut()
+    {
+        recordPuts(1);
+    }
+
+    public void recordPuts(int count)
+    {
+        windowPutCount.addAndGet(count);
+        updatePutRate(currentTime.get().getMillis());
+    }
+
+    public Duration recommendDelay()
+    {
+        updatePutRate(currentTime.get().getMillis());
+
+        double delayMillis = baseDelayMillis;
+        double rate = putRate;
+        if (targetRate > 0 && rate > targetRate) {
+            delayMillis = Math.min(delayMillis * rate / targetRate, maxDelayMillis);
+        }
+        delayMillis *= 1 - jitter * random.nextDouble();
+        return new Duration(delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void updatePutRate(long now)
+    {
+        long start = windowStart.get();
+        long elapsed = now - start;
+        // only the thread that closes the window computes its rate
+        if (elapsed >= RATE_WINDOW_MILLIS && windowStart.compareAndSet(start, now)) {
+            putRate = windowPutCount.getAndSet(0) * 1000.0 / elapsed;
+        }
+    }
+
+    /**
+     * Puts per second over the last completed window.
+     */
+    @Managed
+    public double getPutRate()
+    {
+        return putRate;
+    }
+
+    @Managed
+    public int getTargetRate()
+    {
+        return targetRate;
+    }
+}
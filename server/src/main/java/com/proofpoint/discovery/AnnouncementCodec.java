@@ -0,0 +1,224 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.proofpoint.json.JsonCodec;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Encodes the service lists stored in Cassandra rows. Values are either the legacy
+ * JSON text or a versioned binary form, and both are accepted when decoding so
+ * servers can be upgraded one at a time. Binary values are only written once
+ * enabled, after every server understands them.
+ * <p/>
+ * The binary form is a marker byte that never starts a JSON document, a format
+ * version, a table of the distinct strings in the value, then each service as a
+ * raw 16-byte id, an optional raw node id, and type, pool, location and property
+ * entries as references into the string table. Counts and lengths are varints.
+ * <p/>
+ * Decoded strings and property maps are interned, so services decoded from
+ * different values share them.
+ */
+@ThreadSafe
+public class AnnouncementCodec
+{
+    private static final byte BINARY_MARKER = 0;
+    private static final byte BINARY_VERSION = 1;
+
+    private final JsonCodec<List<Service>> jsonCodec = JsonCodec.listJsonCodec(Service.class);
+    private final boolean binary;
+    private final ServiceInterner interner;
+
+    public AnnouncementCodec(boolean binary)
+    {
+        this(binary, new ServiceInterner());
+    }
+
+    public AnnouncementCodec(boolean binary, ServiceInterner interner)
+    {
+        Preconditions.checkNotNull(interner, "interner is null");
+
+        this.binary = binary;
+        this.interner = interner;
+    }
+
+    public byte[] encode(List<Service> services)
+    {
+        Preconditions.checkNotNull(services, "services is null");
+
+        if (binary) {
+            return toBinary(services);
+        }
+        return jsonCodec.toJson(services).getBytes(Charsets.UTF_8);
+    }
+
+    public List<Service> decode(byte[] value)
+    {
+        Preconditions.checkNotNull(value, "value is null");
+
+        if (value.length > 0 && value[0] == BINARY_MARKER) {
+            return fromBinary(value, interner);
+        }
+
+        ImmutableList.Builder<Service> services = ImmutableList.builder();
+        for (Service service : jsonCodec.fromJson(new String(value, Charsets.UTF_8))) {
+            services.add(interner.intern(service));
+        }
+        return services.build();
+    }
+
+    static byte[] toBinary(List<Service> services)
+    {
+        Map<String, Integer> strings = Maps.newLinkedHashMap();
+        for (Service service : services) {
+            reference(strings, service.getType());
+            reference(strings, service.getPool());
+            reference(strings, service.getLocation());
+            for (Map.Entry<String, String> property : service.getProperties().entrySet()) {
+                reference(strings, property.getKey());
+                reference(strings, property.getValue());
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(BINARY_MARKER);
+            out.writeByte(BINARY_VERSION);
+
+            writeVarInt(out, strings.size());
+            for (String string : strings.keySet()) {
+                byte[] utf8 = string.getBytes(Charsets.UTF_8);
+                writeVarInt(out, utf8.length);
+                out.write(utf8);
+            }
+
+            writeVarInt(out, services.size());
+            for (Service service : services) {
+                writeUuid(out, service.getId().get());
+                if (service.getNodeId() == null) {
+                    out.writeBoolean(false);
+                }
+                else {
+                    out.writeBoolean(true);
+                    writeUuid(out, service.getNodeId().get());
+                }
+                writeVarInt(out, strings.get(service.getType()));
+                writeVarInt(out, strings.get(service.getPool()));
+                writeVarInt(out, strings.get(service.getLocation()));
+
+                writeVarInt(out, service.getProperties().size());
+                for (Map.Entry<String, String> property : service.getProperties().entrySet()) {
+                    writeVarInt(out, strings.get(property.getKey()));
+                    writeVarInt(out, strings.get(property.getValue()));
+                }
+            }
+            out.flush();
+        }
+        catch (IOException e) {
+            // writes to a byte array don't fail
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<Service> fromBinary(byte[] value, ServiceInterner interner)
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+        try {
+            Preconditions.checkArgument(in.readByte() == BINARY_MARKER, "value is not in the binary format");
+            byte version = in.readByte();
+            Preconditions.checkArgument(version == BINARY_VERSION, "unsupported binary format version %s", version);
+
+            int stringCount = readVarInt(in);
+            List<String> strings = Lists.newArrayListWithCapacity(stringCount);
+            for (int i = 0; i < stringCount; i++) {
+                byte[] utf8 = new byte[readVarInt(in)];
+                in.readFully(utf8);
+                strings.add(interner.intern(new String(utf8, Charsets.UTF_8)));
+            }
+
+            int serviceCount = readVarInt(in);
+            ImmutableList.Builder<Service> services = ImmutableList.builder();
+            for (int i = 0; i < serviceCount; i++) {
+                Id<Service> id = Id.valueOf(readUuid(in));
+                Id<Node> nodeId = null;
+                if (in.readBoolean()) {
+                    nodeId = Id.valueOf(readUuid(in));
+                }
+                String type = strings.get(readVarInt(in));
+                String pool = strings.get(readVarInt(in));
+                String location = strings.get(readVarInt(in));
+
+                int propertyCount = readVarInt(in);
+                ImmutableMap.Builder<String, String> properties = ImmutableMap.builder();
+                for (int j = 0; j < propertyCount; j++) {
+                    properties.put(strings.get(readVarInt(in)), strings.get(readVarInt(in)));
+                }
+
+                services.add(new Service(id, nodeId, type, pool, location, interner.internProperties(properties.build())));
+            }
+            return services.build();
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("value is truncated", e);
+        }
+    }
+
+    private static void reference(Map<String, Integer> strings, String string)
+    {
+        if (!strings.containsKey(string)) {
+            strings.put(string, strings.size());
+        }
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid)
+            throws IOException
+    {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in)
+            throws IOException
+    {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value)
+            throws IOException
+    {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in)
+            throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint is too long");
+    }
+}
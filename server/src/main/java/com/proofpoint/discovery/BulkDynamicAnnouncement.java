@@ -0,0 +1,200 @@
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import javax.annotation.concurrent.Immutable;
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Announcements of many nodes in one environment, as sent by agents that host
+ * several nodes.
+ */
+@Immutable
+public class BulkDynamicAnnouncement
+{
+    private final String environment;
+    private final List<NodeAnnouncement> announcements;
+
+    @JsonCreator
+    public BulkDynamicAnnouncement(
+            @JsonProperty("environment") String environment,
+            @JsonProperty("announcements") List<NodeAnnouncement> announcements)
+    {
+        this.environment = environment;
+
+        if (announcements != null) {
+            this.announcements = ImmutableList.copyOf(announcements);
+        }
+        else {
+            this.announcements = null;
+        }
+    }
+
+    @NotNull
+    public String getEnvironment()
+    {
+        return environment;
+    }
+
+    @NotNull
+    @Valid
+    public List<NodeAnnouncement> getAnnouncements()
+    {
+        return announcements;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        BulkDynamicAnnouncement that = (BulkDynamicAnnouncement) o;
+
+        if (environment != null ? !environment.equals(that.environment) : that.environment != null) {
+            return false;
+        }
+        if (announcements != null ? !announcements.equals(that.announcements) : that.announcements != null) {
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = environment != null ? environment.hashCode() : 0;
+        result = 31 * result + (announcements != null ? announcements.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BulkDynamicAnnouncement{" +
+                "environment='" + environment + '\'' +
+                ", announcements=" + announcements +
+                '}';
+    }
+
+    /**
+     * Announcement of a single node; the environment is taken from the enclosing
+     * bulk announcement.
+     */
+    @Immutable
+    public static class NodeAnnouncement
+    {
+        private final Id<Node> nodeId;
+        private final String location;
+        private final String pool;
+        private final Set<DynamicServiceAnnouncement> services;
+
+        @JsonCreator
+        public NodeAnnouncement(
+                @JsonProperty("nodeId") Id<Node> nodeId,
+                @JsonProperty("pool") String pool,
+                @JsonProperty("location") String location,
+                @JsonProperty("services") Set<DynamicServiceAnnouncement> services)
+        {
+            this.nodeId = nodeId;
+            this.location = location;
+            this.pool = pool;
+
+            if (services != null) {
+                this.services = ImmutableSet.copyOf(services);
+            }
+            else {
+                this.services = null;
+            }
+        }
+
+        @NotNull
+        public Id<Node> getNodeId()
+        {
+            return nodeId;
+        }
+
+        public String getLocation()
+        {
+            return location;
+        }
+
+        @NotNull
+        public String getPool()
+        {
+            return pool;
+        }
+
+        @NotNull
+        @Valid
+        public Set<DynamicServiceAnnouncement> getServiceAnnouncements()
+        {
+            return services;
+        }
+
+        public DynamicAnnouncement toDynamicAnnouncement(String environment)
+        {
+            return new DynamicAnnouncement(environment, pool, location, services);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            NodeAnnouncement that = (NodeAnnouncement) o;
+
+            if (nodeId != null ? !nodeId.equals(that.nodeId) : that.nodeId != null) {
+                return false;
+            }
+            if (location != null ? !location.equals(that.location) : that.location != null) {
+                return false;
+            }
+            if (pool != null ? !pool.equals(that.pool) : that.pool != null) {
+                return false;
+            }
+            if (services != null ? !services.equals(that.services) : that.services != null) {
+                return false;
+            }
+
+            return true;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = nodeId != null ? nodeId.hashCode() : 0;
+            result = 31 * result + (location != null ? location.hashCode() : 0);
+            result = 31 * result + (pool != null ? pool.hashCode() : 0);
+            result = 31 * result + (services != null ? services.hashCode() : 0);
+            return result;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "NodeAnnouncement{" +
+                    "nodeId=" + nodeId +
+                    ", location='" + location + '\'' +
+                    ", pool='" + pool + '\'' +
+                    ", services=" + services +
+                    '}';
+        }
+    }
+}
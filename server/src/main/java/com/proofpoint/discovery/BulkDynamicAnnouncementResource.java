@@ -0,0 +1,205 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.proofpoint.discovery.BulkDynamicAnnouncement.NodeAnnouncement;
+import com.proofpoint.discovery.event.DiscoveryEvents;
+import com.proofpoint.discovery.event.DynamicAnnouncementEvent;
+import com.proofpoint.node.NodeInfo;
+import com.proofpoint.stats.TimedStat;
+import com.proofpoint.units.Duration;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.proofpoint.discovery.DynamicAnnouncementResource.ANNOUNCE_DELAY_HEADER;
+import static java.lang.String.format;
+import static javax.ws.rs.core.Response.Status.ACCEPTED;
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+
+/**
+ * Accepts the announcements of many nodes in one request. The environment is
+ * checked once for the whole request, every announcement that is complete is
+ * written to the store in a single call, and the response maps each node id to
+ * {@link #ACCEPTED_RESULT} or the reason its announcement was rejected. Later
+ * announcements of the same node replace earlier ones.
+ */
+@Path("/v1/announcement")
+public class BulkDynamicAnnouncementResource
+{
+    public static final String ACCEPTED_RESULT = "accepted";
+
+    private final NodeInfo nodeInfo;
+    private final DynamicStore dynamicStore;
+    private final StoreWriteExecutor writeExecutor;
+    private final AdmissionControl admission;
+    private final AdmissionLane writeLane;
+    private final AnnounceIntervalAdvisor intervalAdvisor;
+    private final DiscoveryEvents events;
+    private final TimedStat bulkPutStats;
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicInteger environmentMismatchCount = new AtomicInteger(0);
+
+    @Inject
+    public BulkDynamicAnnouncementResource(DynamicStore dynamicStore, StoreWriteExecutor writeExecutor, AdmissionControl admission, AnnounceIntervalAdvisor intervalAdvisor, NodeInfo nodeInfo, DiscoveryEvents events, DiscoveryConfig discoveryConfig)
+    {
+        this.dynamicStore = dynamicStore;
+        this.writeExecutor = writeExecutor;
+        this.admission = admission;
+        this.writeLane = admission.getWriteLane();
+        this.intervalAdvisor = intervalAdvisor;
+        this.nodeInfo = nodeInfo;
+        this.events = events;
+        this.bulkPutStats = new TimedStat(discoveryConfig.getStatsWindowSize());
+    }
+
+    @PUT
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response put(BulkDynamicAnnouncement bulkAnnouncement, @Context HttpServletRequest request)
+    {
+        long startTime = System.nanoTime();
+        boolean successful = false;
+        Map<Id<Node>, DynamicAnnouncementEvent.Builder> announcementEvents = Maps.newHashMap();
+        if (!writeLane.enter()) {
+            return admission.serviceUnavailable();
+        }
+        try {
+            if (!nodeInfo.getEnvironment().equals(bulkAnnouncement.getEnvironment())) {
+                environmentMismatchCount.incrementAndGet();
+                return Response.status(BAD_REQUEST)
+                        .entity(format("Environment mismatch. Expected: %s, Provided: %s", nodeInfo.getEnvironment(), bulkAnnouncement.getEnvironment()))
+                        .build();
+            }
+            if (bulkAnnouncement.getAnnouncements() == null) {
+                return Response.status(BAD_REQUEST)
+                        .entity("No announcements provided")
+                        .build();
+            }
+
+            Map<String, String> results = Maps.newLinkedHashMap();
+            final Map<Id<Node>, DynamicAnnouncement> announcements = Maps.newLinkedHashMap();
+            for (NodeAnnouncement nodeAnnouncement : bulkAnnouncement.getAnnouncements()) {
+                Id<Node> nodeId = nodeAnnouncement.getNodeId();
+                if (nodeId == null) {
+                    return Response.status(BAD_REQUEST)
+                            .entity("Announcement without node id")
+                            .build();
+                }
+
+                String error = validate(nodeAnnouncement);
+                if (error != null) {
+                    announcements.remove(nodeId);
+                    announcementEvents.remove(nodeId);
+                    results.put(nodeId.toString(), error);
+                    continue;
+                }
+
+                String location = Objects.firstNonNull(nodeAnnouncement.getLocation(), "/somewhere/" + nodeId.toString());
+                DynamicAnnouncement announcement = DynamicAnnouncement.copyOf(nodeAnnouncement.toDynamicAnnouncement(bulkAnnouncement.getEnvironment()))
+                        .setLocation(location)
+                        .build();
+                announcements.put(nodeId, announcement);
+                results.put(nodeId.toString(), ACCEPTED_RESULT);
+
+                DynamicAnnouncementEvent.Builder event = events.getDynamicAnnouncementEventBuilder();
+                if (request != null) {
+                    event.setRemoteAddress(request.getRemoteAddr());
+                }
+                announcementEvents.put(nodeId, event.setAnnouncement(announcement));
+            }
+
+            if (!announcements.isEmpty()) {
+                intervalAdvisor.recordPuts(announcements.size());
+                try {
+                    writeExecutor.execute(new Callable<Void>()
+                    {
+                        @Override
+                        public Void call()
+                        {
+                            dynamicStore.putAll(announcements);
+                            return null;
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e) {
+                    return admission.serviceUnavailable();
+                }
+                catch (StoreWriteTimeoutException e) {
+                    // writes by node id can safely be repeated
+                    return admission.serviceUnavailable();
+                }
+            }
+            for (DynamicAnnouncementEvent.Builder event : announcementEvents.values()) {
+                event.setSuccess();
+            }
+            acceptedCount.addAndGet(announcements.size());
+            rejectedCount.addAndGet(results.size() - announcements.size());
+            successful = true;
+            return Response.status(ACCEPTED)
+                    .header(ANNOUNCE_DELAY_HEADER, intervalAdvisor.recommendDelay().toString())
+                    .entity(ImmutableMap.copyOf(results))
+                    .build();
+        }
+        finally {
+            writeLane.exit();
+            for (DynamicAnnouncementEvent.Builder event : announcementEvents.values()) {
+                event.post();
+            }
+            if (successful) {
+                bulkPutStats.addValue(Duration.nanosSince(startTime));
+            }
+        }
+    }
+
+    private static String validate(NodeAnnouncement announcement)
+    {
+        if (announcement.getPool() == null) {
+            return "Pool is missing";
+        }
+        if (announcement.getServiceAnnouncements() == null) {
+            return "Services are missing";
+        }
+        return null;
+    }
+
+    @Managed
+    @Nested
+    public TimedStat getBulkPutStats()
+    {
+        return bulkPutStats;
+    }
+
+    @Managed
+    public long getAcceptedCount()
+    {
+        return acceptedCount.get();
+    }
+
+    @Managed
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+    public int getEnvironmentMismatchCount()
+    {
+        return environmentMismatchCount.get();
+    }
+}
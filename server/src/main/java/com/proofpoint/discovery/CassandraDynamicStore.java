@@ -2,18 +2,22 @@ package com.proofpoint.discovery;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableSet;
-import com.proofpoint.json.JsonCodec;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.proofpoint.log.Logger;
 import com.proofpoint.stats.TimedStat;
 import com.proofpoint.units.Duration;
 import me.prettyprint.cassandra.model.AllOneConsistencyLevelPolicy;
+import me.prettyprint.cassandra.serializers.BytesArraySerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
 import me.prettyprint.hector.api.Cluster;
 import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.beans.Row;
 import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
 import org.joda.time.DateTime;
 import org.weakref.jmx.Managed;
 import org.weakref.jmx.Nested;
@@ -22,23 +26,28 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Provider;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
-import static com.google.common.base.Predicates.and;
 import static com.google.common.collect.Collections2.transform;
 import static com.google.common.collect.ImmutableList.copyOf;
-import static com.google.common.collect.Iterables.filter;
 import static com.google.common.collect.Iterables.getFirst;
+import static com.proofpoint.discovery.CassandraPaginator.isRandomPartitioner;
 import static com.proofpoint.discovery.CassandraPaginator.paginate;
+import static com.proofpoint.discovery.CassandraPaginator.randomPartitionerSegments;
 import static com.proofpoint.discovery.DynamicServiceAnnouncement.toServiceWith;
-import static com.proofpoint.discovery.Service.matchesPool;
-import static com.proofpoint.discovery.Service.matchesType;
 
 public class CassandraDynamicStore
         implements DynamicStore
@@ -49,7 +58,8 @@ public class CassandraDynamicStore
     private final static String COLUMN = "dynamic_announcement";
     private static final int PAGE_SIZE = 1000;
 
-    private final JsonCodec<List<Service>> codec = JsonCodec.listJsonCodec(Service.class);
+    private final AnnouncementCodec codec;
+    private final ServiceInterner interner = new ServiceInterner();
     private final ScheduledExecutorService loader = new ScheduledThreadPoolExecutor(1);
 
     private Keyspace keyspace;
@@ -61,26 +71,63 @@ public class CassandraDynamicStore
     private final AtomicBoolean initialized = new AtomicBoolean(false);
     private final Provider<DateTime> currentTime;
 
-    private final AtomicReference<Set<Service>> services = new AtomicReference<Set<Service>>(ImmutableSet.<Service>of());
+    private final AtomicReference<ServiceIndex> services = new AtomicReference<ServiceIndex>(ServiceIndex.empty());
     private final TimedStat dynamicStorePutStats;
+    private final TimedStat dynamicStorePutAllStats;
     private final TimedStat dynamicStoreDeleteStats;
     private final TimedStat dynamicStoreLoadAllStats;
+    private final ServiceChangeNotifier changeNotifier;
+    private final int scanSegments;
+    private final ExecutorService scanExecutor;
+    private final Supplier<Boolean> randomPartitioner;
+    private final WriteBatcher<String, HColumn<String, byte[]>> writeBatcher;
+
+    // rows decoded by the last reload, keyed by node id
+    private Map<String, DecodedRow> decodedRows = ImmutableMap.of();
+    private final AtomicLong decodedRowCount = new AtomicLong();
+    private final AtomicLong reusedRowCount = new AtomicLong();
+
+    // last announcement this server wrote for each node
+    private final ConcurrentMap<Id<Node>, WrittenAnnouncement> writtenAnnouncements = new ConcurrentHashMap<Id<Node>, WrittenAnnouncement>();
+    private final AtomicLong skippedWriteCount = new AtomicLong();
 
     @Inject
     public CassandraDynamicStore(
             CassandraStoreConfig config,
             DiscoveryConfig discoveryConfig,
             Provider<DateTime> currentTime,
-            Cluster cluster)
+            Cluster cluster,
+            ServiceChangeNotifier changeNotifier)
     {
         this.currentTime = currentTime;
+        this.changeNotifier = changeNotifier;
         this.config = config;
         this.cluster = cluster;
+        this.codec = new AnnouncementCodec(config.isBinaryFormatEnabled(), interner);
         this.maxAge = discoveryConfig.getMaxAge();
         this.dynamicStorePutStats = new TimedStat(discoveryConfig.getStatsWindowSize());
+        this.dynamicStorePutAllStats = new TimedStat(discoveryConfig.getStatsWindowSize());
         this.dynamicStoreDeleteStats = new TimedStat(discoveryConfig.getStatsWindowSize());
         this.dynamicStoreLoadAllStats = new TimedStat(discoveryConfig.getStatsWindowSize());
         this.cacheReloadDuration = discoveryConfig.getDynamicServiceCacheRefresh();
+        this.scanSegments = config.getScanSegments();
+        this.scanExecutor = Executors.newFixedThreadPool(scanSegments, new ThreadFactoryBuilder().setNameFormat("dynamic-store-scan-%d").setDaemon(true).build());
+        this.randomPartitioner = isRandomPartitioner(cluster);
+        this.writeBatcher = new WriteBatcher<String, HColumn<String, byte[]>>(new WriteBatcher.Flusher<String, HColumn<String, byte[]>>()
+        {
+            @Override
+            public void flush(Map<String, HColumn<String, byte[]>> batch)
+            {
+                insert(batch);
+            }
+
+            @Override
+            public HColumn<String, byte[]> merge(HColumn<String, byte[]> pending, HColumn<String, byte[]> column)
+            {
+                // Cassandra would keep the higher clock anyway, so don't replace it with an older write
+                return column.getClock() >= pending.getClock() ? column : pending;
+            }
+        }, config.getWriteBatchSize(), config.getWriteBatchDelay(), discoveryConfig.getStatsWindowSize());
     }
 
     @PostConstruct
@@ -112,6 +159,8 @@ public class CassandraDynamicStore
     public void shutdown()
     {
         loader.shutdown();
+        scanExecutor.shutdown();
+        writeBatcher.shutdown();
     }
 
     @Override
@@ -121,26 +170,89 @@ public class CassandraDynamicStore
         Preconditions.checkNotNull(announcement, "announcement is null");
 
         long startTime = System.nanoTime();
-        List<Service> services = copyOf(transform(announcement.getServiceAnnouncements(), toServiceWith(nodeId, announcement.getLocation(), announcement.getPool())));
-        String value = codec.toJson(services);
-
         DateTime now = currentTime.get();
 
-        HColumn<String, String> column = HFactory.createColumn(COLUMN, value, now.getMillis(), StringSerializer.get(), StringSerializer.get())
-                .setTtl((int) maxAge.convertTo(TimeUnit.SECONDS));
+        if (!needsWrite(nodeId, announcement, now)) {
+            skippedWriteCount.incrementAndGet();
+            dynamicStorePutStats.addValue(Duration.nanosSince(startTime));
+            return true;
+        }
 
-        HFactory.createMutator(keyspace, StringSerializer.get())
-                .addInsertion(nodeId.toString(), COLUMN_FAMILY, column)
-                .execute();
+        writeBatcher.write(nodeId.toString(), createColumn(nodeId, announcement, now));
+        writtenAnnouncements.put(nodeId, new WrittenAnnouncement(announcement, now.getMillis()));
         dynamicStorePutStats.addValue(Duration.nanosSince(startTime));
         return true;
     }
 
+    /**
+     * Writes all announcements that need writing in a single mutation of their own
+     * rather than through the write batcher, since the caller already batched them.
+     */
+    @Override
+    public void putAll(Map<Id<Node>, DynamicAnnouncement> announcements)
+    {
+        Preconditions.checkNotNull(announcements, "announcements is null");
+
+        long startTime = System.nanoTime();
+        DateTime now = currentTime.get();
+
+        Map<String, HColumn<String, byte[]>> columns = Maps.newHashMapWithExpectedSize(announcements.size());
+        for (Map.Entry<Id<Node>, DynamicAnnouncement> entry : announcements.entrySet()) {
+            if (needsWrite(entry.getKey(), entry.getValue(), now)) {
+                columns.put(entry.getKey().toString(), createColumn(entry.getKey(), entry.getValue(), now));
+            }
+            else {
+                skippedWriteCount.incrementAndGet();
+            }
+        }
+
+        if (!columns.isEmpty()) {
+            insert(columns);
+            for (Map.Entry<Id<Node>, DynamicAnnouncement> entry : announcements.entrySet()) {
+                if (columns.containsKey(entry.getKey().toString())) {
+                    writtenAnnouncements.put(entry.getKey(), new WrittenAnnouncement(entry.getValue(), now.getMillis()));
+                }
+            }
+        }
+        dynamicStorePutAllStats.addValue(Duration.nanosSince(startTime));
+    }
+
+    /**
+     * Heartbeats repeat the previous announcement; the row written for it stays live
+     * for maxAge, so it only needs to be rewritten once a quarter of that has passed.
+     * Nodes that follow the advised delay are rewritten on every heartbeat; the skip
+     * saves the writes of nodes that announce more often. Each reload forgets writes
+     * whose row no longer holds them.
+     */
+    private boolean needsWrite(Id<Node> nodeId, DynamicAnnouncement announcement, DateTime now)
+    {
+        WrittenAnnouncement written = writtenAnnouncements.get(nodeId);
+        return written == null || !written.getAnnouncement().equals(announcement) || now.getMillis() - written.getWriteTime() >= maxAge.toMillis() / 4;
+    }
+
+    private HColumn<String, byte[]> createColumn(Id<Node> nodeId, DynamicAnnouncement announcement, DateTime now)
+    {
+        List<Service> services = copyOf(transform(announcement.getServiceAnnouncements(), toServiceWith(nodeId, announcement.getLocation(), announcement.getPool())));
+        byte[] value = codec.encode(services);
+
+        return HFactory.createColumn(COLUMN, value, now.getMillis(), StringSerializer.get(), BytesArraySerializer.get())
+                .setTtl((int) maxAge.convertTo(TimeUnit.SECONDS));
+    }
+
+    private void insert(Map<String, HColumn<String, byte[]>> columns)
+    {
+        Mutator<String> mutator = HFactory.createMutator(keyspace, StringSerializer.get());
+        for (Map.Entry<String, HColumn<String, byte[]>> entry : columns.entrySet()) {
+            mutator.addInsertion(entry.getKey(), COLUMN_FAMILY, entry.getValue());
+        }
+        mutator.execute();
+    }
+
     @Override
     public boolean delete(Id<Node> nodeId)
     {
         long startTime = System.nanoTime();
-        HColumn<String, String> column = HFactory.createColumnQuery(keyspace, StringSerializer.get(), StringSerializer.get(), StringSerializer.get())
+        HColumn<String, byte[]> column = HFactory.createColumnQuery(keyspace, StringSerializer.get(), StringSerializer.get(), BytesArraySerializer.get())
                 .setColumnFamily(COLUMN_FAMILY)
                 .setKey(nodeId.toString())
                 .setName(COLUMN)
@@ -154,38 +266,52 @@ public class CassandraDynamicStore
         HFactory.createMutator(keyspace, StringSerializer.get())
                 .addDeletion(nodeId.toString(), COLUMN_FAMILY, currentTime.get().getMillis())
                 .execute();
+        writtenAnnouncements.remove(nodeId);
         dynamicStoreDeleteStats.addValue(Duration.nanosSince(startTime));
         return exists;
     }
 
     public Set<Service> getAll()
     {
-        return services.get();
+        return services.get().getAll();
     }
 
     @Override
     public Set<Service> get(String type)
     {
-        return ImmutableSet.copyOf(filter(getAll(), matchesType(type)));
+        return services.get().get(type);
     }
 
     @Override
     public Set<Service> get(String type, String pool)
     {
-        return ImmutableSet.copyOf(filter(getAll(), and(matchesType(type), matchesPool(pool))));
+        return services.get().get(type, pool);
+    }
+
+    @Override
+    public Set<Service> getByProperties(Map<String, String> properties)
+    {
+        return services.get().getByProperties(properties);
     }
 
+    /**
+     * Rebuilds the snapshot from Cassandra. Heartbeats rewrite rows with a new clock but
+     * usually the same content, so rows are only decoded when their content changed since
+     * the previous reload; otherwise their services are copied over from the previous
+     * table, column by column. The encoded bytes of each row are kept to tell, since
+     * a hash match alone would let a collision keep stale services.
+     */
     @VisibleForTesting
-    void reload()
+    synchronized void reload()
     {
         long startTime = System.nanoTime();
-        ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
+        ServiceTable.Builder builder = ServiceTable.builder();
 
-        CassandraPaginator.PageQuery<String, String, String> query = new CassandraPaginator.PageQuery<String, String, String>()
+        CassandraPaginator.PageQuery<String, String, byte[]> query = new CassandraPaginator.PageQuery<String, String, byte[]>()
         {
-            public Iterable<Row<String, String, String>> query(String start, int count)
+            public Iterable<Row<String, String, byte[]>> query(String start, int count)
             {
-                return HFactory.createRangeSlicesQuery(keyspace, StringSerializer.get(), StringSerializer.get(), StringSerializer.get())
+                return HFactory.createRangeSlicesQuery(keyspace, StringSerializer.get(), StringSerializer.get(), BytesArraySerializer.get())
                         .setColumnFamily(COLUMN_FAMILY)
                         .setKeys(start, null)
                         .setRange(COLUMN, COLUMN, false, 1)
@@ -195,20 +321,77 @@ public class CassandraDynamicStore
             }
         };
 
-        for (Row<String, String, String> row : paginate(query, null, PAGE_SIZE)) {
-            HColumn<String, String> column = getFirst(row.getColumnSlice().getColumns(), null);
+        CassandraPaginator.TokenRangeQuery<String, String, byte[]> tokenRangeQuery = new CassandraPaginator.TokenRangeQuery<String, String, byte[]>()
+        {
+            public Iterable<Row<String, String, byte[]>> query(String startToken, String endToken, int count)
+            {
+                return HFactory.createRangeSlicesQuery(keyspace, StringSerializer.get(), StringSerializer.get(), BytesArraySerializer.get())
+                        .setColumnFamily(COLUMN_FAMILY)
+                        .setTokens(startToken, endToken)
+                        .setRange(COLUMN, COLUMN, false, 1)
+                        .setRowCount(count)
+                        .execute()
+                        .get();
+            }
+        };
+
+        Iterable<? extends Row<String, String, byte[]>> pages;
+        if (scanSegments > 1 && randomPartitioner.get()) {
+            pages = paginate(randomPartitionerSegments(tokenRangeQuery, scanSegments), PAGE_SIZE, scanExecutor);
+        }
+        else {
+            pages = paginate(query, null, PAGE_SIZE);
+        }
+
+        // positions of decoded rows refer to the table of the current index, which has the
+        // same layout as the table built by the previous reload if that one was discarded
+        ServiceTable previousTable = services.get().getAll();
+        Map<String, DecodedRow> previousRows = decodedRows;
+        Map<String, DecodedRow> rows = Maps.newHashMapWithExpectedSize(previousRows.size());
+        for (Row<String, String, byte[]> row : pages) {
+            HColumn<String, byte[]> column = getFirst(row.getColumnSlice().getColumns(), null);
             if (column != null) {
                 if(column.getClock() > expirationCutoff().getMillis()) {
-                    builder.addAll(codec.fromJson(column.getValue()));
+                    DecodedRow previous = previousRows.get(row.getKey());
+                    byte[] value = column.getValue();
+
+                    int start = builder.size();
+                    // a rewritten row is only reused if its bytes are identical, so no hash
+                    // collision can keep stale services
+                    if (previous != null && (previous.getClock() == column.getClock() || Arrays.equals(previous.getValue(), value))) {
+                        builder.addRows(previousTable, previous.getStart(), previous.getEnd());
+                        reusedRowCount.incrementAndGet();
+                        value = previous.getValue();
+                    }
+                    else {
+                        builder.addAll(codec.decode(value));
+                        decodedRowCount.incrementAndGet();
+                    }
+                    rows.put(row.getKey(), new DecodedRow(column.getClock(), value, start, builder.size()));
                 }
             }
         }
 
-        services.set(builder.build());
+        // other servers share the column family and may have deleted, rewritten or let
+        // expire a row this server wrote, so only a row still holding the write lets
+        // later heartbeats skip theirs
+        for (Map.Entry<Id<Node>, WrittenAnnouncement> entry : writtenAnnouncements.entrySet()) {
+            DecodedRow row = rows.get(entry.getKey().toString());
+            if (row == null || row.getClock() != entry.getValue().getWriteTime()) {
+                writtenAnnouncements.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        ServiceIndex current = services.get();
+        ServiceIndex updated = ServiceIndex.update(current, builder.build(current.getAll()));
+        if (updated != current) {
+            services.set(updated);
+            changeNotifier.changed();
+        }
+        decodedRows = rows;
         dynamicStoreLoadAllStats.addValue(Duration.nanosSince(startTime));
     }
 
-
     private DateTime expirationCutoff()
     {
         return currentTime.get().minusMillis((int) maxAge.toMillis());
@@ -221,6 +404,20 @@ public class CassandraDynamicStore
         return dynamicStorePutStats;
     }
 
+    @Managed
+    @Nested
+    public TimedStat getDynamicStorePutAllStats()
+    {
+        return dynamicStorePutAllStats;
+    }
+
+    @Managed
+    @Nested
+    public WriteBatcher<String, HColumn<String, byte[]>> getDynamicStoreWriteBatcher()
+    {
+        return writeBatcher;
+    }
+
     @Managed
     @Nested
     public TimedStat getDynamicStoreDeleteStats()
@@ -234,4 +431,97 @@ public class CassandraDynamicStore
     {
         return dynamicStoreLoadAllStats;
     }
+
+    @Managed
+    @Nested
+    public ServiceInterner getDynamicStoreInterner()
+    {
+        return interner;
+    }
+
+    @Managed
+    public long getSnapshotHeapBytes()
+    {
+        return services.get().getHeapBytes();
+    }
+
+    @Managed
+    public long getDecodedRowCount()
+    {
+        return decodedRowCount.get();
+    }
+
+    @Managed
+    public long getReusedRowCount()
+    {
+        return reusedRowCount.get();
+    }
+
+    @Managed
+    public long getSkippedWriteCount()
+    {
+        return skippedWriteCount.get();
+    }
+
+    private static class WrittenAnnouncement
+    {
+        private final DynamicAnnouncement announcement;
+        private final long writeTime;
+
+        private WrittenAnnouncement(DynamicAnnouncement announcement, long writeTime)
+        {
+            this.announcement = announcement;
+            this.writeTime = writeTime;
+        }
+
+        public DynamicAnnouncement getAnnouncement()
+        {
+            return announcement;
+        }
+
+        public long getWriteTime()
+        {
+            return writeTime;
+        }
+    }
+
+    /**
+     * Where the services of a row were put in the table of the last reload.
+     */
+    private static class DecodedRow
+    {
+        private final long clock;
+        // encoded content the services were decoded from, compared with later versions of the row
+        private final byte[] value;
+        private final int start;
+        private final int end;
+
+        private DecodedRow(long clock, byte[] value, int start, int end)
+        {
+            this.clock = clock;
+            this.value = value;
+            this.start = start;
+            this.end = end;
+        }
+
+        public long getClock()
+        {
+            return clock;
+        }
+
+        public byte[] getValue()
+        {
+            return value;
+        }
+
+        public int getStart()
+        {
+            return start;
+        }
+
+        public int getEnd()
+        {
+            return end;
+        }
+    }
 }
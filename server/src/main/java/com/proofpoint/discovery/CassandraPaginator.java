@@ -1,14 +1,34 @@
 package com.proofpoint.discovery;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import me.prettyprint.hector.api.Cluster;
 import me.prettyprint.hector.api.beans.Row;
 
 import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class CassandraPaginator
 {
+    private static final String RANDOM_PARTITIONER = "org.apache.cassandra.dht.RandomPartitioner";
+    private static final BigInteger RANDOM_PARTITIONER_MAX_TOKEN = BigInteger.ONE.shiftLeft(127);
+
     public static <K, N, V> Iterable<? extends Row<K, N, V>> paginate(final PageQuery<K, N, V> query, @Nullable final K start, final int pageSize)
     {
         return new Iterable<Row<K, N, V>>() {
@@ -19,11 +39,129 @@ public class CassandraPaginator
         };
     }
 
+    /**
+     * Scans each segment with its own paginator on executor and concatenates the rows in
+     * segment order. Segments must not overlap.
+     */
+    public static <K, N, V> Iterable<Row<K, N, V>> paginate(List<? extends PageQuery<K, N, V>> segments, final int pageSize, ExecutorService executor)
+    {
+        Preconditions.checkNotNull(segments, "segments is null");
+        Preconditions.checkNotNull(executor, "executor is null");
+
+        List<Future<List<Row<K, N, V>>>> futures = Lists.newArrayList();
+        for (final PageQuery<K, N, V> segment : segments) {
+            futures.add(executor.submit(new Callable<List<Row<K, N, V>>>()
+            {
+                @Override
+                public List<Row<K, N, V>> call()
+                {
+                    return ImmutableList.<Row<K, N, V>>copyOf(paginate(segment, null, pageSize));
+                }
+            }));
+        }
+
+        List<Iterable<Row<K, N, V>>> pages = Lists.newArrayList();
+        try {
+            for (Future<List<Row<K, N, V>>> future : futures) {
+                pages.add(future.get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return Iterables.concat(pages);
+    }
+
+    /**
+     * Splits the RandomPartitioner token ring into segmentCount contiguous ranges and
+     * returns a page query for each, suitable for {@link #paginate(List, int, ExecutorService)}.
+     */
+    public static <N, V> List<PageQuery<String, N, V>> randomPartitionerSegments(final TokenRangeQuery<String, N, V> query, int segmentCount)
+    {
+        Preconditions.checkNotNull(query, "query is null");
+        Preconditions.checkArgument(segmentCount > 0, "segmentCount must be positive");
+
+        ImmutableList.Builder<PageQuery<String, N, V>> segments = ImmutableList.builder();
+        BigInteger segmentSize = RANDOM_PARTITIONER_MAX_TOKEN.divide(BigInteger.valueOf(segmentCount));
+        for (int i = 0; i < segmentCount; i++) {
+            final BigInteger startToken = segmentSize.multiply(BigInteger.valueOf(i));
+            final BigInteger endToken = (i == segmentCount - 1) ? RANDOM_PARTITIONER_MAX_TOKEN : startToken.add(segmentSize);
+
+            segments.add(new PageQuery<String, N, V>()
+            {
+                @Override
+                public Iterable<? extends Row<String, N, V>> query(String start, int count)
+                {
+                    // token ranges exclude their start; back up one so the row at start is
+                    // returned again, as the paginator expects
+                    BigInteger from = startToken;
+                    if (start != null) {
+                        from = randomPartitionerToken(start).subtract(BigInteger.ONE);
+                    }
+                    return query.query(from.toString(), endToken.toString(), count);
+                }
+            });
+        }
+        return segments.build();
+    }
+
+    /**
+     * Whether the cluster uses RandomPartitioner, whose token space
+     * {@link #randomPartitionerSegments} splits. The cluster is asked on the first
+     * call and the answer is remembered.
+     */
+    public static Supplier<Boolean> isRandomPartitioner(final Cluster cluster)
+    {
+        Preconditions.checkNotNull(cluster, "cluster is null");
+
+        return Suppliers.memoize(new Supplier<Boolean>()
+        {
+            @Override
+            public Boolean get()
+            {
+                return RANDOM_PARTITIONER.equals(cluster.describePartitioner());
+            }
+        });
+    }
+
+    /**
+     * Token RandomPartitioner assigns to a UTF-8 encoded key.
+     */
+    public static BigInteger randomPartitionerToken(String key)
+    {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        return new BigInteger(md5.digest(key.getBytes(Charsets.UTF_8))).abs();
+    }
+
     public static interface PageQuery<K, N, V>
     {
         Iterable<? extends Row<K, N, V>> query(K start, int count);
     }
 
+    /**
+     * Returns up to count rows whose tokens fall in (startToken, endToken], in token order.
+     */
+    public static interface TokenRangeQuery<K, N, V>
+    {
+        Iterable<? extends Row<K, N, V>> query(String startToken, String endToken, int count);
+    }
+
     private static class QueryIterator<K, N, V>
             implements Iterator<Row<K, N, V>>
     {
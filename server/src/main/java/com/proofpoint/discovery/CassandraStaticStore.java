@@ -1,12 +1,13 @@
 package com.proofpoint.discovery;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
-import com.proofpoint.json.JsonCodec;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.proofpoint.log.Logger;
 import com.proofpoint.stats.TimedStat;
 import com.proofpoint.units.Duration;
 import me.prettyprint.cassandra.model.QuorumAllConsistencyLevelPolicy;
+import me.prettyprint.cassandra.serializers.BytesArraySerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
 import me.prettyprint.hector.api.Cluster;
 import me.prettyprint.hector.api.Keyspace;
@@ -22,19 +23,19 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Provider;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
-import static com.google.common.base.Predicates.and;
-import static com.google.common.collect.Iterables.filter;
+import static com.proofpoint.discovery.CassandraPaginator.isRandomPartitioner;
 import static com.proofpoint.discovery.CassandraPaginator.paginate;
-import static com.proofpoint.discovery.Service.matchesPool;
-import static com.proofpoint.discovery.Service.matchesType;
+import static com.proofpoint.discovery.CassandraPaginator.randomPartitionerSegments;
 
 public class CassandraStaticStore
         implements StaticStore
@@ -44,7 +45,8 @@ public class CassandraStaticStore
     private static final String COLUMN_NAME = "static";
     private static final int PAGE_SIZE = 1000;
 
-    private final JsonCodec<List<Service>> codec = JsonCodec.listJsonCodec(Service.class);
+    private final AnnouncementCodec codec;
+    private final ServiceInterner interner = new ServiceInterner();
 
     private final Keyspace keyspace;
     private final Provider<DateTime> currentTime;
@@ -52,27 +54,36 @@ public class CassandraStaticStore
     private final CassandraStoreConfig config;
     private final Duration cacheRefreshDuration;
 
-    private final AtomicReference<Set<Service>> services = new AtomicReference<Set<Service>>(ImmutableSet.<Service>of());
+    private final AtomicReference<ServiceIndex> services = new AtomicReference<ServiceIndex>(ServiceIndex.empty());
     private final ScheduledExecutorService loader = new ScheduledThreadPoolExecutor(1);
     private final AtomicBoolean initialized = new AtomicBoolean(false);
     private final TimedStat storePutStats;
     private final TimedStat storeDeleteStats;
     private final TimedStat storeLoadAllStats;
+    private final ServiceChangeNotifier changeNotifier;
+    private final int scanSegments;
+    private final ExecutorService scanExecutor;
+    private final Supplier<Boolean> randomPartitioner;
 
 
     @Inject
-    public CassandraStaticStore(CassandraStoreConfig config, Cluster cluster, Provider<DateTime> currentTime, DiscoveryConfig discoveryConfig)
+    public CassandraStaticStore(CassandraStoreConfig config, Cluster cluster, Provider<DateTime> currentTime, DiscoveryConfig discoveryConfig, ServiceChangeNotifier changeNotifier)
     {
         this.currentTime = currentTime;
+        this.changeNotifier = changeNotifier;
         this.cluster = cluster;
         this.config = config;
-        
+        this.codec = new AnnouncementCodec(config.isBinaryFormatEnabled(), interner);
+
         keyspace = HFactory.createKeyspace(config.getKeyspace(), cluster);
         keyspace.setConsistencyLevelPolicy(new QuorumAllConsistencyLevelPolicy());
         this.storePutStats = new TimedStat(discoveryConfig.getStatsWindowSize());
         this.storeDeleteStats = new TimedStat(discoveryConfig.getStatsWindowSize());
         this.storeLoadAllStats = new TimedStat(discoveryConfig.getStatsWindowSize());
         this.cacheRefreshDuration = discoveryConfig.getStaticServiceCacheRefresh();
+        this.scanSegments = config.getScanSegments();
+        this.scanExecutor = Executors.newFixedThreadPool(scanSegments, new ThreadFactoryBuilder().setNameFormat("static-store-scan-%d").setDaemon(true).build());
+        this.randomPartitioner = isRandomPartitioner(cluster);
     }
 
     @PostConstruct
@@ -102,16 +113,17 @@ public class CassandraStaticStore
     public void shutdown()
     {
         loader.shutdown();
+        scanExecutor.shutdown();
     }
 
     @Override
     public void put(Service service)
     {
         long startTime = System.nanoTime();
-        String value = codec.toJson(ImmutableList.of(service));
+        byte[] value = codec.encode(ImmutableList.of(service));
 
         HFactory.createMutator(keyspace, StringSerializer.get())
-                .addInsertion(service.getId().toString(), COLUMN_FAMILY, HFactory.createColumn(COLUMN_NAME, value, currentTime.get().getMillis(), StringSerializer.get(), StringSerializer.get()))
+                .addInsertion(service.getId().toString(), COLUMN_FAMILY, HFactory.createColumn(COLUMN_NAME, value, currentTime.get().getMillis(), StringSerializer.get(), BytesArraySerializer.get()))
                 .execute();
         storePutStats.addValue(Duration.nanosSince(startTime));
     }
@@ -129,32 +141,38 @@ public class CassandraStaticStore
     @Override
     public Set<Service> getAll()
     {
-        return services.get();
+        return services.get().getAll();
     }
 
     @Override
     public Set<Service> get(String type)
     {
-        return ImmutableSet.copyOf(filter(getAll(), matchesType(type)));
+        return services.get().get(type);
     }
 
     @Override
     public Set<Service> get(String type, String pool)
     {
-        return ImmutableSet.copyOf(filter(getAll(), and(matchesType(type), matchesPool(pool))));
+        return services.get().get(type, pool);
+    }
+
+    @Override
+    public Set<Service> getByProperties(Map<String, String> properties)
+    {
+        return services.get().getByProperties(properties);
     }
 
     void reload()
     {
         long startTime = System.nanoTime();
-        ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
+        ServiceTable.Builder builder = ServiceTable.builder();
 
-        CassandraPaginator.PageQuery<String, String, String> query = new CassandraPaginator.PageQuery<String, String, String>()
+        CassandraPaginator.PageQuery<String, String, byte[]> query = new CassandraPaginator.PageQuery<String, String, byte[]>()
         {
             @Override
-            public Iterable<Row<String, String, String>> query(String start, int count)
+            public Iterable<Row<String, String, byte[]>> query(String start, int count)
             {
-                return HFactory.createRangeSlicesQuery(keyspace, StringSerializer.get(), StringSerializer.get(), StringSerializer.get())
+                return HFactory.createRangeSlicesQuery(keyspace, StringSerializer.get(), StringSerializer.get(), BytesArraySerializer.get())
                         .setColumnFamily(COLUMN_FAMILY)
                         .setKeys(start, null)
                         .setColumnNames(COLUMN_NAME)
@@ -164,14 +182,42 @@ public class CassandraStaticStore
             }
         };
 
-        for (Row<String, String, String> row : paginate(query, null, PAGE_SIZE)) {
-            HColumn<String, String> column = row.getColumnSlice().getColumnByName(COLUMN_NAME);
+        CassandraPaginator.TokenRangeQuery<String, String, byte[]> tokenRangeQuery = new CassandraPaginator.TokenRangeQuery<String, String, byte[]>()
+        {
+            @Override
+            public Iterable<Row<String, String, byte[]>> query(String startToken, String endToken, int count)
+            {
+                return HFactory.createRangeSlicesQuery(keyspace, StringSerializer.get(), StringSerializer.get(), BytesArraySerializer.get())
+                        .setColumnFamily(COLUMN_FAMILY)
+                        .setTokens(startToken, endToken)
+                        .setColumnNames(COLUMN_NAME)
+                        .setRowCount(count)
+                        .execute()
+                        .get();
+            }
+        };
+
+        Iterable<? extends Row<String, String, byte[]>> rows;
+        if (scanSegments > 1 && randomPartitioner.get()) {
+            rows = paginate(randomPartitionerSegments(tokenRangeQuery, scanSegments), PAGE_SIZE, scanExecutor);
+        }
+        else {
+            rows = paginate(query, null, PAGE_SIZE);
+        }
+
+        for (Row<String, String, byte[]> row : rows) {
+            HColumn<String, byte[]> column = row.getColumnSlice().getColumnByName(COLUMN_NAME);
             if (column != null) {
-                builder.addAll(codec.fromJson(column.getValue()));
+                builder.addAll(codec.decode(column.getValue()));
             }
         }
 
-        services.set(builder.build());
+        ServiceIndex current = services.get();
+        ServiceIndex updated = ServiceIndex.update(current, builder.build(current.getAll()));
+        if (updated != current) {
+            services.set(updated);
+            changeNotifier.changed();
+        }
         storeLoadAllStats.addValue(Duration.nanosSince(startTime));
     }
 
@@ -195,4 +241,17 @@ public class CassandraStaticStore
     {
         return storeLoadAllStats;
     }
+
+    @Managed
+    @Nested
+    public ServiceInterner getStoreInterner()
+    {
+        return interner;
+    }
+
+    @Managed
+    public long getSnapshotHeapBytes()
+    {
+        return services.get().getHeapBytes();
+    }
 }
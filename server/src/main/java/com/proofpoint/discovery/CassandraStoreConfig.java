@@ -1,12 +1,19 @@
 package com.proofpoint.discovery;
 
 import com.proofpoint.configuration.Config;
+import com.proofpoint.units.Duration;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import java.util.concurrent.TimeUnit;
 
 public class CassandraStoreConfig
 {
     private String keyspace = "announcements";
+    private int scanSegments = 1;
+    private int writeBatchSize = 1;
+    private Duration writeBatchDelay = new Duration(10, TimeUnit.MILLISECONDS);
+    private boolean binaryFormatEnabled = false;
 
     @NotNull
     public String getKeyspace()
@@ -20,4 +27,58 @@ public class CassandraStoreConfig
         this.keyspace = keyspace;
         return this;
     }
+
+    @Min(1)
+    public int getScanSegments()
+    {
+        return scanSegments;
+    }
+
+    @Config("store.cassandra.scan-segments")
+    public CassandraStoreConfig setScanSegments(int scanSegments)
+    {
+        this.scanSegments = scanSegments;
+        return this;
+    }
+
+    @Min(1)
+    public int getWriteBatchSize()
+    {
+        return writeBatchSize;
+    }
+
+    @Config("store.cassandra.write-batch-size")
+    public CassandraStoreConfig setWriteBatchSize(int writeBatchSize)
+    {
+        this.writeBatchSize = writeBatchSize;
+        return this;
+    }
+
+    @NotNull
+    public Duration getWriteBatchDelay()
+    {
+        return writeBatchDelay;
+    }
+
+    @Config("store.cassandra.write-batch-delay")
+    public CassandraStoreConfig setWriteBatchDelay(Duration writeBatchDelay)
+    {
+        this.writeBatchDelay = writeBatchDelay;
+        return this;
+    }
+
+    public boolean isBinaryFormatEnabled()
+    {
+        return binaryFormatEnabled;
+    }
+
+    /**
+     * Servers always read both formats; only enable binary writes once every server does.
+     */
+    @Config("store.cassandra.binary-format.enabled")
+    public CassandraStoreConfig setBinaryFormatEnabled(boolean binaryFormatEnabled)
+    {
+        this.binaryFormatEnabled = binaryFormatEnabled;
+        return this;
+    }
 }
@@ -4,6 +4,7 @@ import com.proofpoint.configuration.Config;
 import com.proofpoint.units.Duration;
 import com.proofpoint.units.MinDuration;
 
+import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.util.concurrent.TimeUnit;
@@ -14,6 +15,12 @@ public class DiscoveryConfig
     private int statsWindowSize = 5000;
     private Duration dynamicServiceCacheRefresh = new Duration(1, TimeUnit.SECONDS);
     private Duration staticServiceCacheRefresh = new Duration(5, TimeUnit.SECONDS);
+    private Duration selectorRefreshInterval = new Duration(1, TimeUnit.SECONDS);
+    private Duration selectorMaxStaleness = new Duration(30, TimeUnit.SECONDS);
+    private int storeWriteThreads = 16;
+    private Duration storeWriteTimeout = new Duration(10, TimeUnit.SECONDS);
+    private int announceTargetRate = 0;
+    private int announceJitterPercent = 20;
 
 
     @NotNull
@@ -68,5 +75,95 @@ public class DiscoveryConfig
         return this;
     }
 
+    @MinDuration(value="10ms", message="must be greater than or equal to 10ms")
+    public Duration getSelectorRefreshInterval()
+    {
+        return selectorRefreshInterval;
+    }
+
+    /**
+     * Longest time local service selectors wait for a change before refreshing anyway.
+     */
+    @Config("discovery.selector.refresh-interval")
+    public DiscoveryConfig setSelectorRefreshInterval(Duration selectorRefreshInterval)
+    {
+        this.selectorRefreshInterval = selectorRefreshInterval;
+        return this;
+    }
+
+    @MinDuration(value="1s", message="must be greater than or equal to 1s")
+    public Duration getSelectorMaxStaleness()
+    {
+        return selectorMaxStaleness;
+    }
+
+    /**
+     * Age after which a watchdog refreshes local service selectors, in case the
+     * background refresh has stalled.
+     */
+    @Config("discovery.selector.max-staleness")
+    public DiscoveryConfig setSelectorMaxStaleness(Duration selectorMaxStaleness)
+    {
+        this.selectorMaxStaleness = selectorMaxStaleness;
+        return this;
+    }
+
+    @Min(1)
+    public int getStoreWriteThreads()
+    {
+        return storeWriteThreads;
+    }
+
+    @Config("discovery.store-write.threads")
+    public DiscoveryConfig setStoreWriteThreads(int storeWriteThreads)
+    {
+        this.storeWriteThreads = storeWriteThreads;
+        return this;
+    }
+
+    @NotNull
+    public Duration getStoreWriteTimeout()
+    {
+        return storeWriteTimeout;
+    }
+
+    @Config("discovery.store-write.timeout")
+    public DiscoveryConfig setStoreWriteTimeout(Duration storeWriteTimeout)
+    {
+        this.storeWriteTimeout = storeWriteTimeout;
+        return this;
+    }
+
+    @Min(0)
+    public int getAnnounceTargetRate()
+    {
+        return announceTargetRate;
+    }
+
+    /**
+     * Dynamic announcements per second above which nodes are asked to announce
+     * less often, or 0 to always recommend the base interval.
+     */
+    @Config("discovery.announce.target-rate")
+    public DiscoveryConfig setAnnounceTargetRate(int announceTargetRate)
+    {
+        this.announceTargetRate = announceTargetRate;
+        return this;
+    }
+
+    @Min(0)
+    @Max(100)
+    public int getAnnounceJitterPercent()
+    {
+        return announceJitterPercent;
+    }
+
+    @Config("discovery.announce.jitter-percent")
+    public DiscoveryConfig setAnnounceJitterPercent(int announceJitterPercent)
+    {
+        this.announceJitterPercent = announceJitterPercent;
+        return this;
+    }
+
 
 }
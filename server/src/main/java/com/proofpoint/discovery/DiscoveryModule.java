@@ -28,6 +28,8 @@ public class DiscoveryModule
     {
         //HTTP Services
         binder.bind(DynamicAnnouncementResource.class).in(Scopes.SINGLETON);
+        binder.bind(BulkDynamicAnnouncementResource.class).in(Scopes.SINGLETON);
+        MBeanModule.newExporter(binder).export(BulkDynamicAnnouncementResource.class).withGeneratedName();
         binder.bind(StaticAnnouncementResource.class).in(Scopes.SINGLETON);
         MBeanModule.newExporter(binder).export(StaticAnnouncementResource.class).withGeneratedName();
         binder.bind(ServiceResource.class).in(Scopes.SINGLETON);
@@ -44,16 +46,29 @@ public class DiscoveryModule
         binder.bind(StaticStore.class).to(CassandraStaticStore.class).in(Scopes.SINGLETON);
         binder.bind(CassandraStaticStore.class).in(Scopes.SINGLETON);
 
+        binder.bind(ServiceChangeNotifier.class).in(Scopes.SINGLETON);
+        binder.bind(ServiceSnapshotSource.class).in(Scopes.SINGLETON);
+        binder.bind(StoreWriteExecutor.class).in(Scopes.SINGLETON);
+        binder.bind(AdmissionControl.class).in(Scopes.SINGLETON);
+        binder.bind(AnnounceIntervalAdvisor.class).in(Scopes.SINGLETON);
+
         binder.bind(DateTime.class).toProvider(RealTimeProvider.class);
 
         ConfigurationModule.bindConfig(binder).to(DiscoveryConfig.class);
         ConfigurationModule.bindConfig(binder).to(CassandraStoreConfig.class);
+        ConfigurationModule.bindConfig(binder).to(AdmissionConfig.class);
         
         binder.bind(ServiceSelectorFactory.class).to(LocalServiceSelectorFactory.class);
+        binder.bind(LocalServiceSelectorFactory.class).in(Scopes.SINGLETON);
         
         binder.bind(CassandraSchemaInitialization.class).asEagerSingleton();
         MBeanModule.newExporter(binder).export(DynamicAnnouncementResource.class).withGeneratedName();
         MBeanModule.newExporter(binder).export(ServiceResource.class).withGeneratedName();
+        MBeanModule.newExporter(binder).export(ServiceSnapshotSource.class).withGeneratedName();
+        MBeanModule.newExporter(binder).export(LocalServiceSelectorFactory.class).withGeneratedName();
+        MBeanModule.newExporter(binder).export(StoreWriteExecutor.class).withGeneratedName();
+        MBeanModule.newExporter(binder).export(AdmissionControl.class).withGeneratedName();
+        MBeanModule.newExporter(binder).export(AnnounceIntervalAdvisor.class).withGeneratedName();
         MBeanModule.newExporter(binder).export(CassandraDynamicStore.class).withGeneratedName();
         MBeanModule.newExporter(binder).export(CassandraStaticStore.class).withGeneratedName();
         MBeanModule.newExporter(binder).export(StatisticsAggregator.class).withGeneratedName();
@@ -21,6 +21,8 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.String.format;
@@ -31,8 +33,17 @@ import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 @Path("/v1/announcement/{node_id}")
 public class DynamicAnnouncementResource
 {
+    /**
+     * Response header with the delay, as a duration, the node should wait before announcing again.
+     */
+    public static final String ANNOUNCE_DELAY_HEADER = "X-Announce-Delay";
+
     private final NodeInfo nodeInfo;
     private final DynamicStore dynamicStore;
+    private final StoreWriteExecutor writeExecutor;
+    private final AdmissionControl admission;
+    private final AdmissionLane writeLane;
+    private final AnnounceIntervalAdvisor intervalAdvisor;
     private final DiscoveryEvents events;
     private final TimedStat dynamicPutStats;
     private final TimedStat dynamicDeleteStats;
@@ -40,9 +51,13 @@ public class DynamicAnnouncementResource
     private final AtomicInteger environmentMismatchCount = new AtomicInteger(0);
 
     @Inject
-    public DynamicAnnouncementResource(DynamicStore dynamicStore, NodeInfo nodeInfo, DiscoveryEvents events, DiscoveryConfig discoveryConfig)
+    public DynamicAnnouncementResource(DynamicStore dynamicStore, StoreWriteExecutor writeExecutor, AdmissionControl admission, AnnounceIntervalAdvisor intervalAdvisor, NodeInfo nodeInfo, DiscoveryEvents events, DiscoveryConfig discoveryConfig)
     {
         this.dynamicStore = dynamicStore;
+        this.writeExecutor = writeExecutor;
+        this.admission = admission;
+        this.writeLane = admission.getWriteLane();
+        this.intervalAdvisor = intervalAdvisor;
         this.nodeInfo = nodeInfo;
         this.events = events;
         this.dynamicDeleteStats = new TimedStat(discoveryConfig.getStatsWindowSize());
@@ -51,11 +66,14 @@ public class DynamicAnnouncementResource
 
     @PUT
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response put(@PathParam("node_id") Id<Node> nodeId, @Context UriInfo uriInfo, DynamicAnnouncement announcement, @Context HttpServletRequest request)
+    public Response put(@PathParam("node_id") final Id<Node> nodeId, @Context UriInfo uriInfo, DynamicAnnouncement announcement, @Context HttpServletRequest request)
     {
         long startTime = System.nanoTime();
         boolean successful = false;
         DynamicAnnouncementEvent.Builder event = events.getDynamicAnnouncementEventBuilder();
+        if (!writeLane.enter()) {
+            return admission.serviceUnavailable();
+        }
         try {
             if (request != null) {
                 event.setRemoteAddress(request.getRemoteAddr());
@@ -70,17 +88,37 @@ public class DynamicAnnouncementResource
     
             String location = Objects.firstNonNull(announcement.getLocation(), "/somewhere/" + nodeId.toString());
     
-            DynamicAnnouncement announcementWithLocation = DynamicAnnouncement.copyOf(announcement)
+            final DynamicAnnouncement announcementWithLocation = DynamicAnnouncement.copyOf(announcement)
                     .setLocation(location)
                     .build();
     
-            dynamicStore.put(nodeId, announcementWithLocation);
+            intervalAdvisor.recordPut();
+            try {
+                writeExecutor.execute(new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call()
+                    {
+                        return dynamicStore.put(nodeId, announcementWithLocation);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                return admission.serviceUnavailable();
+            }
+            catch (StoreWriteTimeoutException e) {
+                // writes by node id can safely be repeated
+                return admission.serviceUnavailable();
+            }
             event.setSuccess();
             successful = true;
-            return Response.status(ACCEPTED).build();
+            return Response.status(ACCEPTED)
+                    .header(ANNOUNCE_DELAY_HEADER, intervalAdvisor.recommendDelay().toString())
+                    .build();
         }
         finally
         {
+            writeLane.exit();
             event.post();
             if(successful) {
                 dynamicPutStats.addValue(Duration.nanosSince(startTime));
@@ -89,16 +127,37 @@ public class DynamicAnnouncementResource
     }
 
     @DELETE
-    public Response delete(@PathParam("node_id") Id<Node> nodeId, @Context HttpServletRequest request)
+    public Response delete(@PathParam("node_id") final Id<Node> nodeId, @Context HttpServletRequest request)
     {
         long startTime = System.nanoTime();
         boolean successful = false;
         DynamicDeleteEvent.Builder event = events.getDynamicDeleteEventBuilder(nodeId);
+        if (!writeLane.enter()) {
+            return admission.serviceUnavailable();
+        }
         try {
             if (request != null) {
                 event.setRemoteAddress(request.getRemoteAddr());
             }
-            if (!dynamicStore.delete(nodeId)) {
+            boolean deleted;
+            try {
+                deleted = writeExecutor.execute(new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call()
+                    {
+                        return dynamicStore.delete(nodeId);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                return admission.serviceUnavailable();
+            }
+            catch (StoreWriteTimeoutException e) {
+                // writes by node id can safely be repeated
+                return admission.serviceUnavailable();
+            }
+            if (!deleted) {
                 notFoundCount.incrementAndGet();
                 return Response.status(NOT_FOUND).build();
             }
@@ -108,6 +167,7 @@ public class DynamicAnnouncementResource
             return Response.noContent().build();
         }
         finally {
+            writeLane.exit();
             event.post();
             if(successful) {
                 dynamicDeleteStats.addValue(Duration.nanosSince(startTime));
@@ -1,13 +1,20 @@
 package com.proofpoint.discovery;
 
+import java.util.Map;
 import java.util.Set;
 
 public interface DynamicStore
 {
     boolean put(Id<Node> nodeId, DynamicAnnouncement announcement);
+    void putAll(Map<Id<Node>, DynamicAnnouncement> announcements);
     boolean delete(Id<Node> nodeId);
 
     Set<Service> getAll();
     Set<Service> get(String type);
     Set<Service> get(String type, String pool);
+
+    /**
+     * Services that have all of the properties.
+     */
+    Set<Service> getByProperties(Map<String, String> properties);
 }
@@ -0,0 +1,119 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * gzip content coding for responses whose clients ask for it.
+ */
+public final class GzipEncoding
+{
+    public static final String GZIP = "gzip";
+
+    private GzipEncoding()
+    {
+    }
+
+    public static boolean isAccepted(@Nullable HttpServletRequest request)
+    {
+        return request != null && isAccepted(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+    }
+
+    /**
+     * Whether an Accept-Encoding header value allows gzip, honoring q=0 exclusions.
+     */
+    public static boolean isAccepted(@Nullable String acceptEncoding)
+    {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        boolean accepted = false;
+        for (String element : Splitter.on(',').trimResults().omitEmptyStrings().split(acceptEncoding)) {
+            Iterator<String> parts = Splitter.on(';').trimResults().split(element).iterator();
+            String coding = parts.next().toLowerCase();
+            if (!coding.equals(GZIP) && !coding.equals("x-gzip") && !coding.equals("*")) {
+                continue;
+            }
+
+            boolean excluded = false;
+            while (parts.hasNext()) {
+                String parameter = parts.next().replace(" ", "");
+                if (parameter.matches("[qQ]=0(\\.0*)?")) {
+                    excluded = true;
+                }
+            }
+
+            if (!coding.equals("*")) {
+                // an explicit entry overrides the wildcard
+                return !excluded;
+            }
+            accepted = !excluded;
+        }
+        return accepted;
+    }
+
+    /**
+     * Streams a JSON entity, compressed when the request accepts gzip.
+     */
+    public static Response toResponse(StreamingOutput output, @Nullable HttpServletRequest request)
+    {
+        Preconditions.checkNotNull(output, "output is null");
+
+        if (isAccepted(request)) {
+            return Response.ok(compress(output), MediaType.APPLICATION_JSON_TYPE)
+                    .encoding(GZIP)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+        return Response.ok(output, MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .build();
+    }
+
+    public static byte[] compress(byte[] content)
+    {
+        Preconditions.checkNotNull(content, "content is null");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4 + 64);
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            gzip.write(content);
+            gzip.close();
+        }
+        catch (IOException e) {
+            // writes to a byte array don't fail
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static StreamingOutput compress(final StreamingOutput output)
+    {
+        Preconditions.checkNotNull(output, "output is null");
+
+        return new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream out)
+                    throws IOException
+            {
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                output.write(gzip);
+                gzip.finish();
+            }
+        };
+    }
+}
@@ -1,121 +1,359 @@
 package com.proofpoint.discovery;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
 import com.proofpoint.units.Duration;
 import org.joda.time.DateTime;
 
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 import javax.inject.Provider;
-import java.util.Iterator;
+import java.util.Comparator;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
-import static com.google.common.base.Predicates.and;
 import static com.google.common.collect.Collections2.transform;
-import static com.google.common.collect.Iterables.filter;
 import static com.proofpoint.discovery.DynamicServiceAnnouncement.toServiceWith;
-import static com.proofpoint.discovery.Service.matchesPool;
-import static com.proofpoint.discovery.Service.matchesType;
 
+/**
+ * Reads are served from an immutable snapshot without locking. The snapshot is
+ * rebuilt by the first read that finds it stale, either because an announcement
+ * changed or because the earliest queued expiration has passed; readers that find
+ * another rebuild in progress serve the snapshot it replaces.
+ * <p/>
+ * Each entry is queued once, ordered by the expiration it had when queued. A
+ * heartbeat that repeats the announcement extends the entry in place, and an entry
+ * found renewed when it comes due is queued again at its new expiration, so the
+ * queue holds about one entry per node and its head only passes once per node and
+ * max age. Writes drain the due entries as well as reads.
+ * <p/>
+ * Changes, including expirations, are signalled to the change notifier when they
+ * are made or found, which is on the next read or write after an expiration.
+ */
 @ThreadSafe
 public class InMemoryDynamicStore
         implements DynamicStore
 {
-    private final Map<Id<Node>, Entry> descriptors = Maps.newHashMap();
+    private static final Comparator<Entry> EXPIRATION_ORDER = new Comparator<Entry>()
+    {
+        @Override
+        public int compare(Entry left, Entry right)
+        {
+            return Longs.compare(left.getQueuedExpiration(), right.getQueuedExpiration());
+        }
+    };
+
+    private final ConcurrentMap<Id<Node>, Entry> descriptors = new ConcurrentHashMap<Id<Node>, Entry>();
+    @GuardedBy("expirations")
+    private final PriorityQueue<Entry> expirations = new PriorityQueue<Entry>(64, EXPIRATION_ORDER);
+    // queued expiration of the head of expirations, the earliest time an entry may expire
+    private volatile long nextExpiration = Long.MAX_VALUE;
+    private final AtomicLong modifications = new AtomicLong();
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<Snapshot>(Snapshot.EMPTY);
+    private final Lock refreshLock = new ReentrantLock();
+    private final AtomicLong refreshCount = new AtomicLong();
     private final Duration maxAge;
     private final Provider<DateTime> currentTime;
+    private final ServiceChangeNotifier changeNotifier;
 
-    @Inject
     public InMemoryDynamicStore(DiscoveryConfig config, Provider<DateTime> timeSource)
     {
+        this(config, timeSource, new ServiceChangeNotifier());
+    }
+
+    @Inject
+    public InMemoryDynamicStore(DiscoveryConfig config, Provider<DateTime> timeSource, ServiceChangeNotifier changeNotifier)
+    {
+        Preconditions.checkNotNull(changeNotifier, "changeNotifier is null");
+
         this.currentTime = timeSource;
         this.maxAge = config.getMaxAge();
+        this.changeNotifier = changeNotifier;
     }
 
     @Override
-    public synchronized boolean put(Id<Node> nodeId, DynamicAnnouncement announcement)
+    public boolean put(Id<Node> nodeId, DynamicAnnouncement announcement)
     {
         Preconditions.checkNotNull(nodeId, "nodeId is null");
         Preconditions.checkNotNull(announcement, "announcement is null");
 
-        Set<Service> services = ImmutableSet.copyOf(transform(announcement.getServiceAnnouncements(), toServiceWith(nodeId, announcement.getLocation(), announcement.getPool())));
+        long now = currentTime.get().getMillis();
+        long expiration = now + (long) maxAge.toMillis();
+
+        boolean expired;
+        boolean changed;
+        synchronized (expirations) {
+            changed = expire(now);
 
-        DateTime expiration = currentTime.get().plusMillis((int) maxAge.toMillis());
-        Entry old = descriptors.put(nodeId, new Entry(expiration, services));
+            // entries that expired before now were just removed
+            Entry old = descriptors.get(nodeId);
+            expired = old == null;
+            if (old != null && old.getAnnouncement().equals(announcement)) {
+                // a heartbeat only pushes the expiration out, which leaves the snapshot valid
+                old.extendExpiration(expiration);
+            }
+            else {
+                Set<Service> services = ImmutableSet.copyOf(transform(announcement.getServiceAnnouncements(), toServiceWith(nodeId, announcement.getLocation(), announcement.getPool())));
+                Entry entry = new Entry(nodeId, announcement, expiration, services);
+                descriptors.put(nodeId, entry);
+                expirations.add(entry);
+                nextExpiration = expirations.peek().getQueuedExpiration();
+                modifications.incrementAndGet();
+                changed = true;
+            }
+        }
 
-        return old == null || old.getExpiration().isBefore(currentTime.get());
+        if (changed) {
+            changeNotifier.changed();
+        }
+        return expired;
     }
 
     @Override
-    public synchronized boolean delete(Id<Node> nodeId)
+    public void putAll(Map<Id<Node>, DynamicAnnouncement> announcements)
     {
-        Preconditions.checkNotNull(nodeId, "nodeId is null");
+        Preconditions.checkNotNull(announcements, "announcements is null");
 
-        return descriptors.remove(nodeId) != null;
+        for (Map.Entry<Id<Node>, DynamicAnnouncement> entry : announcements.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
     }
 
     @Override
-    public synchronized Set<Service> getAll()
+    public boolean delete(Id<Node> nodeId)
     {
-        removeExpired();
+        Preconditions.checkNotNull(nodeId, "nodeId is null");
 
-        ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
-        for (Entry entry : descriptors.values()) {
-            builder.addAll(entry.getServices());
+        // the queued entry is dropped when it comes due
+        if (descriptors.remove(nodeId) == null) {
+            return false;
         }
-        return builder.build();
+        modifications.incrementAndGet();
+        changeNotifier.changed();
+        return true;
     }
 
     @Override
-    public synchronized Set<Service> get(String type)
+    public Set<Service> getAll()
+    {
+        return getSnapshot().getServices().getAll();
+    }
+
+    @Override
+    public Set<Service> get(String type)
     {
         Preconditions.checkNotNull(type, "type is null");
 
-        return ImmutableSet.copyOf(filter(getAll(), matchesType(type)));
+        return getSnapshot().getServices().get(type);
     }
 
     @Override
-    public synchronized Set<Service> get(String type, String pool)
+    public Set<Service> get(String type, String pool)
     {
         Preconditions.checkNotNull(type, "type is null");
         Preconditions.checkNotNull(pool, "pool is null");
 
-        return ImmutableSet.copyOf(filter(getAll(), and(matchesType(type), matchesPool(pool))));
+        return getSnapshot().getServices().get(type, pool);
     }
 
-    private synchronized void removeExpired()
+    @Override
+    public Set<Service> getByProperties(Map<String, String> properties)
     {
-        Iterator<Entry> iterator = descriptors.values().iterator();
+        Preconditions.checkNotNull(properties, "properties is null");
 
-        DateTime now = currentTime.get();
-        while (iterator.hasNext()) {
-            Entry entry = iterator.next();
+        return getSnapshot().getServices().getByProperties(properties);
+    }
+
+    private Snapshot getSnapshot()
+    {
+        long now = currentTime.get().getMillis();
+        Snapshot current = snapshot.get();
+        if (current.getVersion() == modifications.get() && now <= nextExpiration) {
+            return current;
+        }
+
+        // until the first rebuild there is no snapshot worth serving, so wait for it
+        if (current == Snapshot.EMPTY) {
+            refreshLock.lock();
+        }
+        else if (!refreshLock.tryLock()) {
+            return current;
+        }
+        try {
+            return refresh(now);
+        }
+        finally {
+            refreshLock.unlock();
+        }
+    }
+
+    @GuardedBy("refreshLock")
+    private Snapshot refresh(long now)
+    {
+        refreshCount.incrementAndGet();
+        boolean removed;
+        synchronized (expirations) {
+            removed = expire(now);
+        }
+        if (removed) {
+            changeNotifier.changed();
+        }
+
+        // read before the entries, so changes made while they are copied cause another rebuild
+        Snapshot current = snapshot.get();
+        long version = modifications.get();
+        if (current.getVersion() == version) {
+            return current;
+        }
+
+        ServiceTable.Builder builder = ServiceTable.builder();
+        for (Entry entry : descriptors.values()) {
+            builder.addAll(entry.getServices());
+        }
+        Snapshot updated = new Snapshot(ServiceIndex.update(current.getServices(), builder.build(current.getServices().getAll())), version);
+        snapshot.set(updated);
+        return updated;
+    }
 
-            if (now.isAfter(entry.getExpiration())) {
-                iterator.remove();
+    /**
+     * Removes the entries that expired before now and queues the due ones that were
+     * extended again at their new expiration.
+     *
+     * @return whether any entry was removed
+     */
+    @GuardedBy("expirations")
+    private boolean expire(long now)
+    {
+        boolean removed = false;
+        for (Entry head = expirations.peek(); head != null && head.getQueuedExpiration() < now; head = expirations.peek()) {
+            expirations.poll();
+            // entries replaced by a put with other content or deleted are no longer current
+            if (descriptors.get(head.getNodeId()) != head) {
+                continue;
+            }
+            if (head.getExpiration() >= now) {
+                head.requeue();
+                expirations.add(head);
+            }
+            else {
+                descriptors.remove(head.getNodeId(), head);
+                removed = true;
             }
         }
+        // readers compare against both, so count the removal before publishing the new head
+        if (removed) {
+            modifications.incrementAndGet();
+        }
+        Entry next = expirations.peek();
+        nextExpiration = next == null ? Long.MAX_VALUE : next.getQueuedExpiration();
+        return removed;
+    }
+
+    @VisibleForTesting
+    int getQueuedExpirationCount()
+    {
+        synchronized (expirations) {
+            return expirations.size();
+        }
+    }
+
+    /**
+     * Number of times a read took the refresh lock.
+     */
+    @VisibleForTesting
+    long getRefreshCount()
+    {
+        return refreshCount.get();
+    }
+
+    @Immutable
+    private static class Snapshot
+    {
+        private static final Snapshot EMPTY = new Snapshot(ServiceIndex.empty(), -1);
+
+        private final ServiceIndex services;
+        private final long version;
+
+        private Snapshot(ServiceIndex services, long version)
+        {
+            this.services = services;
+            this.version = version;
+        }
+
+        public ServiceIndex getServices()
+        {
+            return services;
+        }
+
+        /**
+         * Value of the modification counter the snapshot was built from.
+         */
+        public long getVersion()
+        {
+            return version;
+        }
     }
 
     private static class Entry
     {
+        private final Id<Node> nodeId;
+        private final DynamicAnnouncement announcement;
         private final Set<Service> services;
-        private final DateTime expiration;
+        private volatile long expiration;
+        // position in the queue, only changed while the entry is not queued
+        @GuardedBy("expirations")
+        private long queuedExpiration;
 
-        public Entry(DateTime expiration, Set<Service> services)
+        public Entry(Id<Node> nodeId, DynamicAnnouncement announcement, long expiration, Set<Service> services)
         {
+            this.nodeId = nodeId;
+            this.announcement = announcement;
             this.expiration = expiration;
+            this.queuedExpiration = expiration;
             this.services = ImmutableSet.copyOf(services);
         }
 
-        public DateTime getExpiration()
+        public Id<Node> getNodeId()
+        {
+            return nodeId;
+        }
+
+        public DynamicAnnouncement getAnnouncement()
+        {
+            return announcement;
+        }
+
+        public long getExpiration()
         {
             return expiration;
         }
 
+        public void extendExpiration(long expiration)
+        {
+            this.expiration = Math.max(this.expiration, expiration);
+        }
+
+        public long getQueuedExpiration()
+        {
+            return queuedExpiration;
+        }
+
+        public void requeue()
+        {
+            queuedExpiration = expiration;
+        }
+
         public Set<Service> getServices()
         {
             return services;
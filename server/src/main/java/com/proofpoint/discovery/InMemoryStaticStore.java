@@ -10,12 +10,15 @@ import java.util.Set;
 import static com.google.common.base.Predicates.and;
 import static com.google.common.collect.Iterables.filter;
 import static com.proofpoint.discovery.Service.matchesPool;
+import static com.proofpoint.discovery.Service.matchesProperties;
 import static com.proofpoint.discovery.Service.matchesType;
 
 public class InMemoryStaticStore
     implements StaticStore
 {
     private final Map<Id<Service>, Service> services = Maps.newHashMap();
+    // handed out until the next modification, so readers can detect changes by identity
+    private Set<Service> all;
 
     @Override
     public synchronized void put(Service service)
@@ -24,18 +27,24 @@ public class InMemoryStaticStore
         Preconditions.checkArgument(service.getNodeId() == null, "service.nodeId should be null");
 
         services.put(service.getId(), service);
+        all = null;
     }
 
     @Override
     public synchronized void delete(Id<Service> id)
     {
-        services.remove(id);
+        if (services.remove(id) != null) {
+            all = null;
+        }
     }
 
     @Override
     public synchronized Set<Service> getAll()
     {
-        return ImmutableSet.copyOf(services.values());
+        if (all == null) {
+            all = ImmutableSet.copyOf(services.values());
+        }
+        return all;
     }
 
     @Override
@@ -49,4 +58,10 @@ public class InMemoryStaticStore
     {
         return ImmutableSet.copyOf(filter(getAll(), and(matchesType(type), matchesPool(pool))));
     }
+
+    @Override
+    public synchronized Set<Service> getByProperties(Map<String, String> properties)
+    {
+        return ImmutableSet.copyOf(filter(getAll(), matchesProperties(properties)));
+    }
 }
@@ -1,65 +1,229 @@
 package com.proofpoint.discovery;
 
-import static com.google.common.collect.Sets.union;
-
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.proofpoint.discovery.client.ServiceDescriptor;
 import com.proofpoint.discovery.client.ServiceSelector;
 import com.proofpoint.discovery.client.ServiceSelectorConfig;
 import com.proofpoint.discovery.client.ServiceSelectorFactory;
+import com.proofpoint.log.Logger;
+import com.proofpoint.stats.TimedStat;
+import com.proofpoint.units.Duration;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
+/**
+ * Selectors hand out a prebuilt list of descriptors. A single refresher thread
+ * rebuilds the lists of every selector whose services changed, as soon as a store
+ * reports a change and at least every selector refresh interval to pick up
+ * expirations, so callers don't build lists themselves.
+ * <p/>
+ * Should the refresher fall behind by more than the selector max staleness, a
+ * watchdog thread refreshes instead, so callers only ever read the current list.
+ * Refreshes are single-flight: the watchdog skips a round while one is in progress.
+ */
 public class LocalServiceSelectorFactory implements ServiceSelectorFactory
 {
-    final DynamicStore dynamicStore;
-    final StaticStore staticStore;
-    private final ConcurrentHashMap<List<String>, ServiceSelector> serviceSelectorCache = new ConcurrentHashMap<List<String>, ServiceSelector>();
-    
+    private static final Logger log = Logger.get(LocalServiceSelectorFactory.class);
+
+    final ServiceSnapshotSource snapshots;
+    private final ServiceChangeNotifier changeNotifier;
+    private final long refreshIntervalMillis;
+    private final long maxStalenessNanos;
+    private final ConcurrentHashMap<List<String>, LocalServiceSelector> serviceSelectorCache = new ConcurrentHashMap<List<String>, LocalServiceSelector>();
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("local-selector-refresher-%d").setDaemon(true).build());
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("local-selector-watchdog-%d").setDaemon(true).build());
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private volatile long lastRefreshNanos = System.nanoTime();
+    private final TimedStat refreshStats;
+    private final AtomicLong staleRefreshCount = new AtomicLong();
+    private final AtomicLong rebuildCount = new AtomicLong();
+    private final AtomicLong collisionCount = new AtomicLong();
+
     @Inject
-    public LocalServiceSelectorFactory (DynamicStore dynamicStore, StaticStore staticStore)
+    public LocalServiceSelectorFactory (ServiceSnapshotSource snapshots, ServiceChangeNotifier changeNotifier, DiscoveryConfig discoveryConfig)
     {
-        this.dynamicStore = dynamicStore;
-        this.staticStore = staticStore;
+        this.snapshots = snapshots;
+        this.changeNotifier = changeNotifier;
+        this.refreshIntervalMillis = (long) discoveryConfig.getSelectorRefreshInterval().toMillis();
+        this.maxStalenessNanos = (long) discoveryConfig.getSelectorMaxStaleness().convertTo(TimeUnit.NANOSECONDS);
+        this.refreshStats = new TimedStat(discoveryConfig.getStatsWindowSize());
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        if (!started.compareAndSet(false, true)) {
+            throw new IllegalStateException("Already started");
+        }
+
+        refresher.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                long generation = changeNotifier.getGeneration();
+                while (!Thread.currentThread().isInterrupted()) {
+                    // the generation is read before refreshing, so a change made meanwhile triggers another round
+                    refreshSelectors();
+                    try {
+                        generation = changeNotifier.awaitChange(generation, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+
+        // checking at half the max staleness keeps lists from falling more than that behind
+        long checkIntervalNanos = Math.max(maxStalenessNanos / 2, 1);
+        watchdog.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    refreshIfStale();
+                }
+                catch (RuntimeException e) {
+                    log.error(e, "Failed to refresh stale service selectors");
+                }
+            }
+        }, checkIntervalNanos, checkIntervalNanos, TimeUnit.NANOSECONDS);
     }
-    
+
+    @PreDestroy
+    public void stop()
+    {
+        refresher.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
     @Override
     public ServiceSelector createServiceSelector(final String type, ServiceSelectorConfig selectorConfig)
     {
         List<String> key = Arrays.asList(type, selectorConfig.getPool());
-        ServiceSelector cachedSelector;
-        while ((cachedSelector = serviceSelectorCache.get(key)) == null) {
-            serviceSelectorCache.putIfAbsent(key, new LocalServiceSelector (type, selectorConfig.getPool()));
+        LocalServiceSelector cachedSelector = serviceSelectorCache.get(key);
+        if (cachedSelector == null) {
+            LocalServiceSelector selector = new LocalServiceSelector(type, selectorConfig.getPool());
+            cachedSelector = serviceSelectorCache.putIfAbsent(key, selector);
+            if (cachedSelector == null) {
+                cachedSelector = selector;
+            }
         }
         return cachedSelector;
     }
-    
+
+    /**
+     * Rebuilds the lists of all selectors whose services changed, unless another
+     * thread is already doing so.
+     *
+     * @return false if a refresh was already in progress
+     */
+    boolean refreshSelectors()
+    {
+        if (!refreshing.compareAndSet(false, true)) {
+            collisionCount.incrementAndGet();
+            return false;
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            ServiceSnapshot snapshot = snapshots.getLatestSnapshot();
+            for (LocalServiceSelector selector : serviceSelectorCache.values()) {
+                try {
+                    if (selector.refresh(snapshot)) {
+                        rebuildCount.incrementAndGet();
+                    }
+                }
+                catch (RuntimeException e) {
+                    log.error(e, "Failed to refresh service selector for %s/%s", selector.getType(), selector.getPool());
+                }
+            }
+            lastRefreshNanos = startTime;
+        }
+        finally {
+            refreshing.set(false);
+        }
+        refreshStats.addValue(Duration.nanosSince(startTime));
+        return true;
+    }
+
+    /**
+     * Refreshes the selectors if the refresher has not done so within the max
+     * staleness.
+     */
+    void refreshIfStale()
+    {
+        if (System.nanoTime() - lastRefreshNanos > maxStalenessNanos && refreshSelectors()) {
+            staleRefreshCount.incrementAndGet();
+        }
+    }
+
+    @Managed
+    @Nested
+    public TimedStat getRefreshStats()
+    {
+        return refreshStats;
+    }
+
+    @Managed
+    public long getRebuildCount()
+    {
+        return rebuildCount.get();
+    }
+
+    @Managed
+    public long getStaleRefreshCount()
+    {
+        return staleRefreshCount.get();
+    }
+
+    @Managed
+    public long getCollisionCount()
+    {
+        return collisionCount.get();
+    }
+
+    @Managed
+    public int getSelectorCount()
+    {
+        return serviceSelectorCache.size();
+    }
+
     class LocalServiceSelector implements ServiceSelector
     {
         private final String type, pool;
 
-        //There are race conditions where multiple threads may perform cache refreshes at once:
-        // - The cache doesn't exist yet
-        // - The cache is older than tooOldMillis
-        // - The cache is refreshing slower than refreshIntervalMillis
-        // These races must be harmless.  Make sure refreshes are idempotent and there's CPU time to spare.
-        private final long refreshIntervalMillis = 5000L;  //One thread will try a cache refresh while others may get older data
-        private final long tooOldMillis = 30000L;          //Must refresh cache at this age
-        private final AtomicLong lastUpdate = new AtomicLong(0);
-        private List<ServiceDescriptor> serviceDescriptorCache = null;  //Pointer swap of immutable data.
-        
+        // only replaced under the single-flight refresh once the selector is published
+        private volatile ServiceDescriptors serviceDescriptors;
+
         LocalServiceSelector (String type, String pool)
         {
             this.type = type;
             this.pool = pool;
+            this.serviceDescriptors = new ServiceDescriptors(snapshots.getSnapshot().get(type, pool));
         }
-        
+
         @Override
         public String getType()
         {
@@ -79,23 +243,48 @@ public class LocalServiceSelectorFactory implements ServiceSelectorFactory
         @Override
         public List<ServiceDescriptor> selectAllServices()
         {
-            final long now = System.currentTimeMillis();
-            List<ServiceDescriptor> cachedList = serviceDescriptorCache;
-            final long lastCacheUpdate = lastUpdate.get();
-            final long cacheAge = now - lastCacheUpdate;
-            if ((cachedList == null) || (cacheAge > refreshIntervalMillis)) {
-                boolean updatedClock = lastUpdate.compareAndSet(lastCacheUpdate, now);
-                if (updatedClock || (cachedList == null) || (cacheAge > tooOldMillis)) {
-                    Set<Service> serviceSet = union(dynamicStore.get(type, pool), staticStore.get(type, pool));
-                    ArrayList<ServiceDescriptor> serviceList = new ArrayList<ServiceDescriptor>(serviceSet.size());
-                    for (Service service : serviceSet) {
-                        serviceList.add(new ServiceDescriptor(service.getId().get(), service.getNodeId().get().toString(), service.getType(), service.getPool(), service.getLocation(), service
-                                .getProperties()));
-                    }
-                    serviceDescriptorCache = cachedList = Collections.unmodifiableList(serviceList);
-                }
+            return serviceDescriptors.getServiceDescriptors();
+        }
+
+        /**
+         * @return whether the list was rebuilt
+         */
+        private boolean refresh(ServiceSnapshot snapshot)
+        {
+            // the snapshot shares sets across rebuilds, so an unchanged set means unchanged services
+            Set<Service> serviceSet = snapshot.get(type, pool);
+            if (serviceDescriptors.isBuiltFrom(serviceSet)) {
+                return false;
             }
-            return cachedList;
+            serviceDescriptors = new ServiceDescriptors(serviceSet);
+            return true;
+        }
+    }
+
+    private static class ServiceDescriptors
+    {
+        private final Set<Service> serviceSet;
+        private final List<ServiceDescriptor> serviceDescriptors;
+
+        private ServiceDescriptors(Set<Service> serviceSet)
+        {
+            ArrayList<ServiceDescriptor> serviceList = new ArrayList<ServiceDescriptor>(serviceSet.size());
+            for (Service service : serviceSet) {
+                serviceList.add(new ServiceDescriptor(service.getId().get(), service.getNodeId().get().toString(), service.getType(), service.getPool(), service.getLocation(), service
+                        .getProperties()));
+            }
+            this.serviceSet = serviceSet;
+            this.serviceDescriptors = Collections.unmodifiableList(serviceList);
+        }
+
+        public boolean isBuiltFrom(Set<Service> serviceSet)
+        {
+            return this.serviceSet == serviceSet;
+        }
+
+        public List<ServiceDescriptor> getServiceDescriptors()
+        {
+            return serviceDescriptors;
         }
     }
-}
\ No newline at end of file
+}
@@ -126,6 +126,25 @@ public class Service
         };
     }
 
+    /**
+     * Matches services that have every one of the properties.
+     */
+    public static Predicate<Service> matchesProperties(final Map<String, String> properties)
+    {
+        return new Predicate<Service>()
+        {
+            public boolean apply(Service descriptor)
+            {
+                for (Map.Entry<String, String> property : properties.entrySet()) {
+                    if (!property.getValue().equals(descriptor.getProperties().get(property.getKey()))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,48 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signals that the service snapshot of a store has changed. Each change bumps a
+ * generation counter that waiters compare against the one they last observed.
+ */
+@ThreadSafe
+public class ServiceChangeNotifier
+{
+    private long generation;
+
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    public synchronized void changed()
+    {
+        generation++;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the generation moves past the given one or the timeout elapses.
+     *
+     * @return the current generation
+     */
+    public synchronized long awaitChange(long generation, long timeout, TimeUnit unit)
+            throws InterruptedException
+    {
+        Preconditions.checkNotNull(unit, "unit is null");
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (this.generation == generation) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return this.generation;
+    }
+}
@@ -0,0 +1,469 @@
+package com.proofpoint.discovery;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.proofpoint.discovery.ServiceTable.Selection;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable set of services indexed by type, by (type, pool) and by pool. The
+ * services are held in a {@link ServiceTable} and the per-key sets are selections
+ * of its positions, built once so lookups are map hits that hand out shared instances.
+ * <p/>
+ * When built from a previous index, sets whose content did not change are carried
+ * over, so callers can detect changes to a key by identity. Carried over sets are
+ * moved to the new table, so only the current table stays reachable.
+ * <p/>
+ * Properties are indexed too, but as there are far more (name, value) pairs than
+ * types or pools, each pair maps to a sorted array of the positions of its services
+ * rather than to a shared set. Property selections intersect those arrays and only
+ * select the positions that remain. Most properties are never selected on and many,
+ * like http URIs, are unique to their service, so a property name is only indexed
+ * once it is first selected on. An index built from a previous one indexes the
+ * names the previous one had indexed right away.
+ */
+@ThreadSafe
+public class ServiceIndex
+{
+    private static final ServiceIndex EMPTY = new ServiceIndex(ServiceTable.empty(), null);
+
+    private static final int[] NO_ORDINALS = new int[0];
+
+    private static final Comparator<int[]> LENGTH_ORDER = new Comparator<int[]>()
+    {
+        @Override
+        public int compare(int[] left, int[] right)
+        {
+            return Integer.valueOf(left.length).compareTo(right.length);
+        }
+    };
+
+    private final ServiceTable services;
+    private final Map<String, Selection> byType;
+    private final Map<String, Map<String, Selection>> byTypeAndPool;
+    private final Map<String, Selection> byPool;
+    // names without any value are not kept, so selecting on unknown names doesn't grow it
+    private final ConcurrentMap<String, Map<String, int[]>> byProperty = new ConcurrentHashMap<String, Map<String, int[]>>();
+    private final long ordinalCount;
+    private final AtomicLong propertyOrdinalCount = new AtomicLong();
+
+    public static ServiceIndex empty()
+    {
+        return EMPTY;
+    }
+
+    public static ServiceIndex of(Iterable<Service> services)
+    {
+        Preconditions.checkNotNull(services, "services is null");
+        return new ServiceIndex(ServiceTable.copyOf(services), null);
+    }
+
+    /**
+     * Returns an index of services that shares every unchanged set with previous,
+     * or previous itself if nothing changed at all.
+     */
+    public static ServiceIndex update(ServiceIndex previous, Iterable<Service> services)
+    {
+        Preconditions.checkNotNull(previous, "previous is null");
+        Preconditions.checkNotNull(services, "services is null");
+
+        ServiceTable table = ServiceTable.copyOf(services);
+        if (previous.services.hasSameServices(table)) {
+            return previous;
+        }
+        return new ServiceIndex(table, previous);
+    }
+
+    private ServiceIndex(ServiceTable services, @Nullable ServiceIndex previous)
+    {
+        Map<String, OrdinalsBuilder> typeBuilders = Maps.newHashMap();
+        Map<String, Map<String, OrdinalsBuilder>> typeAndPoolBuilders = Maps.newHashMap();
+        Map<String, OrdinalsBuilder> poolBuilders = Maps.newHashMap();
+
+        // ordinals are added in increasing order, so the arrays come out sorted
+        long ordinalCount = 0;
+        for (int ordinal = 0; ordinal < services.size(); ordinal++) {
+            String type = services.getType(ordinal);
+            String pool = services.getPool(ordinal);
+            add(typeBuilders, type, ordinal);
+            add(typeAndPoolBuilders, type, pool, ordinal);
+            add(poolBuilders, pool, ordinal);
+            ordinalCount += 3;
+        }
+
+        ImmutableMap.Builder<String, Map<String, Selection>> byTypeAndPool = ImmutableMap.builder();
+        for (Map.Entry<String, Map<String, OrdinalsBuilder>> entry : typeAndPoolBuilders.entrySet()) {
+            Map<String, Selection> previousByPool = null;
+            if (previous != null) {
+                previousByPool = previous.byTypeAndPool.get(entry.getKey());
+            }
+            byTypeAndPool.put(entry.getKey(), selections(services, entry.getValue(), previousByPool));
+        }
+
+        this.services = services;
+        this.byType = selections(services, typeBuilders, previous == null ? null : previous.byType);
+        this.byTypeAndPool = byTypeAndPool.build();
+        this.byPool = selections(services, poolBuilders, previous == null ? null : previous.byPool);
+        this.ordinalCount = ordinalCount;
+
+        // names that were selected on are likely to be again, so index them before the index is published
+        if (previous != null) {
+            for (String name : previous.byProperty.keySet()) {
+                getPropertyIndex(name);
+            }
+        }
+    }
+
+    /**
+     * Selects the ordinals of every key, moving the previous selection of a key to
+     * services rather than creating a new one when its content did not change.
+     */
+    private static Map<String, Selection> selections(ServiceTable services, Map<String, OrdinalsBuilder> builders, @Nullable Map<String, Selection> previous)
+    {
+        ImmutableMap.Builder<String, Selection> selections = ImmutableMap.builder();
+        for (Map.Entry<String, OrdinalsBuilder> entry : builders.entrySet()) {
+            int[] ordinals = entry.getValue().build();
+            Selection selection = null;
+            if (previous != null) {
+                selection = previous.get(entry.getKey());
+            }
+            if (selection != null && selection.hasSameServices(services, ordinals)) {
+                selection.moveTo(services, ordinals);
+            }
+            else {
+                selection = services.select(ordinals);
+            }
+            selections.put(entry.getKey(), selection);
+        }
+        return selections.build();
+    }
+
+    private static void add(Map<String, OrdinalsBuilder> builders, String key, int ordinal)
+    {
+        OrdinalsBuilder builder = builders.get(key);
+        if (builder == null) {
+            builder = new OrdinalsBuilder();
+            builders.put(key, builder);
+        }
+        builder.add(ordinal);
+    }
+
+    private static void add(Map<String, Map<String, OrdinalsBuilder>> builders, String key, String subKey, int ordinal)
+    {
+        Map<String, OrdinalsBuilder> subBuilders = builders.get(key);
+        if (subBuilders == null) {
+            subBuilders = Maps.newHashMap();
+            builders.put(key, subBuilders);
+        }
+        add(subBuilders, subKey, ordinal);
+    }
+
+    public ServiceTable getAll()
+    {
+        return services;
+    }
+
+    /**
+     * Bytes the table and the ordinal arrays of the index take on the heap.
+     *
+     * @see ServiceTable#getHeapBytes()
+     */
+    public long getHeapBytes()
+    {
+        return services.getHeapBytes() + 4 * (ordinalCount + propertyOrdinalCount.get());
+    }
+
+    public Set<Service> get(String type)
+    {
+        Preconditions.checkNotNull(type, "type is null");
+
+        return orEmpty(byType.get(type));
+    }
+
+    public Set<Service> get(String type, String pool)
+    {
+        Preconditions.checkNotNull(type, "type is null");
+        Preconditions.checkNotNull(pool, "pool is null");
+
+        return orEmpty(getSelection(type, pool));
+    }
+
+    public Set<Service> getByPool(String pool)
+    {
+        Preconditions.checkNotNull(pool, "pool is null");
+
+        return orEmpty(byPool.get(pool));
+    }
+
+    public Set<Service> getByProperty(String name, String value)
+    {
+        Preconditions.checkNotNull(name, "name is null");
+        Preconditions.checkNotNull(value, "value is null");
+
+        return select(ordinals(name, value));
+    }
+
+    /**
+     * Services that have all of the properties.
+     */
+    public Set<Service> getByProperties(Map<String, String> properties)
+    {
+        return select(ImmutableList.<String>of(), null, properties);
+    }
+
+    /**
+     * Services of any of the types, or of every type if none are given, that are in
+     * the pool, if one is given, and have all of the properties.
+     * <p/>
+     * The property arrays are intersected shortest first by binary searching the
+     * longer ones, so the cost depends on the length of the shortest array rather
+     * than on the number of services. When the type and pool already narrow the
+     * services down further, their properties are checked directly instead.
+     */
+    public Set<Service> select(Collection<String> requestedTypes, @Nullable String pool, Map<String, String> properties)
+    {
+        Preconditions.checkNotNull(requestedTypes, "types is null");
+        Preconditions.checkNotNull(properties, "properties is null");
+
+        // a type listed twice would add its services to the union twice
+        Set<String> types = ImmutableSet.copyOf(requestedTypes);
+
+        if (properties.isEmpty() && types.size() <= 1) {
+            if (types.size() == 1) {
+                String type = types.iterator().next();
+                return pool == null ? get(type) : get(type, pool);
+            }
+            return pool == null ? services : getByPool(pool);
+        }
+
+        // positions of the services of the types and pool, or null for every service
+        int[] candidates = null;
+        if (!types.isEmpty()) {
+            List<int[]> typeOrdinals = Lists.newArrayListWithCapacity(types.size());
+            for (String type : types) {
+                Selection selection = pool == null ? byType.get(type) : getSelection(type, pool);
+                if (selection != null) {
+                    typeOrdinals.add(selection.ordinalsIn(services));
+                }
+            }
+            candidates = union(typeOrdinals);
+        }
+        else if (pool != null) {
+            Selection selection = byPool.get(pool);
+            candidates = selection == null ? NO_ORDINALS : selection.ordinalsIn(services);
+        }
+
+        if (properties.isEmpty() || (candidates != null && candidates.length == 0)) {
+            return select(candidates);
+        }
+
+        List<int[]> propertyOrdinals = Lists.newArrayListWithCapacity(properties.size());
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            propertyOrdinals.add(ordinals(property.getKey(), property.getValue()));
+        }
+        Collections.sort(propertyOrdinals, LENGTH_ORDER);
+
+        if (candidates != null && candidates.length < propertyOrdinals.get(0).length) {
+            return select(withProperties(candidates, properties));
+        }
+
+        int[] matches = propertyOrdinals.get(0);
+        for (int i = 1; i < propertyOrdinals.size() && matches.length > 0; i++) {
+            matches = intersect(matches, propertyOrdinals.get(i));
+        }
+        if (candidates != null && matches.length > 0) {
+            matches = matches.length <= candidates.length ? intersect(matches, candidates) : intersect(candidates, matches);
+        }
+        return select(matches);
+    }
+
+    private Selection getSelection(String type, String pool)
+    {
+        Map<String, Selection> byPool = byTypeAndPool.get(type);
+        if (byPool == null) {
+            return null;
+        }
+        return byPool.get(pool);
+    }
+
+    private int[] ordinals(String name, String value)
+    {
+        int[] result = getPropertyIndex(name).get(value);
+        if (result == null) {
+            return NO_ORDINALS;
+        }
+        return result;
+    }
+
+    /**
+     * The sorted ordinals of the services with each value of the property, indexing
+     * the property first if no selection has used it yet.
+     */
+    private Map<String, int[]> getPropertyIndex(String name)
+    {
+        Map<String, int[]> byValue = byProperty.get(name);
+        if (byValue != null) {
+            return byValue;
+        }
+
+        // ordinals are added in increasing order, so the arrays come out sorted
+        Map<String, OrdinalsBuilder> builders = Maps.newHashMap();
+        long count = 0;
+        for (int ordinal = 0; ordinal < services.size(); ordinal++) {
+            String value = services.getProperties(ordinal).get(name);
+            if (value != null) {
+                add(builders, value, ordinal);
+                count++;
+            }
+        }
+        if (builders.isEmpty()) {
+            return ImmutableMap.of();
+        }
+
+        ImmutableMap.Builder<String, int[]> builder = ImmutableMap.builder();
+        for (Map.Entry<String, OrdinalsBuilder> entry : builders.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue().build());
+        }
+        byValue = builder.build();
+
+        // concurrent selections may index the same name, only one index is kept
+        Map<String, int[]> existing = byProperty.putIfAbsent(name, byValue);
+        if (existing != null) {
+            return existing;
+        }
+        propertyOrdinalCount.addAndGet(count);
+        return byValue;
+    }
+
+    @VisibleForTesting
+    Set<String> getIndexedProperties()
+    {
+        return ImmutableSet.copyOf(byProperty.keySet());
+    }
+
+    /**
+     * Services at the ordinals, or every service if ordinals is null.
+     */
+    private Set<Service> select(@Nullable int[] ordinals)
+    {
+        if (ordinals == null) {
+            return services;
+        }
+        if (ordinals.length == 0) {
+            return ImmutableSet.of();
+        }
+        return services.select(ordinals);
+    }
+
+    /**
+     * The ordinals whose services have all of the properties.
+     */
+    private int[] withProperties(int[] ordinals, Map<String, String> properties)
+    {
+        int[] result = new int[ordinals.length];
+        int count = 0;
+        for (int ordinal : ordinals) {
+            Map<String, String> serviceProperties = services.getProperties(ordinal);
+            boolean matches = true;
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                if (!property.getValue().equals(serviceProperties.get(property.getKey()))) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                result[count++] = ordinal;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static Set<Service> orEmpty(@Nullable Selection selection)
+    {
+        if (selection == null) {
+            return ImmutableSet.of();
+        }
+        return selection;
+    }
+
+    /**
+     * Sorted union of sorted arrays that have no ordinal in common, which holds for
+     * the arrays of distinct types.
+     */
+    private static int[] union(List<int[]> ordinals)
+    {
+        if (ordinals.size() == 1) {
+            return ordinals.get(0);
+        }
+
+        int length = 0;
+        for (int[] array : ordinals) {
+            length += array.length;
+        }
+        int[] result = new int[length];
+        int position = 0;
+        for (int[] array : ordinals) {
+            System.arraycopy(array, 0, result, position, array.length);
+            position += array.length;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Sorted intersection of two sorted arrays, where shorter is no longer than longer.
+     */
+    private static int[] intersect(int[] shorter, int[] longer)
+    {
+        int[] result = new int[shorter.length];
+        int count = 0;
+        int from = 0;
+        for (int i = 0; i < shorter.length && from < longer.length; i++) {
+            int position = Arrays.binarySearch(longer, from, longer.length, shorter[i]);
+            if (position >= 0) {
+                result[count++] = shorter[i];
+                from = position + 1;
+            }
+            else {
+                from = -position - 1;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static final class OrdinalsBuilder
+    {
+        private int[] ordinals = new int[2];
+        private int size;
+
+        public void add(int ordinal)
+        {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            ordinals[size++] = ordinal;
+        }
+
+        public int[] build()
+        {
+            return Arrays.copyOf(ordinals, size);
+        }
+    }
+}
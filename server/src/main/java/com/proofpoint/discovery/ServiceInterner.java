@@ -0,0 +1,122 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares the strings and property maps of decoded services. Types, pools and
+ * property names and values repeat across almost every row a store reloads, as do
+ * whole property maps, so each distinct one is kept once rather than once per
+ * service. Entries are weakly held and go away with the last snapshot using them.
+ */
+@ThreadSafe
+public class ServiceInterner
+{
+    private final Interner<String> strings = Interners.newWeakInterner();
+    private final Interner<Map<String, String>> propertyMaps = Interners.newWeakInterner();
+
+    private final AtomicLong stringHitCount = new AtomicLong();
+    private final AtomicLong stringMissCount = new AtomicLong();
+    private final AtomicLong propertiesHitCount = new AtomicLong();
+    private final AtomicLong propertiesMissCount = new AtomicLong();
+
+    public String intern(String string)
+    {
+        Preconditions.checkNotNull(string, "string is null");
+
+        String interned = strings.intern(string);
+        if (interned == string) {
+            stringMissCount.incrementAndGet();
+        }
+        else {
+            stringHitCount.incrementAndGet();
+        }
+        return interned;
+    }
+
+    /**
+     * Interns a property map whose names and values have already been interned.
+     */
+    public Map<String, String> internProperties(ImmutableMap<String, String> properties)
+    {
+        Preconditions.checkNotNull(properties, "properties is null");
+
+        Map<String, String> interned = propertyMaps.intern(properties);
+        if (interned == properties) {
+            propertiesMissCount.incrementAndGet();
+        }
+        else {
+            propertiesHitCount.incrementAndGet();
+        }
+        return interned;
+    }
+
+    public Service intern(Service service)
+    {
+        Preconditions.checkNotNull(service, "service is null");
+
+        ImmutableMap.Builder<String, String> properties = ImmutableMap.builder();
+        for (Map.Entry<String, String> property : service.getProperties().entrySet()) {
+            properties.put(intern(property.getKey()), intern(property.getValue()));
+        }
+
+        // Service keeps an immutable map as is, so the interned map is shared
+        return new Service(service.getId(),
+                service.getNodeId(),
+                intern(service.getType()),
+                intern(service.getPool()),
+                intern(service.getLocation()),
+                internProperties(properties.build()));
+    }
+
+    @Managed
+    public long getStringHitCount()
+    {
+        return stringHitCount.get();
+    }
+
+    @Managed
+    public long getStringMissCount()
+    {
+        return stringMissCount.get();
+    }
+
+    @Managed
+    public double getStringHitRate()
+    {
+        return hitRate(stringHitCount.get(), stringMissCount.get());
+    }
+
+    @Managed
+    public long getPropertiesHitCount()
+    {
+        return propertiesHitCount.get();
+    }
+
+    @Managed
+    public long getPropertiesMissCount()
+    {
+        return propertiesMissCount.get();
+    }
+
+    @Managed
+    public double getPropertiesHitRate()
+    {
+        return hitRate(propertiesHitCount.get(), propertiesMissCount.get());
+    }
+
+    private static double hitRate(long hits, long misses)
+    {
+        if (hits + misses == 0) {
+            return 0;
+        }
+        return (double) hits / (hits + misses);
+    }
+}
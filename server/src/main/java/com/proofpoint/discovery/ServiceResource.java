@@ -1,6 +1,13 @@
 package com.proofpoint.discovery;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
+import com.proofpoint.discovery.ServiceResponseCache.CachedResponse;
 import com.proofpoint.discovery.event.DiscoveryEvents;
 import com.proofpoint.discovery.event.QueryEvent;
 import com.proofpoint.node.NodeInfo;
@@ -9,58 +16,103 @@ import com.proofpoint.units.Duration;
 import org.weakref.jmx.Managed;
 import org.weakref.jmx.Nested;
 
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-
-import static com.google.common.collect.Sets.union;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Path("/v1/service")
 public class ServiceResource
 {
-    private final DynamicStore dynamicStore;
-    private final StaticStore staticStore;
+    private static final Duration DEFAULT_WATCH_TIMEOUT = new Duration(30, TimeUnit.SECONDS);
+    private static final Duration MAX_WATCH_TIMEOUT = new Duration(2, TimeUnit.MINUTES);
+    // the compressed representation gets its own entity tag, as different content codings must
+    private static final String GZIP_ENTITY_TAG_SUFFIX = "-gzip";
+    private static final String PROPERTY_PARAMETER_PREFIX = "property.";
+
+    private final ServiceSnapshotSource snapshots;
     private final NodeInfo node;
     private final DiscoveryEvents events;
     private final TimedStat byTypeAndPoolStats;
     private final TimedStat byTypeStats;
     private final TimedStat allServicesStats;
+    private final TimedStat selectedServicesStats;
+    private final ServiceResponseCache responseCache;
+    private final CacheControl cacheControl;
+    private final ServiceChangeNotifier changeNotifier;
+    private final AdmissionControl admission;
+    private final AtomicInteger activeWatchCount = new AtomicInteger();
 
     @Inject
-    public ServiceResource(DynamicStore dynamicStore, StaticStore staticStore, NodeInfo node, DiscoveryEvents events, DiscoveryConfig discoveryConfig)
+    public ServiceResource(ServiceSnapshotSource snapshots, NodeInfo node, DiscoveryEvents events, DiscoveryConfig discoveryConfig, ServiceChangeNotifier changeNotifier, AdmissionControl admission)
     {
-        this.dynamicStore = dynamicStore;
-        this.staticStore = staticStore;
+        this.snapshots = snapshots;
+        this.admission = admission;
         this.node = node;
         this.events = events;
+        this.changeNotifier = changeNotifier;
         this.byTypeStats = new TimedStat(discoveryConfig.getStatsWindowSize());
         this.byTypeAndPoolStats = new TimedStat(discoveryConfig.getStatsWindowSize());
         this.allServicesStats = new TimedStat(discoveryConfig.getStatsWindowSize());
+        this.selectedServicesStats = new TimedStat(discoveryConfig.getStatsWindowSize());
+        this.responseCache = new ServiceResponseCache(node.getEnvironment());
 
+        // responses can't change faster than the dynamic store reloads its snapshot
+        this.cacheControl = new CacheControl();
+        this.cacheControl.setNoTransform(false);
+        this.cacheControl.setMaxAge((int) discoveryConfig.getDynamicServiceCacheRefresh().convertTo(TimeUnit.SECONDS));
     }
 
     @GET
     @Path("{type}/{pool}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Services getServices(@PathParam("type") String type, @PathParam("pool") String pool)
+    public Response getServices(@PathParam("type") String type,
+            @PathParam("pool") String pool,
+            @QueryParam("waitForChange") String waitForChange,
+            @QueryParam("timeout") Duration timeout,
+            @Context UriInfo uriInfo,
+            @Context HttpServletRequest request)
     {
+        Map<String, String> properties = getProperties(uriInfo);
+        if (!properties.isEmpty()) {
+            return selectServices(ImmutableList.of(type), pool, properties, waitForChange, request);
+        }
+
         long startTime = System.nanoTime();
         boolean success = false;
         QueryEvent.Builder event = events.getQueryEventBuilder(type, pool);
+        AdmissionLane lane = laneFor(waitForChange);
+        if (!lane.enter()) {
+            return admission.serviceUnavailable();
+        }
         try {
-            Set<Service> serviceSet = union(dynamicStore.get(type, pool), staticStore.get(type, pool));
-            event.setServiceSet(serviceSet);
-            Services s = new Services(node.getEnvironment(), serviceSet);
+            CachedResponse cached = lookup(type, pool, waitForChange, timeout);
+            event.setServiceCount(cached.getServiceCount());
+            Response response = toResponse(cached, waitForChange, request);
             event.setSuccess();
             success = true;
-            return s;
+            return response;
         }
         finally {
+            lane.exit();
             event.post();
-            if (success) {
+            if (success && waitForChange == null) {
                 byTypeAndPoolStats.addValue(Duration.nanosSince(startTime));
             }
         }
@@ -69,48 +121,281 @@ public class ServiceResource
     @GET
     @Path("{type}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Services getServices(@PathParam("type") String type)
+    public Response getServices(@PathParam("type") String type,
+            @QueryParam("waitForChange") String waitForChange,
+            @QueryParam("timeout") Duration timeout,
+            @Context UriInfo uriInfo,
+            @Context HttpServletRequest request)
     {
+        Map<String, String> properties = getProperties(uriInfo);
+        if (!properties.isEmpty()) {
+            return selectServices(ImmutableList.of(type), null, properties, waitForChange, request);
+        }
+
         long startTime = System.nanoTime();
         boolean success = false;
         QueryEvent.Builder event = events.getQueryEventBuilder(type);
+        AdmissionLane lane = laneFor(waitForChange);
+        if (!lane.enter()) {
+            return admission.serviceUnavailable();
+        }
         try {
-            Set<Service> serviceSet = union(dynamicStore.get(type), staticStore.get(type));
-            event.setServiceSet(serviceSet);
-            Services s = new Services(node.getEnvironment(), serviceSet);
+            CachedResponse cached = lookup(type, null, waitForChange, timeout);
+            event.setServiceCount(cached.getServiceCount());
+            Response response = toResponse(cached, waitForChange, request);
             event.setSuccess();
             success = true;
-            return s;
+            return response;
         }
         finally {
+            lane.exit();
             event.post();
-            if (success) {
+            if (success && waitForChange == null) {
                 byTypeStats.addValue(Duration.nanosSince(startTime));
             }
         }
     }
 
+    /**
+     * All services, or those selected by the query parameters: any number of type
+     * parameters, a pool parameter and property.name=value parameters that the
+     * service properties must all match.
+     */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Services getServices()
+    public Response getServices(@Context UriInfo uriInfo, @Context HttpServletRequest request)
     {
+        List<String> types = ImmutableList.of();
+        String pool = null;
+        if (uriInfo != null) {
+            types = Objects.firstNonNull(uriInfo.getQueryParameters().get("type"), types);
+            pool = uriInfo.getQueryParameters().getFirst("pool");
+        }
+        return selectServices(types, pool, getProperties(uriInfo), null, request);
+    }
+
+    /**
+     * Selections are answered from the property index of the snapshot rather than
+     * the response cache, since arbitrary selections would grow the cache without
+     * bound. For the same reason they can't be watched.
+     */
+    private Response selectServices(List<String> types, @Nullable String pool, Map<String, String> properties, @Nullable String waitForChange, HttpServletRequest request)
+    {
+        if (waitForChange != null) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("waitForChange is not supported with property filters")
+                    .build();
+        }
+        boolean selected = !types.isEmpty() || pool != null || !properties.isEmpty();
+
         long startTime = System.nanoTime();
         boolean success = false;
-        QueryEvent.Builder event = events.getQueryEventBuilder();
+        QueryEvent.Builder event = queryEventBuilder(types, pool);
+        AdmissionLane lane = admission.getReadLane();
+        if (!lane.enter()) {
+            return admission.serviceUnavailable();
+        }
+        // the lane is held until the services have been written, unless they never will be
+        boolean exitOnWrite = false;
         try {
-            Set<Service> serviceSet = union(dynamicStore.getAll(), staticStore.getAll());
+            // services are written straight from the shared snapshot as it is iterated
+            Set<Service> serviceSet;
+            if (selected) {
+                serviceSet = snapshots.getSnapshot().select(types, pool, properties);
+            }
+            else {
+                serviceSet = snapshots.getSnapshot().getAll();
+            }
             event.setServiceSet(serviceSet);
-            Services s = new Services(node.getEnvironment(), serviceSet);
+            StreamingOutput output = new ServicesWriter(node.getEnvironment(), serviceSet);
+            StreamingOutput exitingOutput = lane.exitAfterWrite(output, request);
+            Response response = GzipEncoding.toResponse(Objects.firstNonNull(exitingOutput, output), request);
+            exitOnWrite = exitingOutput != null;
             event.setSuccess();
             success = true;
-            return s;
+            return response;
         }
         finally {
+            if (!exitOnWrite) {
+                lane.exit();
+            }
             event.post();
             if (success) {
-                allServicesStats.addValue(Duration.nanosSince(startTime));
+                if (selected) {
+                    selectedServicesStats.addValue(Duration.nanosSince(startTime));
+                }
+                else {
+                    allServicesStats.addValue(Duration.nanosSince(startTime));
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> getProperties(@Nullable UriInfo uriInfo)
+    {
+        if (uriInfo == null) {
+            return ImmutableMap.of();
+        }
+
+        Map<String, String> properties = Maps.newHashMap();
+        for (Map.Entry<String, List<String>> parameter : uriInfo.getQueryParameters().entrySet()) {
+            if (parameter.getKey().startsWith(PROPERTY_PARAMETER_PREFIX) && !parameter.getValue().isEmpty()) {
+                properties.put(parameter.getKey().substring(PROPERTY_PARAMETER_PREFIX.length()), parameter.getValue().get(0));
+            }
+        }
+        return properties;
+    }
+
+    private QueryEvent.Builder queryEventBuilder(List<String> types, @Nullable String pool)
+    {
+        if (types.size() == 1 && pool != null) {
+            return events.getQueryEventBuilder(types.get(0), pool);
+        }
+        if (pool != null) {
+            return events.getQueryEventBuilder(pool);
+        }
+        return events.getQueryEventBuilder();
+    }
+
+    /**
+     * Watches park their thread until a change or timeout, so they are bounded apart from lookups.
+     */
+    private AdmissionLane laneFor(@Nullable String waitForChange)
+    {
+        if (waitForChange == null) {
+            return admission.getReadLane();
+        }
+        return admission.getWatchLane();
+    }
+
+    private CachedResponse lookup(String type, @Nullable String pool, boolean latest)
+    {
+        ServiceSnapshot snapshot = latest ? snapshots.getLatestSnapshot() : snapshots.getSnapshot();
+        if (pool == null) {
+            return responseCache.get(Arrays.asList(type), snapshot.get(type));
+        }
+        return responseCache.get(Arrays.asList(type, pool), snapshot.get(type, pool));
+    }
+
+    /**
+     * Looks up the services and, if the caller already holds the content tagged waitForChange,
+     * parks until the stores report a change that alters it or the timeout elapses.
+     * <p/>
+     * This is a blocking wait, not a scalable long-poll. JAX-RS 1.x resources can't
+     * suspend their response, so every watch holds its HTTP thread while it waits, and
+     * the server supports no more watchers than the watch lane admits. Clients that
+     * need thousands of watchers must poll with If-None-Match instead.
+     */
+    private CachedResponse lookup(String type, @Nullable String pool, @Nullable String waitForChange, @Nullable Duration timeout)
+    {
+        // watches must see the change that woke them, not the snapshot being replaced
+        boolean watch = waitForChange != null;
+        long generation = changeNotifier.getGeneration();
+        CachedResponse cached = lookup(type, pool, watch);
+        if (!watch) {
+            return cached;
+        }
+
+        long waitMillis = (long) Objects.firstNonNull(timeout, DEFAULT_WATCH_TIMEOUT).toMillis();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(waitMillis, (long) MAX_WATCH_TIMEOUT.toMillis()));
+
+        activeWatchCount.incrementAndGet();
+        try {
+            while (matches(quote(waitForChange), cached)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                generation = changeNotifier.awaitChange(generation, remaining, TimeUnit.NANOSECONDS);
+                cached = lookup(type, pool, true);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            activeWatchCount.decrementAndGet();
+        }
+        return cached;
+    }
+
+    private Response toResponse(CachedResponse cached, @Nullable String waitForChange, HttpServletRequest request)
+    {
+        // a watcher that timed out already holds the current content
+        String ifNoneMatch = null;
+        if (waitForChange != null) {
+            ifNoneMatch = quote(waitForChange);
+        }
+        else if (request != null) {
+            ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        }
+
+        boolean gzip = GzipEncoding.isAccepted(request);
+        String entityTag = cached.getEntityTag();
+        if (gzip) {
+            entityTag += GZIP_ENTITY_TAG_SUFFIX;
+        }
+
+        if (matches(ifNoneMatch, cached)) {
+            return Response.notModified(entityTag)
+                    .cacheControl(cacheControl)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        if (gzip) {
+            return Response.ok(cached.getGzipJson(), MediaType.APPLICATION_JSON_TYPE)
+                    .encoding(GzipEncoding.GZIP)
+                    .tag(entityTag)
+                    .cacheControl(cacheControl)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        return Response.ok(cached.getJson(), MediaType.APPLICATION_JSON_TYPE)
+                .tag(entityTag)
+                .cacheControl(cacheControl)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .build();
+    }
+
+    /**
+     * Whether ifNoneMatch names either representation of cached; both carry the same content.
+     */
+    private static boolean matches(@Nullable String ifNoneMatch, CachedResponse cached)
+    {
+        return matchesEntityTag(ifNoneMatch, cached.getEntityTag()) ||
+                matchesEntityTag(ifNoneMatch, cached.getEntityTag() + GZIP_ENTITY_TAG_SUFFIX);
+    }
+
+    private static String quote(String entityTag)
+    {
+        if (entityTag.startsWith("\"") || entityTag.startsWith("W/")) {
+            return entityTag;
+        }
+        return '"' + entityTag + '"';
+    }
+
+    @VisibleForTesting
+    static boolean matchesEntityTag(String ifNoneMatch, String entityTag)
+    {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String candidate : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+            if (candidate.equals("*")) {
+                return true;
+            }
+            // If-None-Match uses the weak comparison function
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals('"' + entityTag + '"')) {
+                return true;
             }
         }
+        return false;
     }
 
     @Managed
@@ -133,4 +418,24 @@ public class ServiceResource
     {
         return allServicesStats;
     }
+
+    @Managed
+    @Nested
+    public TimedStat getSelectedServicesStats()
+    {
+        return selectedServicesStats;
+    }
+
+    @Managed
+    public int getActiveWatchCount()
+    {
+        return activeWatchCount.get();
+    }
+
+    @Managed
+    @Nested
+    public ServiceResponseCache getResponseCache()
+    {
+        return responseCache;
+    }
 }
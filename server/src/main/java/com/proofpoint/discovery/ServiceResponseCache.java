@@ -0,0 +1,155 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.proofpoint.json.JsonCodec;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the encoded JSON for service queries. An entry is only reused while the
+ * {@link ServiceSnapshot} keeps handing out the very same set it was encoded from,
+ * so a change to the services invalidates it without any explicit signal.
+ */
+@ThreadSafe
+public class ServiceResponseCache
+{
+    private final JsonCodec<Services> codec = JsonCodec.jsonCodec(Services.class);
+    private final String environment;
+    private final ConcurrentMap<List<String>, CachedResponse> responses = new ConcurrentHashMap<List<String>, CachedResponse>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public ServiceResponseCache(String environment)
+    {
+        Preconditions.checkNotNull(environment, "environment is null");
+        this.environment = environment;
+    }
+
+    public CachedResponse get(List<String> key, Set<Service> serviceSet)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+        Preconditions.checkNotNull(serviceSet, "serviceSet is null");
+
+        CachedResponse cached = responses.get(key);
+        if (cached != null && cached.isEncodedFrom(serviceSet)) {
+            hitCount.incrementAndGet();
+            return cached;
+        }
+
+        missCount.incrementAndGet();
+        Services services = new Services(environment, serviceSet);
+        CachedResponse response = new CachedResponse(serviceSet, services.getServices().size(), codec.toJson(services).getBytes(Charsets.UTF_8));
+
+        // only remember non-empty results so lookups of unknown keys can't grow the cache
+        if (response.getServiceCount() == 0) {
+            responses.remove(key);
+        }
+        else {
+            responses.put(key, response);
+        }
+        return response;
+    }
+
+    @Managed
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    @Managed
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    @Managed
+    public int getSize()
+    {
+        return responses.size();
+    }
+
+    @ThreadSafe
+    public static class CachedResponse
+    {
+        private final Set<Service> serviceSet;
+        private final int serviceCount;
+        private final byte[] json;
+        private final String entityTag;
+        // compressed on first use; concurrent first uses may compress more than once
+        private volatile byte[] gzipJson;
+
+        private CachedResponse(Set<Service> serviceSet, int serviceCount, byte[] json)
+        {
+            this.serviceSet = serviceSet;
+            this.serviceCount = serviceCount;
+            this.json = json;
+            this.entityTag = digest(json);
+        }
+
+        private boolean isEncodedFrom(Set<Service> serviceSet)
+        {
+            return this.serviceSet == serviceSet;
+        }
+
+        public int getServiceCount()
+        {
+            return serviceCount;
+        }
+
+        /**
+         * UTF-8 encoded JSON. Shared between requests, so callers must not modify it.
+         */
+        public byte[] getJson()
+        {
+            return json;
+        }
+
+        /**
+         * gzip compressed {@link #getJson()}. Shared between requests, so callers must not modify it.
+         */
+        public byte[] getGzipJson()
+        {
+            byte[] result = gzipJson;
+            if (result == null) {
+                result = GzipEncoding.compress(json);
+                gzipJson = result;
+            }
+            return result;
+        }
+
+        /**
+         * Strong entity tag (unquoted) derived from the encoded content.
+         */
+        public String getEntityTag()
+        {
+            return entityTag;
+        }
+
+        private static String digest(byte[] content)
+        {
+            MessageDigest md5;
+            try {
+                md5 = MessageDigest.getInstance("MD5");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : md5.digest(content)) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The dynamic and static services merged into a single index, so queries are
+ * answered with one lookup that hands out a shared set.
+ * <p/>
+ * A snapshot remembers the store sets it was built from. Updating it with the
+ * same sets returns it unchanged, and updating it with new sets reuses every
+ * merged set whose content did not change.
+ */
+@Immutable
+public class ServiceSnapshot
+{
+    private static final ServiceSnapshot EMPTY = new ServiceSnapshot(ImmutableSet.<Service>of(), ImmutableSet.<Service>of(), ServiceIndex.empty());
+
+    private final Set<Service> dynamicServices;
+    private final Set<Service> staticServices;
+    private final ServiceIndex services;
+
+    public static ServiceSnapshot empty()
+    {
+        return EMPTY;
+    }
+
+    public static ServiceSnapshot update(ServiceSnapshot previous, Set<Service> dynamicServices, Set<Service> staticServices)
+    {
+        Preconditions.checkNotNull(previous, "previous is null");
+        Preconditions.checkNotNull(dynamicServices, "dynamicServices is null");
+        Preconditions.checkNotNull(staticServices, "staticServices is null");
+
+        if (previous.isBuiltFrom(dynamicServices, staticServices)) {
+            return previous;
+        }
+        // tables are copied by column, and dynamic services win over static ones with the same id
+        ServiceTable union = ServiceTable.builder()
+                .addAll(dynamicServices)
+                .addAll(staticServices)
+                .build(previous.services.getAll());
+        ServiceIndex services = ServiceIndex.update(previous.services, union);
+        return new ServiceSnapshot(dynamicServices, staticServices, services);
+    }
+
+    private ServiceSnapshot(Set<Service> dynamicServices, Set<Service> staticServices, ServiceIndex services)
+    {
+        this.dynamicServices = dynamicServices;
+        this.staticServices = staticServices;
+        this.services = services;
+    }
+
+    /**
+     * Whether this snapshot was built from exactly these store sets.
+     */
+    public boolean isBuiltFrom(Set<Service> dynamicServices, Set<Service> staticServices)
+    {
+        return this.dynamicServices == dynamicServices && this.staticServices == staticServices;
+    }
+
+    public Set<Service> getAll()
+    {
+        return services.getAll();
+    }
+
+    public long getHeapBytes()
+    {
+        return services.getHeapBytes();
+    }
+
+    public Set<Service> get(String type)
+    {
+        return services.get(type);
+    }
+
+    public Set<Service> get(String type, String pool)
+    {
+        return services.get(type, pool);
+    }
+
+    public Set<Service> getByPool(String pool)
+    {
+        return services.getByPool(pool);
+    }
+
+    /**
+     * @see ServiceIndex#select(Collection, String, Map)
+     */
+    public Set<Service> select(Collection<String> types, @Nullable String pool, Map<String, String> properties)
+    {
+        return services.select(types, pool, properties);
+    }
+}
@@ -0,0 +1,99 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Inject;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out the current {@link ServiceSnapshot} of both stores. The stores publish
+ * their own snapshots by swapping a reference, so a snapshot stays current for
+ * as long as both stores keep returning the sets it was built from; the first
+ * reader after a swap merges the new sets and publishes the result for everyone.
+ * Merging takes time linear in the number of services, so only one reader merges
+ * at a time, and readers arriving meanwhile get the snapshot it is replacing
+ * unless they ask for the latest one.
+ */
+@ThreadSafe
+public class ServiceSnapshotSource
+{
+    private final DynamicStore dynamicStore;
+    private final StaticStore staticStore;
+    private final AtomicReference<ServiceSnapshot> snapshot = new AtomicReference<ServiceSnapshot>(ServiceSnapshot.empty());
+    private final Lock rebuildLock = new ReentrantLock();
+    private final AtomicLong rebuildCount = new AtomicLong();
+
+    @Inject
+    public ServiceSnapshotSource(DynamicStore dynamicStore, StaticStore staticStore)
+    {
+        Preconditions.checkNotNull(dynamicStore, "dynamicStore is null");
+        Preconditions.checkNotNull(staticStore, "staticStore is null");
+
+        this.dynamicStore = dynamicStore;
+        this.staticStore = staticStore;
+    }
+
+    public ServiceSnapshot getSnapshot()
+    {
+        return getSnapshot(false);
+    }
+
+    /**
+     * Like {@link #getSnapshot()}, but waits for a merge in progress rather than
+     * returning the snapshot it replaces. For readers woken by a change, which would
+     * otherwise miss it.
+     */
+    public ServiceSnapshot getLatestSnapshot()
+    {
+        return getSnapshot(true);
+    }
+
+    private ServiceSnapshot getSnapshot(boolean waitForMerge)
+    {
+        ServiceSnapshot current = snapshot.get();
+        if (current.isBuiltFrom(dynamicStore.getAll(), staticStore.getAll())) {
+            return current;
+        }
+
+        // until the first merge there is no snapshot worth answering from, so wait for it
+        if (waitForMerge || current == ServiceSnapshot.empty()) {
+            rebuildLock.lock();
+        }
+        else if (!rebuildLock.tryLock()) {
+            return current;
+        }
+        try {
+            // the sets may have been merged while this reader waited
+            current = snapshot.get();
+            Set<Service> dynamicServices = dynamicStore.getAll();
+            Set<Service> staticServices = staticStore.getAll();
+            if (!current.isBuiltFrom(dynamicServices, staticServices)) {
+                current = ServiceSnapshot.update(current, dynamicServices, staticServices);
+                rebuildCount.incrementAndGet();
+                snapshot.set(current);
+            }
+            return current;
+        }
+        finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    @Managed
+    public long getSnapshotHeapBytes()
+    {
+        return snapshot.get().getHeapBytes();
+    }
+
+    @Managed
+    public long getRebuildCount()
+    {
+        return rebuildCount.get();
+    }
+}
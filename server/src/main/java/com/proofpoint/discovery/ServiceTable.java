@@ -0,0 +1,581 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.UnmodifiableIterator;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * Immutable set of services stored by column rather than as an object graph per
+ * service. Ids and node ids are pairs of longs, type, pool and location are
+ * positions in a table of the distinct strings, and properties are positions in a
+ * table of the distinct property maps. A service costs a few array slots, and the
+ * collector traces a handful of arrays instead of several objects per service.
+ * The services handed out are built when they are read.
+ * <p/>
+ * Services iterate in the order they were added, and as with ImmutableSet a
+ * service whose id was already added is ignored.
+ */
+@Immutable
+public final class ServiceTable
+        extends AbstractSet<Service>
+{
+    private static final ServiceTable EMPTY = builder().build();
+
+    private final int size;
+    private final long[] idMostBits;
+    private final long[] idLeastBits;
+    private final long[] nodeIdMostBits;
+    private final long[] nodeIdLeastBits;
+    private final BitSet withNodeId;
+    private final int[] types;
+    private final int[] pools;
+    private final int[] locations;
+    private final int[] properties;
+    private final String[] strings;
+    private final List<Map<String, String>> propertyMaps;
+
+    // open addressing table of ordinal + 1 by id, 0 marks a free slot
+    private final int[] slots;
+
+    public static ServiceTable empty()
+    {
+        return EMPTY;
+    }
+
+    public static ServiceTable copyOf(Iterable<Service> services)
+    {
+        Preconditions.checkNotNull(services, "services is null");
+
+        if (services instanceof ServiceTable) {
+            return (ServiceTable) services;
+        }
+        return builder().addAll(services).build();
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    private ServiceTable(int size, long[] idMostBits, long[] idLeastBits, long[] nodeIdMostBits, long[] nodeIdLeastBits, BitSet withNodeId,
+            int[] types, int[] pools, int[] locations, int[] properties, String[] strings, List<Map<String, String>> propertyMaps, int[] slots)
+    {
+        this.size = size;
+        this.idMostBits = idMostBits;
+        this.idLeastBits = idLeastBits;
+        this.nodeIdMostBits = nodeIdMostBits;
+        this.nodeIdLeastBits = nodeIdLeastBits;
+        this.withNodeId = withNodeId;
+        this.types = types;
+        this.pools = pools;
+        this.locations = locations;
+        this.properties = properties;
+        this.strings = strings;
+        this.propertyMaps = propertyMaps;
+        this.slots = slots;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        if (!(o instanceof Service)) {
+            return false;
+        }
+        return indexOf(((Service) o).getId()) >= 0;
+    }
+
+    @Override
+    public Iterator<Service> iterator()
+    {
+        return new UnmodifiableIterator<Service>()
+        {
+            private int ordinal;
+
+            @Override
+            public boolean hasNext()
+            {
+                return ordinal < size;
+            }
+
+            @Override
+            public Service next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(ordinal++);
+            }
+        };
+    }
+
+    /**
+     * Bytes of the columns and of the lookup table by id. The strings and property
+     * maps are shared with other tables and not counted.
+     */
+    public long getHeapBytes()
+    {
+        return 8L * (idMostBits.length + idLeastBits.length + nodeIdMostBits.length + nodeIdLeastBits.length) +
+                4L * (types.length + pools.length + locations.length + properties.length + slots.length) +
+                withNodeId.size() / 8;
+    }
+
+    /**
+     * Position of the service with the id, or -1 if there is none.
+     */
+    int indexOf(Id<Service> id)
+    {
+        UUID uuid = id.get();
+        return indexOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    private int indexOf(long mostBits, long leastBits)
+    {
+        return slots[slot(slots, idMostBits, idLeastBits, mostBits, leastBits)] - 1;
+    }
+
+    Service get(int ordinal)
+    {
+        Id<Node> nodeId = null;
+        if (withNodeId.get(ordinal)) {
+            nodeId = Id.valueOf(new UUID(nodeIdMostBits[ordinal], nodeIdLeastBits[ordinal]));
+        }
+        return new Service(Id.<Service>valueOf(new UUID(idMostBits[ordinal], idLeastBits[ordinal])),
+                nodeId,
+                getType(ordinal),
+                getPool(ordinal),
+                getLocation(ordinal),
+                getProperties(ordinal));
+    }
+
+    String getType(int ordinal)
+    {
+        return strings[types[ordinal]];
+    }
+
+    String getPool(int ordinal)
+    {
+        return strings[pools[ordinal]];
+    }
+
+    String getLocation(int ordinal)
+    {
+        return strings[locations[ordinal]];
+    }
+
+    Map<String, String> getProperties(int ordinal)
+    {
+        return propertyMaps.get(properties[ordinal]);
+    }
+
+    /**
+     * The services at the ordinals, which must be sorted.
+     */
+    Selection select(int[] ordinals)
+    {
+        return new Selection(this, ordinals);
+    }
+
+    /**
+     * Whether other holds the same services, with the same content, in the same order.
+     */
+    boolean hasSameServices(ServiceTable other)
+    {
+        if (this == other) {
+            return true;
+        }
+        if (size != other.size) {
+            return false;
+        }
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            if (!sameRow(ordinal, other, ordinal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Service equality only considers the id, so compare every column.
+     */
+    private boolean sameRow(int ordinal, ServiceTable other, int otherOrdinal)
+    {
+        if (idMostBits[ordinal] != other.idMostBits[otherOrdinal] || idLeastBits[ordinal] != other.idLeastBits[otherOrdinal]) {
+            return false;
+        }
+        if (withNodeId.get(ordinal) != other.withNodeId.get(otherOrdinal)) {
+            return false;
+        }
+        if (withNodeId.get(ordinal) &&
+                (nodeIdMostBits[ordinal] != other.nodeIdMostBits[otherOrdinal] || nodeIdLeastBits[ordinal] != other.nodeIdLeastBits[otherOrdinal])) {
+            return false;
+        }
+        return getType(ordinal).equals(other.getType(otherOrdinal)) &&
+                getPool(ordinal).equals(other.getPool(otherOrdinal)) &&
+                getLocation(ordinal).equals(other.getLocation(otherOrdinal)) &&
+                getProperties(ordinal).equals(other.getProperties(otherOrdinal));
+    }
+
+    /**
+     * Slot holding the id, or the free slot where it belongs.
+     */
+    private static int slot(int[] slots, long[] idMostBits, long[] idLeastBits, long mostBits, long leastBits)
+    {
+        int mask = slots.length - 1;
+        long hash = mostBits ^ leastBits;
+        int slot = (int) (hash ^ (hash >>> 32));
+        slot = (slot ^ (slot >>> 16)) & mask;
+        while (slots[slot] != 0) {
+            int ordinal = slots[slot] - 1;
+            if (idMostBits[ordinal] == mostBits && idLeastBits[ordinal] == leastBits) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    public static class Builder
+    {
+        private int size;
+        private long[] idMostBits = new long[16];
+        private long[] idLeastBits = new long[16];
+        private long[] nodeIdMostBits = new long[16];
+        private long[] nodeIdLeastBits = new long[16];
+        private final BitSet withNodeId = new BitSet();
+        private int[] types = new int[16];
+        private int[] pools = new int[16];
+        private int[] locations = new int[16];
+        private int[] properties = new int[16];
+        private int[] slots = new int[32];
+
+        private final Map<String, Integer> stringCodes = Maps.newHashMap();
+        private final List<String> strings = Lists.newArrayList();
+        private final Map<Map<String, String>, Integer> propertyCodes = Maps.newHashMap();
+        private final List<Map<String, String>> propertyMaps = Lists.newArrayList();
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Number of services added so far, which is also the position of the next one.
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        public Builder add(Service service)
+        {
+            Preconditions.checkNotNull(service, "service is null");
+
+            UUID id = service.getId().get();
+            int slot = claim(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (slot < 0) {
+                return this;
+            }
+
+            UUID nodeId = null;
+            if (service.getNodeId() != null) {
+                nodeId = service.getNodeId().get();
+            }
+            append(slot,
+                    id.getMostSignificantBits(),
+                    id.getLeastSignificantBits(),
+                    nodeId != null,
+                    nodeId == null ? 0 : nodeId.getMostSignificantBits(),
+                    nodeId == null ? 0 : nodeId.getLeastSignificantBits(),
+                    service.getType(),
+                    service.getPool(),
+                    service.getLocation(),
+                    service.getProperties());
+            return this;
+        }
+
+        public Builder addAll(Iterable<Service> services)
+        {
+            Preconditions.checkNotNull(services, "services is null");
+
+            if (services instanceof ServiceTable) {
+                ServiceTable table = (ServiceTable) services;
+                return addRows(table, 0, table.size());
+            }
+            for (Service service : services) {
+                add(service);
+            }
+            return this;
+        }
+
+        /**
+         * Adds the services of table from position start up to but excluding end,
+         * without building them.
+         */
+        public Builder addRows(ServiceTable table, int start, int end)
+        {
+            Preconditions.checkNotNull(table, "table is null");
+            Preconditions.checkPositionIndexes(start, end, table.size());
+
+            for (int ordinal = start; ordinal < end; ordinal++) {
+                int slot = claim(table.idMostBits[ordinal], table.idLeastBits[ordinal]);
+                if (slot >= 0) {
+                    append(slot,
+                            table.idMostBits[ordinal],
+                            table.idLeastBits[ordinal],
+                            table.withNodeId.get(ordinal),
+                            table.nodeIdMostBits[ordinal],
+                            table.nodeIdLeastBits[ordinal],
+                            table.getType(ordinal),
+                            table.getPool(ordinal),
+                            table.getLocation(ordinal),
+                            table.getProperties(ordinal));
+                }
+            }
+            return this;
+        }
+
+        public ServiceTable build()
+        {
+            return build(null);
+        }
+
+        /**
+         * Builds the table, or returns previous if it holds the same services, so
+         * rebuilding unchanged services does not copy the columns again.
+         */
+        public ServiceTable build(@Nullable ServiceTable previous)
+        {
+            // shares the columns of the builder, only to compare them
+            ServiceTable staged = new ServiceTable(size, idMostBits, idLeastBits, nodeIdMostBits, nodeIdLeastBits, withNodeId,
+                    types, pools, locations, properties, strings.toArray(new String[strings.size()]), propertyMaps, slots);
+            if (previous != null && previous.hasSameServices(staged)) {
+                return previous;
+            }
+
+            return new ServiceTable(size,
+                    Arrays.copyOf(idMostBits, size),
+                    Arrays.copyOf(idLeastBits, size),
+                    Arrays.copyOf(nodeIdMostBits, size),
+                    Arrays.copyOf(nodeIdLeastBits, size),
+                    (BitSet) withNodeId.clone(),
+                    Arrays.copyOf(types, size),
+                    Arrays.copyOf(pools, size),
+                    Arrays.copyOf(locations, size),
+                    Arrays.copyOf(properties, size),
+                    staged.strings,
+                    ImmutableList.copyOf(propertyMaps),
+                    slots.clone());
+        }
+
+        /**
+         * Free slot for the id, or -1 if it was already added.
+         */
+        private int claim(long mostBits, long leastBits)
+        {
+            if ((size + 1) * 2 > slots.length) {
+                int[] resized = new int[slots.length * 2];
+                for (int ordinal = 0; ordinal < size; ordinal++) {
+                    resized[slot(resized, idMostBits, idLeastBits, idMostBits[ordinal], idLeastBits[ordinal])] = ordinal + 1;
+                }
+                slots = resized;
+            }
+
+            int slot = slot(slots, idMostBits, idLeastBits, mostBits, leastBits);
+            if (slots[slot] != 0) {
+                return -1;
+            }
+            return slot;
+        }
+
+        private void append(int slot, long idMostBits, long idLeastBits, boolean withNodeId, long nodeIdMostBits, long nodeIdLeastBits,
+                String type, String pool, String location, Map<String, String> properties)
+        {
+            if (size == types.length) {
+                int capacity = size * 2;
+                this.idMostBits = Arrays.copyOf(this.idMostBits, capacity);
+                this.idLeastBits = Arrays.copyOf(this.idLeastBits, capacity);
+                this.nodeIdMostBits = Arrays.copyOf(this.nodeIdMostBits, capacity);
+                this.nodeIdLeastBits = Arrays.copyOf(this.nodeIdLeastBits, capacity);
+                this.types = Arrays.copyOf(this.types, capacity);
+                this.pools = Arrays.copyOf(this.pools, capacity);
+                this.locations = Arrays.copyOf(this.locations, capacity);
+                this.properties = Arrays.copyOf(this.properties, capacity);
+            }
+
+            this.idMostBits[size] = idMostBits;
+            this.idLeastBits[size] = idLeastBits;
+            this.withNodeId.set(size, withNodeId);
+            this.nodeIdMostBits[size] = nodeIdMostBits;
+            this.nodeIdLeastBits[size] = nodeIdLeastBits;
+            this.types[size] = code(type);
+            this.pools[size] = code(pool);
+            this.locations[size] = code(location);
+            this.properties[size] = code(properties);
+            this.slots[slot] = size + 1;
+            size++;
+        }
+
+        private int code(String string)
+        {
+            Integer code = stringCodes.get(string);
+            if (code == null) {
+                code = strings.size();
+                strings.add(string);
+                stringCodes.put(string, code);
+            }
+            return code;
+        }
+
+        private int code(Map<String, String> properties)
+        {
+            Integer code = propertyCodes.get(properties);
+            if (code == null) {
+                code = propertyMaps.size();
+                propertyMaps.add(properties);
+                propertyCodes.put(properties, code);
+            }
+            return code;
+        }
+    }
+
+    /**
+     * Services at some of the positions of a table, in table order. A selection whose
+     * services did not change can be moved to a newer table that holds them too, so
+     * sets carried over from one index to the next keep their identity without
+     * keeping the table they were first built from alive.
+     */
+    @ThreadSafe
+    public static final class Selection
+            extends AbstractSet<Service>
+    {
+        // replaced as a whole, so readers always see a table with its own positions
+        private volatile Binding binding;
+
+        private Selection(ServiceTable table, int[] ordinals)
+        {
+            this.binding = new Binding(table, ordinals);
+        }
+
+        @Override
+        public int size()
+        {
+            return binding.ordinals.length;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            if (!(o instanceof Service)) {
+                return false;
+            }
+            Binding binding = this.binding;
+            int ordinal = binding.table.indexOf(((Service) o).getId());
+            return ordinal >= 0 && Arrays.binarySearch(binding.ordinals, ordinal) >= 0;
+        }
+
+        @Override
+        public Iterator<Service> iterator()
+        {
+            final Binding binding = this.binding;
+            return new UnmodifiableIterator<Service>()
+            {
+                private int position;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return position < binding.ordinals.length;
+                }
+
+                @Override
+                public Service next()
+                {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return binding.table.get(binding.ordinals[position++]);
+                }
+            };
+        }
+
+        /**
+         * Sorted positions of the services in table, which must hold all of them.
+         */
+        int[] ordinalsIn(ServiceTable table)
+        {
+            Binding binding = this.binding;
+            if (binding.table == table) {
+                return binding.ordinals;
+            }
+
+            int[] result = new int[binding.ordinals.length];
+            for (int i = 0; i < result.length; i++) {
+                int ordinal = binding.ordinals[i];
+                result[i] = table.indexOf(binding.table.idMostBits[ordinal], binding.table.idLeastBits[ordinal]);
+                Preconditions.checkState(result[i] >= 0, "table does not hold every service of the selection");
+            }
+            Arrays.sort(result);
+            return result;
+        }
+
+        /**
+         * Whether the services at the ordinals of table are the services of this
+         * selection, with the same content, in the same order.
+         */
+        boolean hasSameServices(ServiceTable table, int[] ordinals)
+        {
+            Binding binding = this.binding;
+            if (binding.ordinals.length != ordinals.length) {
+                return false;
+            }
+            for (int i = 0; i < ordinals.length; i++) {
+                if (!binding.table.sameRow(binding.ordinals[i], table, ordinals[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Rebinds the selection to the same services in another table.
+         *
+         * @see #hasSameServices(ServiceTable, int[])
+         */
+        void moveTo(ServiceTable table, int[] ordinals)
+        {
+            binding = new Binding(table, ordinals);
+        }
+    }
+
+    @Immutable
+    private static final class Binding
+    {
+        private final ServiceTable table;
+        private final int[] ordinals;
+
+        private Binding(ServiceTable table, int[] ordinals)
+        {
+            this.table = table;
+            this.ordinals = ordinals;
+        }
+    }
+}
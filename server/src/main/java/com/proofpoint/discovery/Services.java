@@ -2,6 +2,7 @@ package com.proofpoint.discovery;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
+import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonProperty;
 
 import javax.annotation.concurrent.Immutable;
@@ -13,7 +14,8 @@ public class Services
     private final String environment;
     private final Set<Service> services;
 
-    public Services(String environment, Set<Service> services)
+    @JsonCreator
+    public Services(@JsonProperty("environment") String environment, @JsonProperty("services") Set<Service> services)
     {
         Preconditions.checkNotNull(environment, "environment is null");
         Preconditions.checkNotNull(services, "services is null");
@@ -0,0 +1,77 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Preconditions;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Writes the JSON form of {@link Services} straight from the given services, so
+ * large listings are streamed to the client without building an intermediate
+ * set or buffering the document.
+ */
+public class ServicesWriter
+        implements StreamingOutput
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    static {
+        // the container owns the response stream
+        JSON_FACTORY.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    }
+
+    private final String environment;
+    private final Iterable<Service> services;
+
+    public ServicesWriter(String environment, Iterable<Service> services)
+    {
+        Preconditions.checkNotNull(environment, "environment is null");
+        Preconditions.checkNotNull(services, "services is null");
+
+        this.environment = environment;
+        this.services = services;
+    }
+
+    @Override
+    public void write(OutputStream output)
+            throws IOException
+    {
+        JsonGenerator generator = JSON_FACTORY.createJsonGenerator(output, JsonEncoding.UTF8);
+        generator.writeStartObject();
+        generator.writeStringField("environment", environment);
+        generator.writeArrayFieldStart("services");
+        for (Service service : services) {
+            writeService(generator, service);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    private static void writeService(JsonGenerator generator, Service service)
+            throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeStringField("id", service.getId().toString());
+        if (service.getNodeId() == null) {
+            generator.writeNullField("nodeId");
+        }
+        else {
+            generator.writeStringField("nodeId", service.getNodeId().toString());
+        }
+        generator.writeStringField("type", service.getType());
+        generator.writeStringField("pool", service.getPool());
+        generator.writeStringField("location", service.getLocation());
+        generator.writeObjectFieldStart("properties");
+        for (Map.Entry<String, String> property : service.getProperties().entrySet()) {
+            generator.writeStringField(property.getKey(), property.getValue());
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+}
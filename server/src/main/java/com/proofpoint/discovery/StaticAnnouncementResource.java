@@ -17,23 +17,32 @@ import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 import java.net.URI;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
 import static java.lang.String.format;
+import static javax.ws.rs.core.Response.Status.ACCEPTED;
 import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
 
 @Path("/v1/announcement/static")
 public class StaticAnnouncementResource
 {
     private final StaticStore store;
+    private final StoreWriteExecutor writeExecutor;
+    private final AdmissionControl admission;
+    private final AdmissionLane readLane;
+    private final AdmissionLane writeLane;
     private final NodeInfo nodeInfo;
     private final DiscoveryEvents events;
     private final TimedStat staticPostStats;
@@ -41,9 +50,13 @@ public class StaticAnnouncementResource
     private final TimedStat staticDeleteStats;
 
     @Inject
-    public StaticAnnouncementResource(StaticStore store, NodeInfo nodeInfo, DiscoveryEvents events, DiscoveryConfig discoveryConfig)
+    public StaticAnnouncementResource(StaticStore store, StoreWriteExecutor writeExecutor, AdmissionControl admission, NodeInfo nodeInfo, DiscoveryEvents events, DiscoveryConfig discoveryConfig)
     {
         this.store = store;
+        this.writeExecutor = writeExecutor;
+        this.admission = admission;
+        this.readLane = admission.getReadLane();
+        this.writeLane = admission.getWriteLane();
         this.nodeInfo = nodeInfo;
         this.events = events;
         this.staticDeleteStats = new TimedStat(discoveryConfig.getStatsWindowSize());
@@ -51,13 +64,39 @@ public class StaticAnnouncementResource
         this.staticPostStats = new TimedStat(discoveryConfig.getStatsWindowSize());
     }
 
+    /**
+     * Announces the service under a new id. A write that times out after it
+     * started is answered 202, since a retry would announce the service again
+     * under another id; should it fail later, the client is not told.
+     */
     @POST
     @Consumes("application/json")
     public Response post(StaticAnnouncement announcement, @Context UriInfo uriInfo, @Context HttpServletRequest request)
+    {
+        return announce(Id.<Service>random(), false, announcement, uriInfo, request);
+    }
+
+    /**
+     * Announces the service under the id chosen by the client. Repeating the put
+     * is harmless, so a write that times out is answered 503 for the client to
+     * retry.
+     */
+    @PUT
+    @Path("{id}")
+    @Consumes("application/json")
+    public Response put(@PathParam("id") Id<Service> id, StaticAnnouncement announcement, @Context UriInfo uriInfo, @Context HttpServletRequest request)
+    {
+        return announce(id, true, announcement, uriInfo, request);
+    }
+
+    private Response announce(Id<Service> id, boolean idempotent, StaticAnnouncement announcement, UriInfo uriInfo, HttpServletRequest request)
     {
         long startTime = System.nanoTime();
         boolean success = false;
         StaticAnnouncementEvent.Builder event = events.getStaticAnnouncementEventBuilder();
+        if (!writeLane.enter()) {
+            return admission.serviceUnavailable();
+        }
         try
         {
             if (request != null) {
@@ -73,18 +112,38 @@ public class StaticAnnouncementResource
                         .build();
             }
     
-            Id<Service> id = Id.random();
             String location = Objects.firstNonNull(announcement.getLocation(), "/somewhere/" + id);
     
-            Service service = Service.copyOf(announcement)
+            final Service service = Service.copyOf(announcement)
                         .setId(id)
                         .setLocation(location)
                         .build();
     
             event.setId (id);
-            store.put(service);
-    
             URI uri = UriBuilder.fromUri(uriInfo.getBaseUri()).path(StaticAnnouncementResource.class).path("{id}").build(id);
+            try {
+                writeExecutor.execute(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                    {
+                        store.put(service);
+                        return null;
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                return admission.serviceUnavailable();
+            }
+            catch (StoreWriteTimeoutException e) {
+                if (idempotent) {
+                    return admission.serviceUnavailable();
+                }
+                // the write may still complete, and a retry would add the service again
+                // under a new id, so report it as accepted rather than unavailable
+                return Response.status(ACCEPTED).location(uri).entity(service).build();
+            }
+    
             Response response = Response.created(uri).entity(service).build();
             event.setSuccess();
             success = true;
@@ -92,6 +151,7 @@ public class StaticAnnouncementResource
         }
         finally
         {
+            writeLane.exit();
             event.post();
             if (success) {
                 staticPostStats.addValue(Duration.nanosSince(startTime));
@@ -101,21 +161,32 @@ public class StaticAnnouncementResource
 
     @GET
     @Produces("application/json")
-    public Services get()
+    public Response get(@Context HttpServletRequest request)
     {
         long startTime = System.nanoTime();
         boolean success = false;
         StaticListEvent.Builder event = events.getStaticListEventBuilder();
+        if (!readLane.enter()) {
+            return admission.serviceUnavailable();
+        }
+        // the lane is held until the services have been written, unless they never will be
+        boolean exitOnWrite = false;
         try
         {
             Set<Service> serviceSet = store.getAll();
-            Services services = new Services(nodeInfo.getEnvironment(), serviceSet);
+            StreamingOutput output = new ServicesWriter(nodeInfo.getEnvironment(), serviceSet);
+            StreamingOutput exitingOutput = readLane.exitAfterWrite(output, request);
+            Response response = GzipEncoding.toResponse(Objects.firstNonNull(exitingOutput, output), request);
+            exitOnWrite = exitingOutput != null;
             event.setServiceSet (serviceSet).setSuccess();
             success = true;
-            return services;
+            return response;
         }
         finally
         {
+            if (!exitOnWrite) {
+                readLane.exit();
+            }
             event.post();
             if (success) {
                 staticGetStats.addValue(Duration.nanosSince(startTime));
@@ -125,22 +196,44 @@ public class StaticAnnouncementResource
 
     @DELETE
     @Path("{id}")
-    public void delete(@PathParam("id") Id<Service> id, @Context HttpServletRequest request)
+    public Response delete(@PathParam("id") final Id<Service> id, @Context HttpServletRequest request)
     {
         long startTime = System.nanoTime();
         boolean success = false;
         StaticDeleteEvent.Builder event = events.getStaticDeleteEventBuilder(id);
+        if (!writeLane.enter()) {
+            return admission.serviceUnavailable();
+        }
         try
         {
             if (request != null) {
                 event.setRemoteAddress(request.getRemoteAddr());
             }
-            store.delete(id);
+            try {
+                writeExecutor.execute(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                    {
+                        store.delete(id);
+                        return null;
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                return admission.serviceUnavailable();
+            }
+            catch (StoreWriteTimeoutException e) {
+                // deletes by id can safely be repeated
+                return admission.serviceUnavailable();
+            }
             event.setSuccess();
             success = true;
+            return Response.noContent().build();
         }
         finally
         {
+            writeLane.exit();
             event.post();
             if (success) {
                 staticDeleteStats.addValue(Duration.nanosSince(startTime));
@@ -1,5 +1,6 @@
 package com.proofpoint.discovery;
 
+import java.util.Map;
 import java.util.Set;
 
 public interface StaticStore
@@ -10,4 +11,9 @@ public interface StaticStore
     Set<Service> getAll();
     Set<Service> get(String type);
     Set<Service> get(String type, String pool);
+
+    /**
+     * Services that have all of the properties.
+     */
+    Set<Service> getByProperties(Map<String, String> properties);
 }
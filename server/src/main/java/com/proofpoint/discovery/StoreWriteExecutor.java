@@ -0,0 +1,219 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.proofpoint.log.Logger;
+import com.proofpoint.units.Duration;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs store writes on a bounded pool of its own, so slow store writes can only
+ * tie up as many request threads as there are writer threads and queued writes.
+ * The write admission lane already bounds the writes in progress, so the queue
+ * holds as many writes as the lane admits, and writes are only rejected while
+ * writes whose callers timed out still occupy the pool, or when they don't start
+ * within the timeout; the caller is then expected to answer 503. Writes that
+ * started but don't complete within the timeout may still complete, so they are
+ * reported apart from rejected ones. Callers may already have acknowledged such a
+ * write, so should it fail after all, the failure is logged and counted.
+ */
+@ThreadSafe
+public class StoreWriteExecutor
+{
+    private static final Logger log = Logger.get(StoreWriteExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+    private final Duration timeout;
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong timedOutCount = new AtomicLong();
+    private final AtomicLong lateFailureCount = new AtomicLong();
+
+    @Inject
+    public StoreWriteExecutor(DiscoveryConfig config, AdmissionConfig admissionConfig)
+    {
+        Preconditions.checkNotNull(config, "config is null");
+        Preconditions.checkNotNull(admissionConfig, "admissionConfig is null");
+
+        this.timeout = config.getStoreWriteTimeout();
+        this.executor = new ThreadPoolExecutor(config.getStoreWriteThreads(), config.getStoreWriteThreads(),
+                1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<Runnable>(admissionConfig.getWriteMaxConcurrent()),
+                new ThreadFactoryBuilder().setNameFormat("store-write-%d").setDaemon(true).build());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+
+    /**
+     * Runs the write and waits for its result. Exceptions thrown by the write are
+     * rethrown as is.
+     *
+     * @throws RejectedExecutionException if the queue is full or the write did not
+     * start in time; the write will not run
+     * @throws StoreWriteTimeoutException if the write started but did not complete
+     * in time; it may still complete later
+     */
+    public <T> T execute(Callable<T> write)
+            throws RejectedExecutionException, StoreWriteTimeoutException
+    {
+        Preconditions.checkNotNull(write, "write is null");
+
+        ClaimedWrite<T> claimedWrite = new ClaimedWrite<T>(write);
+        Future<T> future;
+        try {
+            future = executor.submit(claimedWrite);
+        }
+        catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            throw e;
+        }
+
+        try {
+            return future.get((long) timeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            timedOutCount.incrementAndGet();
+            if (claimedWrite.claim()) {
+                throw new RejectedExecutionException("Store write did not start within " + timeout);
+            }
+            claimedWrite.abandon();
+            throw new StoreWriteTimeoutException("Store write did not complete within " + timeout);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    @Managed
+    public int getActiveCount()
+    {
+        return executor.getActiveCount();
+    }
+
+    @Managed
+    public int getQueuedCount()
+    {
+        return executor.getQueue().size();
+    }
+
+    @Managed
+    public long getCompletedCount()
+    {
+        return executor.getCompletedTaskCount();
+    }
+
+    @Managed
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+    @Managed
+    public long getTimedOutCount()
+    {
+        return timedOutCount.get();
+    }
+
+    /**
+     * Writes that failed after their caller stopped waiting for them.
+     */
+    @Managed
+    public long getLateFailureCount()
+    {
+        return lateFailureCount.get();
+    }
+
+    /**
+     * A write that runs only if the pool claims it before the caller gives up on it.
+     */
+    private class ClaimedWrite<T>
+            implements Callable<T>
+    {
+        private final Callable<T> write;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        @GuardedBy("this")
+        private boolean abandoned;
+        @GuardedBy("this")
+        private Exception failure;
+
+        private ClaimedWrite(Callable<T> write)
+        {
+            this.write = write;
+        }
+
+        /**
+         * @return true if the write had not started and now never will
+         */
+        public boolean claim()
+        {
+            return claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Marks the started write as no longer awaited, so a failure is reported
+         * here rather than to the caller.
+         */
+        public synchronized void abandon()
+        {
+            abandoned = true;
+            // the write may have failed between the timeout and now
+            if (failure != null) {
+                reportLateFailure(failure);
+            }
+        }
+
+        private synchronized void failed(Exception e)
+        {
+            failure = e;
+            if (abandoned) {
+                reportLateFailure(e);
+            }
+        }
+
+        private void reportLateFailure(Exception e)
+        {
+            lateFailureCount.incrementAndGet();
+            log.error(e, "Store write failed after its caller stopped waiting for it");
+        }
+
+        @Override
+        public T call()
+                throws Exception
+        {
+            if (!claim()) {
+                return null;
+            }
+            try {
+                return write.call();
+            }
+            catch (Exception e) {
+                failed(e);
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.proofpoint.discovery;
+
+/**
+ * A store write started but did not complete in time. Unlike a rejected write it
+ * may still complete, so callers must not ask clients to repeat writes that are
+ * not idempotent.
+ */
+public class StoreWriteTimeoutException
+        extends RuntimeException
+{
+    public StoreWriteTimeoutException(String message)
+    {
+        super(message);
+    }
+}
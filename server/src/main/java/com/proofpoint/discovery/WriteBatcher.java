@@ -0,0 +1,206 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.proofpoint.stats.TimedStat;
+import com.proofpoint.units.Duration;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent writes into batches. A batch is flushed once it holds
+ * maxBatchSize distinct keys or maxDelay after its first write, whichever comes
+ * first. Writes of a key that is already pending are merged with the pending value
+ * by the flusher, since concurrent writers may take the monitor in any order, and
+ * every writer blocks until the batch holding its value has been flushed.
+ */
+@ThreadSafe
+public class WriteBatcher<K, V>
+{
+    private final Flusher<K, V> flusher;
+    private final int maxBatchSize;
+    private final Duration maxDelay;
+    private final ScheduledExecutorService timer = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("write-batcher-%d").setDaemon(true).build());
+
+    @GuardedBy("this")
+    private Batch pending;
+    @GuardedBy("this")
+    private boolean shutdown;
+
+    private final TimedStat flushStats;
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong flushedWriteCount = new AtomicLong();
+    private final AtomicLong collapsedWriteCount = new AtomicLong();
+
+    public WriteBatcher(Flusher<K, V> flusher, int maxBatchSize, Duration maxDelay, int statsWindowSize)
+    {
+        Preconditions.checkNotNull(flusher, "flusher is null");
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        Preconditions.checkNotNull(maxDelay, "maxDelay is null");
+
+        this.flusher = flusher;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+        this.flushStats = new TimedStat(statsWindowSize);
+    }
+
+    /**
+     * Pending batches are still flushed after shutdown, but later writes are rejected.
+     */
+    public void shutdown()
+    {
+        synchronized (this) {
+            shutdown = true;
+        }
+        timer.shutdown();
+    }
+
+    /**
+     * Writes the value and waits for the batch holding it to be flushed.
+     *
+     * @throws RejectedExecutionException if the batcher has been shut down
+     */
+    public void write(K key, V value)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+        Preconditions.checkNotNull(value, "value is null");
+
+        Batch batch;
+        boolean full;
+        boolean created = false;
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException("write batcher is shut down");
+            }
+            if (pending == null) {
+                pending = new Batch();
+                created = true;
+            }
+            batch = pending;
+            V previous = batch.entries.get(key);
+            if (previous != null) {
+                value = flusher.merge(previous, value);
+                collapsedWriteCount.incrementAndGet();
+            }
+            batch.entries.put(key, value);
+
+            full = batch.entries.size() >= maxBatchSize;
+            if (full) {
+                pending = null;
+            }
+        }
+
+        if (full) {
+            // the writer that fills the batch flushes it
+            batch.future.run();
+        }
+        else if (created) {
+            try {
+                timer.schedule(batch.future, (long) maxDelay.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e) {
+                // shut down since the batch was created; nobody else will flush it
+                batch.future.run();
+            }
+        }
+
+        try {
+            batch.future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    @Managed
+    @Nested
+    public TimedStat getFlushStats()
+    {
+        return flushStats;
+    }
+
+    @Managed
+    public long getBatchCount()
+    {
+        return batchCount.get();
+    }
+
+    @Managed
+    public long getFlushedWriteCount()
+    {
+        return flushedWriteCount.get();
+    }
+
+    @Managed
+    public long getCollapsedWriteCount()
+    {
+        return collapsedWriteCount.get();
+    }
+
+    @Managed
+    public double getAverageBatchSize()
+    {
+        long batches = batchCount.get();
+        if (batches == 0) {
+            return 0;
+        }
+        return (double) flushedWriteCount.get() / batches;
+    }
+
+    public static interface Flusher<K, V>
+    {
+        void flush(Map<K, V> batch);
+
+        /**
+         * Value to write for a key that is written again while pending, such as the
+         * newer of the two. Called while the batcher's monitor is held.
+         */
+        V merge(V pending, V value);
+    }
+
+    private class Batch
+            implements Callable<Void>
+    {
+        // only modified while this batch is pending
+        private final Map<K, V> entries = Maps.newLinkedHashMap();
+        private final FutureTask<Void> future = new FutureTask<Void>(this);
+
+        @Override
+        public Void call()
+        {
+            Map<K, V> batch;
+            synchronized (WriteBatcher.this) {
+                if (pending == this) {
+                    pending = null;
+                }
+                batch = ImmutableMap.copyOf(entries);
+            }
+
+            long startTime = System.nanoTime();
+            flusher.flush(batch);
+            flushStats.addValue(Duration.nanosSince(startTime));
+            batchCount.incrementAndGet();
+            flushedWriteCount.addAndGet(batch.size());
+            return null;
+        }
+    }
+}
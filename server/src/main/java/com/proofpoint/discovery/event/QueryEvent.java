@@ -54,6 +54,12 @@ public class QueryEvent
             serviceCount = (serviceSet != null) ? serviceSet.size() : 0;
             return this;
         }
+
+        public Builder setServiceCount(int serviceCount)
+        {
+            this.serviceCount = serviceCount;
+            return this;
+        }
     }
 
     private final Duration duration;
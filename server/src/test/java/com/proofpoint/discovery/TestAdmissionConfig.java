@@ -0,0 +1,62 @@
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableMap;
+import com.proofpoint.configuration.testing.ConfigAssertions;
+import com.proofpoint.units.Duration;
+import com.proofpoint.units.MinDuration;
+import org.testng.annotations.Test;
+
+import javax.validation.constraints.Min;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.proofpoint.experimental.testing.ValidationAssertions.assertFailsValidation;
+
+public class TestAdmissionConfig
+{
+    @Test
+    public void testDefaults()
+    {
+        ConfigAssertions.assertRecordedDefaults(ConfigAssertions.recordDefaults(AdmissionConfig.class)
+                .setReadMaxConcurrent(50)
+                .setReadMaxQueued(50)
+                .setWriteMaxConcurrent(16)
+                .setWriteMaxQueued(16)
+                .setWatchMaxConcurrent(50)
+                .setMaxQueueWait(new Duration(500, TimeUnit.MILLISECONDS))
+                .setRetryAfter(new Duration(1, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    public void testExplicitPropertyMappings()
+    {
+        Map<String, String> properties = ImmutableMap.<String, String>builder()
+                .put("discovery.admission.read.max-concurrent", "10")
+                .put("discovery.admission.read.max-queued", "20")
+                .put("discovery.admission.write.max-concurrent", "3")
+                .put("discovery.admission.write.max-queued", "4")
+                .put("discovery.admission.watch.max-concurrent", "5")
+                .put("discovery.admission.max-queue-wait", "2s")
+                .put("discovery.admission.retry-after", "7s")
+                .build();
+
+        AdmissionConfig expected = new AdmissionConfig()
+                .setReadMaxConcurrent(10)
+                .setReadMaxQueued(20)
+                .setWriteMaxConcurrent(3)
+                .setWriteMaxQueued(4)
+                .setWatchMaxConcurrent(5)
+                .setMaxQueueWait(new Duration(2, TimeUnit.SECONDS))
+                .setRetryAfter(new Duration(7, TimeUnit.SECONDS));
+
+        ConfigAssertions.assertFullMapping(properties, expected);
+    }
+
+    @Test
+    public void testValidatesLimits()
+    {
+        assertFailsValidation(new AdmissionConfig().setReadMaxConcurrent(0), "readMaxConcurrent", "must be greater than or equal to 1", Min.class);
+        assertFailsValidation(new AdmissionConfig().setWriteMaxQueued(-1), "writeMaxQueued", "must be greater than or equal to 0", Min.class);
+        assertFailsValidation(new AdmissionConfig().setRetryAfter(new Duration(10, TimeUnit.MILLISECONDS)), "retryAfter", "must be greater than or equal to 1s", MinDuration.class);
+    }
+}
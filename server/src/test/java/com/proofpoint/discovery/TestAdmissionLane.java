@@ -0,0 +1,89 @@
+package com.proofpoint.discovery;
+
+import com.proofpoint.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestAdmissionLane
+{
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setup()
+    {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void teardown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testAdmitsUpToLimit()
+    {
+        AdmissionLane lane = new AdmissionLane(2, 0, new Duration(1, TimeUnit.MINUTES));
+
+        assertTrue(lane.enter());
+        assertTrue(lane.enter());
+        assertFalse(lane.enter());
+        assertEquals(lane.getActive(), 2);
+        assertEquals(lane.getAdmittedCount(), 2);
+        assertEquals(lane.getShedCount(), 1);
+
+        lane.exit();
+        assertTrue(lane.enter());
+    }
+
+    @Test
+    public void testQueuedRequestShedAfterWait()
+    {
+        AdmissionLane lane = new AdmissionLane(1, 1, new Duration(10, TimeUnit.MILLISECONDS));
+
+        assertTrue(lane.enter());
+        assertFalse(lane.enter());
+        assertEquals(lane.getQueuedCount(), 1);
+        assertEquals(lane.getShedCount(), 1);
+        assertEquals(lane.getQueued(), 0);
+    }
+
+    @Test
+    public void testQueuedRequestAdmittedOnExit()
+            throws Exception
+    {
+        final AdmissionLane lane = new AdmissionLane(1, 1, new Duration(1, TimeUnit.MINUTES));
+        assertTrue(lane.enter());
+
+        Future<Boolean> queued = executor.submit(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return lane.enter();
+            }
+        });
+        while (lane.getQueued() == 0) {
+            Thread.sleep(1);
+        }
+
+        // the queue is full, so a third request is shed without waiting
+        assertFalse(lane.enter());
+
+        lane.exit();
+        assertTrue(queued.get(10, TimeUnit.SECONDS));
+        assertEquals(lane.getAdmittedCount(), 2);
+        assertEquals(lane.getShedCount(), 1);
+    }
+}
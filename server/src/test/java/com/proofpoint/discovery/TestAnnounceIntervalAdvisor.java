@@ -0,0 +1,80 @@
+package com.proofpoint.discovery;
+
+import com.proofpoint.units.Duration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestAnnounceIntervalAdvisor
+{
+    private TestingTimeProvider timeProvider;
+
+    @BeforeMethod
+    public void setup()
+    {
+        timeProvider = new TestingTimeProvider();
+    }
+
+    @Test
+    public void testBaseDelayIsThirdOfMaxAge()
+    {
+        AnnounceIntervalAdvisor advisor = new AnnounceIntervalAdvisor(new DiscoveryConfig().setAnnounceJitterPercent(0), timeProvider);
+
+        assertEquals(advisor.recommendDelay().toMillis(), 10000.0);
+    }
+
+    @Test
+    public void testJitterShortensDelay()
+    {
+        AnnounceIntervalAdvisor advisor = new AnnounceIntervalAdvisor(new DiscoveryConfig().setAnnounceJitterPercent(20), timeProvider, new Random(0));
+
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (int i = 0; i < 1000; i++) {
+            double delay = advisor.recommendDelay().toMillis();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min >= 8000.0, "min " + min);
+        assertTrue(max <= 10000.0, "max " + max);
+        assertTrue(max - min > 500.0, "delays are not spread");
+    }
+
+    @Test
+    public void testDelayScalesWithPutRate()
+    {
+        AnnounceIntervalAdvisor advisor = new AnnounceIntervalAdvisor(new DiscoveryConfig()
+                .setMaxAge(new Duration(60, TimeUnit.SECONDS))
+                .setAnnounceTargetRate(10)
+                .setAnnounceJitterPercent(0), timeProvider);
+
+        // 120 puts over a 10 second window is 12 puts per second, 1.2 times the target
+        for (int i = 0; i < 120; i++) {
+            advisor.recordPut();
+        }
+        timeProvider.add(new Duration(10, TimeUnit.SECONDS));
+
+        assertEquals(advisor.recommendDelay().toMillis(), 24000.0);
+        assertEquals(advisor.getPutRate(), 12.0);
+    }
+
+    @Test
+    public void testDelayCappedAtHalfOfMaxAge()
+    {
+        AnnounceIntervalAdvisor advisor = new AnnounceIntervalAdvisor(new DiscoveryConfig()
+                .setAnnounceTargetRate(1)
+                .setAnnounceJitterPercent(0), timeProvider);
+
+        for (int i = 0; i < 1000; i++) {
+            advisor.recordPut();
+        }
+        timeProvider.add(new Duration(10, TimeUnit.SECONDS));
+
+        assertEquals(advisor.recommendDelay().toMillis(), 15000.0);
+    }
+}
@@ -0,0 +1,121 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.proofpoint.json.JsonCodec;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestAnnouncementCodec
+{
+    private static final Id<Node> NODE_ID = Id.random();
+    private static final List<Service> SERVICES = ImmutableList.of(
+            new Service(Id.<Service>random(), NODE_ID, "storage", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableMap.of("http", "http://localhost:1111", "jmx", "service:jmx:rmi:///jndi/rmi://localhost:1112/jmxrmi")),
+            new Service(Id.<Service>random(), NODE_ID, "web", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableMap.of("http", "http://localhost:2222", "ünicode", "☃")),
+            new Service(Id.<Service>random(), null, "monitoring", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableMap.<String, String>of()));
+
+    private final JsonCodec<List<Service>> jsonCodec = JsonCodec.listJsonCodec(Service.class);
+
+    @Test
+    public void testBinaryRoundTrip()
+    {
+        AnnouncementCodec codec = new AnnouncementCodec(true);
+        assertFullyEqual(codec.decode(codec.encode(SERVICES)), SERVICES);
+    }
+
+    @Test
+    public void testJsonRoundTrip()
+    {
+        AnnouncementCodec codec = new AnnouncementCodec(false);
+        byte[] value = codec.encode(SERVICES);
+
+        assertEquals(jsonCodec.fromJson(new String(value, Charsets.UTF_8)), SERVICES);
+        assertFullyEqual(codec.decode(value), SERVICES);
+    }
+
+    @Test
+    public void testReadsBothFormats()
+    {
+        byte[] json = jsonCodec.toJson(SERVICES).getBytes(Charsets.UTF_8);
+        byte[] binary = new AnnouncementCodec(true).encode(SERVICES);
+
+        for (AnnouncementCodec codec : ImmutableList.of(new AnnouncementCodec(true), new AnnouncementCodec(false))) {
+            assertFullyEqual(codec.decode(json), SERVICES);
+            assertFullyEqual(codec.decode(binary), SERVICES);
+        }
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        AnnouncementCodec codec = new AnnouncementCodec(true);
+        assertEquals(codec.decode(codec.encode(ImmutableList.<Service>of())), ImmutableList.of());
+    }
+
+    @Test
+    public void testBinaryIsSmaller()
+    {
+        assertTrue(new AnnouncementCodec(true).encode(SERVICES).length < new AnnouncementCodec(false).encode(SERVICES).length);
+    }
+
+    @Test
+    public void testSharedStringsDecodeToSameInstance()
+    {
+        List<Service> decoded = AnnouncementCodec.fromBinary(AnnouncementCodec.toBinary(SERVICES), new ServiceInterner());
+        assertTrue(decoded.get(0).getLocation() == decoded.get(1).getLocation());
+        assertTrue(decoded.get(0).getPool() == decoded.get(2).getPool());
+        assertNull(decoded.get(2).getNodeId());
+    }
+
+    @Test
+    public void testValuesShareInternedStrings()
+    {
+        for (AnnouncementCodec codec : ImmutableList.of(new AnnouncementCodec(true), new AnnouncementCodec(false))) {
+            Service first = codec.decode(codec.encode(SERVICES)).get(0);
+            Service second = codec.decode(codec.encode(SERVICES)).get(0);
+            assertTrue(first.getType() == second.getType());
+            assertTrue(first.getLocation() == second.getLocation());
+            assertTrue(first.getProperties() == second.getProperties());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "unsupported binary format version 9")
+    public void testUnknownVersion()
+    {
+        byte[] value = AnnouncementCodec.toBinary(SERVICES);
+        value[1] = 9;
+        AnnouncementCodec.fromBinary(value, new ServiceInterner());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTruncated()
+    {
+        byte[] value = AnnouncementCodec.toBinary(SERVICES);
+        AnnouncementCodec.fromBinary(Arrays.copyOf(value, value.length - 3), new ServiceInterner());
+    }
+
+    /**
+     * Service equality only looks at the id.
+     */
+    private static void assertFullyEqual(List<Service> actual, List<Service> expected)
+    {
+        assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < actual.size(); i++) {
+            Service left = actual.get(i);
+            Service right = expected.get(i);
+            assertEquals(left.getId(), right.getId());
+            assertEquals(left.getNodeId(), right.getNodeId());
+            assertEquals(left.getType(), right.getType());
+            assertEquals(left.getPool(), right.getPool());
+            assertEquals(left.getLocation(), right.getLocation());
+            assertEquals(left.getProperties(), right.getProperties());
+        }
+    }
+}
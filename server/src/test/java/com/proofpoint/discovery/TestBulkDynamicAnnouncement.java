@@ -0,0 +1,61 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Resources;
+import com.proofpoint.discovery.BulkDynamicAnnouncement.NodeAnnouncement;
+import com.proofpoint.json.JsonCodec;
+import org.testng.annotations.Test;
+
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.util.Collections;
+
+import static com.proofpoint.experimental.testing.ValidationAssertions.assertFailsValidation;
+import static org.testng.Assert.assertEquals;
+
+public class TestBulkDynamicAnnouncement
+{
+    @Test
+    public void testRejectsNullEnvironment()
+    {
+        BulkDynamicAnnouncement announcement = new BulkDynamicAnnouncement(null, Collections.<NodeAnnouncement>emptyList());
+        assertFailsValidation(announcement, "environment", "may not be null", NotNull.class);
+    }
+
+    @Test
+    public void testRejectsNullAnnouncements()
+    {
+        BulkDynamicAnnouncement announcement = new BulkDynamicAnnouncement("testing", null);
+        assertFailsValidation(announcement, "announcements", "may not be null", NotNull.class);
+    }
+
+    @Test
+    public void testToDynamicAnnouncement()
+    {
+        NodeAnnouncement nodeAnnouncement = new NodeAnnouncement(Id.<Node>random(), "poolA", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "red", ImmutableMap.of("key", "redValue"))));
+
+        assertEquals(nodeAnnouncement.toDynamicAnnouncement("testing"),
+                new DynamicAnnouncement("testing", "poolA", "/a/b/c", nodeAnnouncement.getServiceAnnouncements()));
+    }
+
+    @Test
+    public void testParsing()
+            throws IOException
+    {
+        JsonCodec<BulkDynamicAnnouncement> codec = JsonCodec.jsonCodec(BulkDynamicAnnouncement.class);
+
+        BulkDynamicAnnouncement parsed = codec.fromJson(Resources.toString(Resources.getResource("bulk-announcement.json"), Charsets.UTF_8));
+
+        DynamicServiceAnnouncement red = new DynamicServiceAnnouncement(Id.<Service>valueOf("1c001650-7841-11e0-a1f0-0800200c9a66"), "red", ImmutableMap.of("key", "redValue"));
+        DynamicServiceAnnouncement blue = new DynamicServiceAnnouncement(Id.<Service>valueOf("2a817750-7841-11e0-a1f0-0800200c9a66"), "blue", ImmutableMap.of("key", "blueValue"));
+        BulkDynamicAnnouncement expected = new BulkDynamicAnnouncement("testing", ImmutableList.of(
+                new NodeAnnouncement(Id.<Node>valueOf("4d0e3f1c-7841-11e0-a1f0-0800200c9a66"), "poolA", "/a/b/c", ImmutableSet.of(red)),
+                new NodeAnnouncement(Id.<Node>valueOf("5e1f4a2d-7841-11e0-a1f0-0800200c9a66"), "poolB", null, ImmutableSet.of(blue))));
+
+        assertEquals(parsed, expected);
+    }
+}
@@ -0,0 +1,124 @@
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.proofpoint.discovery.BulkDynamicAnnouncement.NodeAnnouncement;
+import com.proofpoint.discovery.event.DiscoveryEventConfig;
+import com.proofpoint.discovery.event.DiscoveryEvents;
+import com.proofpoint.event.client.InMemoryEventClient;
+import com.proofpoint.node.NodeInfo;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+import static com.google.common.collect.Iterables.concat;
+import static com.google.common.collect.Iterables.transform;
+import static com.proofpoint.discovery.DynamicServiceAnnouncement.toServiceWith;
+import static com.proofpoint.testing.Assertions.assertEqualsIgnoreOrder;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestBulkDynamicAnnouncementResource
+{
+    private InMemoryDynamicStore store;
+    private BulkDynamicAnnouncementResource resource;
+    private StoreWriteExecutor writeExecutor;
+
+    @BeforeMethod
+    public void setup()
+    {
+        DiscoveryConfig discoveryConfig = new DiscoveryConfig();
+        store = new InMemoryDynamicStore(discoveryConfig, new RealTimeProvider());
+        writeExecutor = new StoreWriteExecutor(discoveryConfig, new AdmissionConfig());
+        resource = new BulkDynamicAnnouncementResource(store, writeExecutor, new AdmissionControl(new AdmissionConfig()), new AnnounceIntervalAdvisor(discoveryConfig, new RealTimeProvider()), new NodeInfo("testing"), new DiscoveryEvents(new InMemoryEventClient(), new DiscoveryEventConfig().setEnabledEvents("")), discoveryConfig);
+    }
+
+    @AfterMethod
+    public void teardown()
+    {
+        writeExecutor.shutdown();
+    }
+
+    @Test
+    public void testPutMany()
+    {
+        NodeAnnouncement blue = new NodeAnnouncement(Id.<Node>random(), "alpha", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))));
+        NodeAnnouncement red = new NodeAnnouncement(Id.<Node>random(), "beta", "/a/b/d", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "web", ImmutableMap.of("http", "http://localhost:2222"))));
+
+        Response response = resource.put(new BulkDynamicAnnouncement("testing", ImmutableList.of(blue, red)), null);
+
+        assertNotNull(response);
+        assertEquals(response.getStatus(), Response.Status.ACCEPTED.getStatusCode());
+        assertNotNull(response.getMetadata().getFirst(DynamicAnnouncementResource.ANNOUNCE_DELAY_HEADER));
+        assertEquals(response.getEntity(), ImmutableMap.of(
+                blue.getNodeId().toString(), BulkDynamicAnnouncementResource.ACCEPTED_RESULT,
+                red.getNodeId().toString(), BulkDynamicAnnouncementResource.ACCEPTED_RESULT));
+
+        assertEqualsIgnoreOrder(store.getAll(), concat(
+                transform(blue.getServiceAnnouncements(), toServiceWith(blue.getNodeId(), blue.getLocation(), blue.getPool())),
+                transform(red.getServiceAnnouncements(), toServiceWith(red.getNodeId(), red.getLocation(), red.getPool()))));
+        assertEquals(resource.getBulkPutStats().getCount(), 1);
+        assertEquals(resource.getAcceptedCount(), 2);
+        assertEquals(resource.getRejectedCount(), 0);
+    }
+
+    @Test
+    public void testEnvironmentConflict()
+    {
+        NodeAnnouncement blue = new NodeAnnouncement(Id.<Node>random(), "alpha", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))));
+
+        Response response = resource.put(new BulkDynamicAnnouncement("production", ImmutableList.of(blue)), null);
+
+        assertNotNull(response);
+        assertEquals(response.getStatus(), Response.Status.BAD_REQUEST.getStatusCode());
+
+        assertTrue(store.getAll().isEmpty());
+        assertEquals(resource.getBulkPutStats().getCount(), 0);
+        assertEquals(resource.getEnvironmentMismatchCount(), 1);
+    }
+
+    @Test
+    public void testMissingNodeIdRejectsRequest()
+    {
+        NodeAnnouncement blue = new NodeAnnouncement(Id.<Node>random(), "alpha", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))));
+        NodeAnnouncement anonymous = new NodeAnnouncement(null, "alpha", "/a/b/c", ImmutableSet.<DynamicServiceAnnouncement>of());
+
+        Response response = resource.put(new BulkDynamicAnnouncement("testing", ImmutableList.of(blue, anonymous)), null);
+
+        assertEquals(response.getStatus(), Response.Status.BAD_REQUEST.getStatusCode());
+        assertTrue(store.getAll().isEmpty());
+    }
+
+    @Test
+    public void testIncompleteAnnouncementRejectedAlone()
+    {
+        NodeAnnouncement blue = new NodeAnnouncement(Id.<Node>random(), "alpha", null, ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))));
+        NodeAnnouncement noPool = new NodeAnnouncement(Id.<Node>random(), null, "/a/b/c", ImmutableSet.<DynamicServiceAnnouncement>of());
+        NodeAnnouncement noServices = new NodeAnnouncement(Id.<Node>random(), "alpha", "/a/b/c", null);
+
+        Response response = resource.put(new BulkDynamicAnnouncement("testing", ImmutableList.of(blue, noPool, noServices)), null);
+
+        assertEquals(response.getStatus(), Response.Status.ACCEPTED.getStatusCode());
+        Map<?, ?> results = (Map<?, ?>) response.getEntity();
+        assertEquals(results.get(blue.getNodeId().toString()), BulkDynamicAnnouncementResource.ACCEPTED_RESULT);
+        assertEquals(results.get(noPool.getNodeId().toString()), "Pool is missing");
+        assertEquals(results.get(noServices.getNodeId().toString()), "Services are missing");
+
+        assertEquals(store.getAll().size(), 1);
+        Service service = store.getAll().iterator().next();
+        assertEquals(service.getNodeId(), blue.getNodeId());
+        assertNotNull(service.getLocation());
+        assertEquals(resource.getAcceptedCount(), 1);
+        assertEquals(resource.getRejectedCount(), 2);
+    }
+}
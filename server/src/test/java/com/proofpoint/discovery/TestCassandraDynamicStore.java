@@ -1,7 +1,10 @@
 package com.proofpoint.discovery;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.proofpoint.cassandra.testing.CassandraServerSetup;
 import com.proofpoint.node.NodeInfo;
+import com.proofpoint.units.Duration;
 import me.prettyprint.hector.api.Cluster;
 import org.apache.cassandra.config.ConfigurationException;
 import org.apache.thrift.transport.TTransportException;
@@ -14,25 +17,35 @@ import org.testng.annotations.Test;
 
 import javax.inject.Provider;
 import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static com.google.common.collect.Collections2.transform;
+import static com.proofpoint.discovery.DynamicServiceAnnouncement.toServiceWith;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
 
 public class TestCassandraDynamicStore
         extends TestDynamicStore
 {
     private final static AtomicLong counter = new AtomicLong(0);
     private CassandraDynamicStore cassandraStore;
+    private CassandraStoreConfig storeConfig;
+    private DiscoveryConfig discoveryConfig;
+    private Cluster cluster;
 
     @Override
     protected DynamicStore initializeStore(DiscoveryConfig config, Provider<DateTime> timeProvider)
     {
-        CassandraStoreConfig storeConfig = new CassandraStoreConfig()
+        storeConfig = new CassandraStoreConfig()
                 .setKeyspace("test_cassandra_dynamic_store" + counter.incrementAndGet());
+        discoveryConfig = config;
 
-        Cluster cluster = new DiscoveryModule().getCluster(CassandraServerSetup.getServerInfo(), new NodeInfo("testing"));
-        cassandraStore = new CassandraDynamicStore(storeConfig, config, timeProvider, cluster);
+        cluster = new DiscoveryModule().getCluster(CassandraServerSetup.getServerInfo(), new NodeInfo("testing"));
+        cassandraStore = new CassandraDynamicStore(storeConfig, config, timeProvider, cluster, new ServiceChangeNotifier());
         Assert.assertTrue(new CassandraSchemaInitialization(cluster, storeConfig).waitForInit());
         cassandraStore.initialize();
         //somehow the first reload on the initialize kicks in delayed and so the tests fail since looks like the reload gets called in along with the explicit reload
@@ -52,6 +65,12 @@ public class TestCassandraDynamicStore
                 return cassandraStore.put(nodeId, announcement);
             }
 
+            @Override
+            public void putAll(Map<Id<Node>, DynamicAnnouncement> announcements)
+            {
+                cassandraStore.putAll(announcements);
+            }
+
             @Override
             public boolean delete(Id<Node> nodeId)
             {
@@ -78,6 +97,13 @@ public class TestCassandraDynamicStore
                 cassandraStore.reload();
                 return cassandraStore.get(type, pool);
             }
+
+            @Override
+            public Set<Service> getByProperties(Map<String, String> properties)
+            {
+                cassandraStore.reload();
+                return cassandraStore.getByProperties(properties);
+            }
         };
     }
 
@@ -209,4 +235,130 @@ public class TestCassandraDynamicStore
         super.testCanHandleLotsOfAnnouncements();
     }
 
+    @Test
+    public void testReloadOnlyDecodesChangedRows()
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicAnnouncement announcement = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+
+        store.put(nodeId, announcement);
+        long decoded = cassandraStore.getDecodedRowCount();
+        long reused = cassandraStore.getReusedRowCount();
+        assertEquals(store.getAll().size(), 1);
+        assertEquals(cassandraStore.getDecodedRowCount() - decoded, 1);
+
+        // unchanged row
+        assertEquals(store.getAll().size(), 1);
+        assertEquals(cassandraStore.getDecodedRowCount() - decoded, 1);
+        assertEquals(cassandraStore.getReusedRowCount() - reused, 1);
+
+        // heartbeat with identical content, late enough to be rewritten
+        currentTime.add(new Duration(31, TimeUnit.SECONDS));
+        store.put(nodeId, announcement);
+        assertEquals(store.getAll().size(), 1);
+        assertEquals(cassandraStore.getDecodedRowCount() - decoded, 1);
+        assertEquals(cassandraStore.getReusedRowCount() - reused, 2);
+
+        // changed content
+        DynamicAnnouncement changed = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:2222"))
+        ));
+        currentTime.increment();
+        store.put(nodeId, changed);
+        assertEquals(store.getAll(), ImmutableSet.copyOf(transform(changed.getServiceAnnouncements(), toServiceWith(nodeId, changed.getLocation(), changed.getPool()))));
+        assertEquals(cassandraStore.getDecodedRowCount() - decoded, 2);
+    }
+
+    @Test
+    public void testUnchangedHeartbeatSkipsWrite()
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicAnnouncement announcement = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+
+        long skipped = cassandraStore.getSkippedWriteCount();
+        long flushed = cassandraStore.getDynamicStoreWriteBatcher().getFlushedWriteCount();
+        assertTrue(store.put(nodeId, announcement));
+
+        currentTime.add(new Duration(10, TimeUnit.SECONDS));
+        assertTrue(store.put(nodeId, announcement));
+        assertEquals(cassandraStore.getSkippedWriteCount() - skipped, 1);
+        assertEquals(cassandraStore.getDynamicStoreWriteBatcher().getFlushedWriteCount() - flushed, 1);
+
+        // rewritten once a quarter of max age has passed, so the row never expires
+        currentTime.add(new Duration(6, TimeUnit.SECONDS));
+        assertTrue(store.put(nodeId, announcement));
+        assertEquals(cassandraStore.getSkippedWriteCount() - skipped, 1);
+        assertEquals(cassandraStore.getDynamicStoreWriteBatcher().getFlushedWriteCount() - flushed, 2);
+
+        currentTime.add(new Duration(40, TimeUnit.SECONDS));
+        assertEquals(store.getAll(), ImmutableSet.copyOf(transform(announcement.getServiceAnnouncements(), toServiceWith(nodeId, announcement.getLocation(), announcement.getPool()))));
+    }
+
+    @Test
+    public void testDeleteOnOtherServerIsNotSkippedOver()
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicAnnouncement announcement = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+
+        // a second server sharing the column family
+        CassandraDynamicStore otherStore = new CassandraDynamicStore(storeConfig, discoveryConfig, currentTime, cluster, new ServiceChangeNotifier());
+        otherStore.initialize();
+        try {
+            assertTrue(store.put(nodeId, announcement));
+
+            currentTime.increment();
+            assertTrue(otherStore.delete(nodeId));
+            assertEquals(store.getAll(), ImmutableSet.of());
+
+            // the same content again, well within a quarter of max age of the first write
+            currentTime.add(new Duration(10, TimeUnit.SECONDS));
+            long skipped = cassandraStore.getSkippedWriteCount();
+            assertTrue(store.put(nodeId, announcement));
+            assertEquals(cassandraStore.getSkippedWriteCount(), skipped);
+            assertEquals(store.getAll(), ImmutableSet.copyOf(transform(announcement.getServiceAnnouncements(), toServiceWith(nodeId, announcement.getLocation(), announcement.getPool()))));
+        }
+        finally {
+            otherStore.shutdown();
+        }
+    }
+
+    @Test
+    public void testHeartbeatsAtMaxAdvisedDelayNeverExpire()
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicAnnouncement announcement = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+        Set<Service> expected = ImmutableSet.copyOf(transform(announcement.getServiceAnnouncements(), toServiceWith(nodeId, announcement.getLocation(), announcement.getPool())));
+
+        AnnounceIntervalAdvisor advisor = new AnnounceIntervalAdvisor(new DiscoveryConfig()
+                .setMaxAge(discoveryConfig.getMaxAge())
+                .setAnnounceTargetRate(1), currentTime, new Random(0));
+        // time a slow node takes to come back after the advised delay
+        Duration latency = new Duration(5, TimeUnit.SECONDS);
+        // an extra heartbeat just before the row may be rewritten leaves it as old as possible
+        Duration early = new Duration(discoveryConfig.getMaxAge().toMillis() / 4 - 1000, TimeUnit.MILLISECONDS);
+
+        long skipped = cassandraStore.getSkippedWriteCount();
+        store.put(nodeId, announcement);
+        for (int i = 0; i < 20; i++) {
+            currentTime.add(early);
+            store.put(nodeId, announcement);
+
+            // keep the put rate far above target so every delay is at the cap
+            advisor.recordPuts(1000000);
+            Duration delay = advisor.recommendDelay();
+            currentTime.add(new Duration(delay.toMillis() + latency.toMillis(), TimeUnit.MILLISECONDS));
+
+            assertEquals(store.getAll(), expected, "expired after heartbeat " + i);
+            store.put(nodeId, announcement);
+        }
+        assertEquals(cassandraStore.getSkippedWriteCount() - skipped, 20);
+    }
 }
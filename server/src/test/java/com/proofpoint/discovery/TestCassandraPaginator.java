@@ -2,17 +2,28 @@ package com.proofpoint.discovery;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import me.prettyprint.hector.api.beans.ColumnSlice;
 import me.prettyprint.hector.api.beans.Row;
 import org.testng.annotations.Test;
 
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.google.common.collect.ImmutableList.copyOf;
 import static com.google.common.collect.Iterables.limit;
 import static com.google.common.collect.Iterables.skip;
 import static com.proofpoint.discovery.CassandraPaginator.paginate;
+import static com.proofpoint.discovery.CassandraPaginator.randomPartitionerSegments;
+import static com.proofpoint.discovery.CassandraPaginator.randomPartitionerToken;
 import static com.proofpoint.discovery.TestCassandraPaginator.TestRow.from;
+import static com.proofpoint.testing.Assertions.assertEqualsIgnoreOrder;
 import static org.testng.Assert.assertEquals;
 
 public class TestCassandraPaginator
@@ -57,6 +68,68 @@ public class TestCassandraPaginator
         paginate(queryForList(ImmutableList.<TestRow>of()), 0, 4).iterator().next();
     }
 
+    @Test
+    public void testSegmentsConcatenatedInOrder()
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<CassandraPaginator.PageQuery<Integer, Integer, Integer>> segments = ImmutableList.of(
+                    queryForList(ImmutableList.of(from(0), from(1), from(2), from(3), from(4))),
+                    queryForList(ImmutableList.<TestRow>of()),
+                    queryForList(ImmutableList.of(from(5), from(6))));
+
+            assertEquals(copyOf(paginate(segments, 4, executor)), ImmutableList.of(from(0), from(1), from(2), from(3), from(4), from(5), from(6)));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRandomPartitionerSegmentsCoverAllKeys()
+    {
+        List<String> keys = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            keys.add("key-" + i);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<String> actual = Lists.newArrayList();
+            for (Row<String, Integer, Integer> row : paginate(randomPartitionerSegments(tokenQueryForKeys(keys), 4), 7, executor)) {
+                actual.add(row.getKey());
+            }
+
+            assertEquals(actual.size(), keys.size());
+            assertEqualsIgnoreOrder(actual, keys);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private CassandraPaginator.TokenRangeQuery<String, Integer, Integer> tokenQueryForKeys(List<String> keys)
+    {
+        final TreeMap<BigInteger, String> ring = Maps.newTreeMap();
+        for (String key : keys) {
+            ring.put(randomPartitionerToken(key), key);
+        }
+
+        return new CassandraPaginator.TokenRangeQuery<String, Integer, Integer>()
+        {
+            @Override
+            public Iterable<? extends Row<String, Integer, Integer>> query(String startToken, String endToken, int count)
+            {
+                Collection<String> range = ring.subMap(new BigInteger(startToken), false, new BigInteger(endToken), true).values();
+                ImmutableList.Builder<Row<String, Integer, Integer>> rows = ImmutableList.builder();
+                for (String key : limit(range, count)) {
+                    rows.add(new KeyRow(key));
+                }
+                return rows.build();
+            }
+        };
+    }
+
     private CassandraPaginator.PageQuery<Integer, Integer, Integer> queryForList(final ImmutableList<TestRow> expected)
     {
         return new CassandraPaginator.PageQuery<Integer, Integer, Integer>()
@@ -69,6 +142,29 @@ public class TestCassandraPaginator
         };
     }
 
+    private static class KeyRow
+            implements Row<String, Integer, Integer>
+    {
+        private final String key;
+
+        private KeyRow(String key)
+        {
+            this.key = key;
+        }
+
+        @Override
+        public String getKey()
+        {
+            return key;
+        }
+
+        @Override
+        public ColumnSlice<Integer, Integer> getColumnSlice()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     public static class TestRow
             implements Row<Integer, Integer, Integer>
     {
@@ -12,6 +12,7 @@ import org.testng.annotations.BeforeSuite;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -33,7 +34,7 @@ public class TestCassandraStaticStore
         Cluster cluster = new DiscoveryModule().getCluster(CassandraServerSetup.getServerInfo(), new NodeInfo("testing"));
 
         Assert.assertTrue(new CassandraSchemaInitialization(cluster, storeConfig).waitForInit());
-        staticStore = new CassandraStaticStore(storeConfig, cluster, new TestingTimeProvider(), new DiscoveryConfig().setStaticServiceCacheRefresh(new Duration(1, TimeUnit.MINUTES)));
+        staticStore = new CassandraStaticStore(storeConfig, cluster, new TestingTimeProvider(), new DiscoveryConfig().setStaticServiceCacheRefresh(new Duration(1, TimeUnit.MINUTES)), new ServiceChangeNotifier());
  
         return new StaticStore()
         {
@@ -69,6 +70,13 @@ public class TestCassandraStaticStore
                 staticStore.reload();
                 return staticStore.get(type, pool);
             }
+
+            @Override
+            public Set<Service> getByProperties(Map<String, String> properties)
+            {
+                staticStore.reload();
+                return staticStore.getByProperties(properties);
+            }
         };
     }
 
@@ -2,10 +2,13 @@ package com.proofpoint.discovery;
 
 import com.google.common.collect.ImmutableMap;
 import com.proofpoint.configuration.testing.ConfigAssertions;
+import com.proofpoint.units.Duration;
 import org.testng.annotations.Test;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static com.proofpoint.experimental.testing.ValidationAssertions.assertFailsValidation;
 
@@ -15,7 +18,11 @@ public class TestCassandraStoreConfig
     public void testDefaults()
     {
         ConfigAssertions.assertRecordedDefaults(ConfigAssertions.recordDefaults(CassandraStoreConfig.class)
-                                                        .setKeyspace("announcements"));
+                                                        .setKeyspace("announcements")
+                                                        .setScanSegments(1)
+                                                        .setWriteBatchSize(1)
+                                                        .setWriteBatchDelay(new Duration(10, TimeUnit.MILLISECONDS))
+                                                        .setBinaryFormatEnabled(false));
     }
 
     @Test
@@ -23,10 +30,18 @@ public class TestCassandraStoreConfig
     {
         Map<String, String> properties = ImmutableMap.<String, String>builder()
                 .put("store.cassandra.keyspace", "keyspace")
+                .put("store.cassandra.scan-segments", "8")
+                .put("store.cassandra.write-batch-size", "50")
+                .put("store.cassandra.write-batch-delay", "20ms")
+                .put("store.cassandra.binary-format.enabled", "true")
                 .build();
 
         CassandraStoreConfig expected = new CassandraStoreConfig()
-                .setKeyspace("keyspace");
+                .setKeyspace("keyspace")
+                .setScanSegments(8)
+                .setWriteBatchSize(50)
+                .setWriteBatchDelay(new Duration(20, TimeUnit.MILLISECONDS))
+                .setBinaryFormatEnabled(true);
 
         ConfigAssertions.assertFullMapping(properties, expected);
     }
@@ -38,4 +53,20 @@ public class TestCassandraStoreConfig
 
         assertFailsValidation(config, "keyspace", "may not be null", NotNull.class);
     }
+
+    @Test
+    public void testValidatesPositiveScanSegments()
+    {
+        CassandraStoreConfig config = new CassandraStoreConfig().setScanSegments(0);
+
+        assertFailsValidation(config, "scanSegments", "must be greater than or equal to 1", Min.class);
+    }
+
+    @Test
+    public void testValidatesPositiveWriteBatchSize()
+    {
+        CassandraStoreConfig config = new CassandraStoreConfig().setWriteBatchSize(0);
+
+        assertFailsValidation(config, "writeBatchSize", "must be greater than or equal to 1", Min.class);
+    }
 }
@@ -6,6 +6,7 @@ import com.proofpoint.units.Duration;
 import com.proofpoint.units.MinDuration;
 import org.testng.annotations.Test;
 
+import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.util.Map;
@@ -22,7 +23,13 @@ public class TestDiscoveryConfig
                 .setMaxAge(new Duration(30, TimeUnit.SECONDS))
                 .setStatsWindowSize(5000)
                 .setDynamicServiceCacheRefresh(new Duration(1,TimeUnit.SECONDS))
-                .setStaticServiceCacheRefresh(new Duration(5,TimeUnit.SECONDS)));
+                .setStaticServiceCacheRefresh(new Duration(5,TimeUnit.SECONDS))
+                .setSelectorRefreshInterval(new Duration(1, TimeUnit.SECONDS))
+                .setSelectorMaxStaleness(new Duration(30, TimeUnit.SECONDS))
+                .setStoreWriteThreads(16)
+                .setStoreWriteTimeout(new Duration(10, TimeUnit.SECONDS))
+                .setAnnounceTargetRate(0)
+                .setAnnounceJitterPercent(20));
     }
 
     @Test
@@ -33,13 +40,25 @@ public class TestDiscoveryConfig
                 .put("discovery.timed-statistics-window-size", "1000")
                 .put("discovery.static-services-cache-refresh-duration","10s")
                 .put("discovery.dynamic-services-cache-refresh-duration","11s")
+                .put("discovery.selector.refresh-interval", "100ms")
+                .put("discovery.selector.max-staleness", "5s")
+                .put("discovery.store-write.threads", "4")
+                .put("discovery.store-write.timeout", "3s")
+                .put("discovery.announce.target-rate", "500")
+                .put("discovery.announce.jitter-percent", "50")
                 .build();
 
         DiscoveryConfig expected = new DiscoveryConfig()
                 .setMaxAge(new Duration(1, TimeUnit.MINUTES))
                 .setStatsWindowSize(1000)
                 .setDynamicServiceCacheRefresh(new Duration(11, TimeUnit.SECONDS))
-                .setStaticServiceCacheRefresh(new Duration(10, TimeUnit.SECONDS));
+                .setStaticServiceCacheRefresh(new Duration(10, TimeUnit.SECONDS))
+                .setSelectorRefreshInterval(new Duration(100, TimeUnit.MILLISECONDS))
+                .setSelectorMaxStaleness(new Duration(5, TimeUnit.SECONDS))
+                .setStoreWriteThreads(4)
+                .setStoreWriteTimeout(new Duration(3, TimeUnit.SECONDS))
+                .setAnnounceTargetRate(500)
+                .setAnnounceJitterPercent(50);
 
         ConfigAssertions.assertFullMapping(properties, expected);
     }
@@ -73,4 +92,31 @@ public class TestDiscoveryConfig
         DiscoveryConfig config = new DiscoveryConfig().setDynamicServiceCacheRefresh(new Duration(1, TimeUnit.MILLISECONDS));
         assertFailsValidation(config, "dynamicServiceCacheRefresh", "must be greater than or equal to 1s", MinDuration.class);
     }
+
+    @Test
+    public void testValidatesMinimumSelectorRefreshInterval()
+    {
+        DiscoveryConfig config = new DiscoveryConfig().setSelectorRefreshInterval(new Duration(1, TimeUnit.MILLISECONDS));
+        assertFailsValidation(config, "selectorRefreshInterval", "must be greater than or equal to 10ms", MinDuration.class);
+    }
+
+    @Test
+    public void testValidatesMinimumSelectorMaxStaleness()
+    {
+        DiscoveryConfig config = new DiscoveryConfig().setSelectorMaxStaleness(new Duration(100, TimeUnit.MILLISECONDS));
+        assertFailsValidation(config, "selectorMaxStaleness", "must be greater than or equal to 1s", MinDuration.class);
+    }
+
+    @Test
+    public void testValidatesStoreWriteLimits()
+    {
+        assertFailsValidation(new DiscoveryConfig().setStoreWriteThreads(0), "storeWriteThreads", "must be greater than or equal to 1", Min.class);
+        assertFailsValidation(new DiscoveryConfig().setStoreWriteTimeout(null), "storeWriteTimeout", "may not be null", NotNull.class);
+    }
+
+    @Test
+    public void testValidatesAnnounceJitterPercent()
+    {
+        assertFailsValidation(new DiscoveryConfig().setAnnounceJitterPercent(101), "announceJitterPercent", "must be less than or equal to 100", Max.class);
+    }
 }
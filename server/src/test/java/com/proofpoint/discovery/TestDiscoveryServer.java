@@ -189,6 +189,21 @@ public class TestDiscoveryServer
         assertEquals(service.getPool(), announcement.get("pool"));
         assertEquals(service.getProperties(), announcement.get("properties"));
 
+        // unchanged listing is answered with 304
+        String serviceUri = server.getBaseUrl().resolve("/v1/service/apple/red").toString();
+        response = httpClient.prepareGet(serviceUri).execute().get();
+        assertEquals(response.getStatusCode(), Status.OK.getStatusCode());
+        String entityTag = response.getHeader("ETag");
+        assertNotNull(entityTag);
+        assertNotNull(response.getHeader("Cache-Control"));
+
+        response = httpClient.prepareGet(serviceUri)
+                .addHeader("If-None-Match", entityTag)
+                .execute()
+                .get();
+        assertEquals(response.getStatusCode(), Status.NOT_MODIFIED.getStatusCode());
+        assertEquals(response.getHeader("ETag"), entityTag);
+
         // remove announcement
         response = httpClient.prepareDelete(server.getBaseUrl().resolve("/v1/announcement/static/" + id).toString())
                 .execute()
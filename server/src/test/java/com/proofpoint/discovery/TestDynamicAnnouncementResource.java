@@ -7,11 +7,17 @@ import com.proofpoint.discovery.event.DiscoveryEvents;
 import com.proofpoint.event.client.InMemoryEventClient;
 import com.proofpoint.jaxrs.testing.MockUriInfo;
 import com.proofpoint.node.NodeInfo;
+import com.proofpoint.units.Duration;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import javax.ws.rs.core.Response;
 import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.collect.Iterables.transform;
 import static com.proofpoint.discovery.DynamicServiceAnnouncement.toServiceWith;
@@ -25,13 +31,21 @@ public class TestDynamicAnnouncementResource
     private InMemoryDynamicStore store;
     private DynamicAnnouncementResource resource;
     private DiscoveryConfig discoveryConfig;
+    private StoreWriteExecutor writeExecutor;
 
     @BeforeMethod
     public void setup()
     {
         store = new InMemoryDynamicStore(new DiscoveryConfig(), new RealTimeProvider());
         discoveryConfig = new DiscoveryConfig();
-        resource = new DynamicAnnouncementResource(store, new NodeInfo("testing"), new DiscoveryEvents(new InMemoryEventClient(), new DiscoveryEventConfig().setEnabledEvents("")), discoveryConfig);
+        writeExecutor = new StoreWriteExecutor(discoveryConfig, new AdmissionConfig());
+        resource = new DynamicAnnouncementResource(store, writeExecutor, new AdmissionControl(new AdmissionConfig()), new AnnounceIntervalAdvisor(discoveryConfig, new RealTimeProvider()), new NodeInfo("testing"), new DiscoveryEvents(new InMemoryEventClient(), new DiscoveryEventConfig().setEnabledEvents("")), discoveryConfig);
+    }
+
+    @AfterMethod
+    public void teardown()
+    {
+        writeExecutor.shutdown();
     }
 
     @Test
@@ -47,6 +61,9 @@ public class TestDynamicAnnouncementResource
         assertNotNull(response);
         assertEquals(response.getStatus(), Response.Status.ACCEPTED.getStatusCode());
 
+        Duration announceDelay = Duration.valueOf((String) response.getMetadata().getFirst(DynamicAnnouncementResource.ANNOUNCE_DELAY_HEADER));
+        assertTrue(announceDelay.toMillis() <= discoveryConfig.getMaxAge().toMillis() / 3);
+
         assertEqualsIgnoreOrder(store.getAll(), transform(announcement.getServiceAnnouncements(), toServiceWith(nodeId, announcement.getLocation(), announcement.getPool())));
         assertEquals(resource.getDynamicDeleteStats().getCount(), 0);
         assertEquals(resource.getDynamicPutStats().getCount(), 1);
@@ -161,4 +178,96 @@ public class TestDynamicAnnouncementResource
         assertEquals(service.getId(), service.getId());
         assertNotNull(service.getLocation());
     }
+
+    @Test
+    public void testSlowStoreReturnsServiceUnavailable()
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        DynamicStore slowStore = new ForwardingDynamicStore(store)
+        {
+            @Override
+            public boolean put(Id<Node> nodeId, DynamicAnnouncement announcement)
+            {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.put(nodeId, announcement);
+            }
+        };
+        StoreWriteExecutor slowExecutor = new StoreWriteExecutor(new DiscoveryConfig().setStoreWriteTimeout(new Duration(10, TimeUnit.MILLISECONDS)), new AdmissionConfig());
+        DynamicAnnouncementResource slowResource = new DynamicAnnouncementResource(slowStore, slowExecutor, new AdmissionControl(new AdmissionConfig()), new AnnounceIntervalAdvisor(discoveryConfig, new RealTimeProvider()), new NodeInfo("testing"), new DiscoveryEvents(new InMemoryEventClient(), new DiscoveryEventConfig().setEnabledEvents("")), discoveryConfig);
+
+        DynamicAnnouncement announcement = new DynamicAnnouncement("testing", "alpha", "/a/b/c", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111")))
+        );
+        Id<Node> nodeId = Id.random();
+        try {
+            Response response = slowResource.put(nodeId, new MockUriInfo(URI.create("http://localhost:8080/v1/announcement/" + nodeId.toString())), announcement, null);
+
+            assertEquals(response.getStatus(), Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+            assertEquals(response.getMetadata().getFirst("Retry-After"), 1);
+            assertEquals(slowResource.getDynamicPutStats().getCount(), 0);
+            assertEquals(slowExecutor.getTimedOutCount(), 1);
+        }
+        finally {
+            release.countDown();
+            slowExecutor.shutdown();
+        }
+    }
+
+    private static class ForwardingDynamicStore
+            implements DynamicStore
+    {
+        private final DynamicStore delegate;
+
+        private ForwardingDynamicStore(DynamicStore delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean put(Id<Node> nodeId, DynamicAnnouncement announcement)
+        {
+            return delegate.put(nodeId, announcement);
+        }
+
+        @Override
+        public void putAll(Map<Id<Node>, DynamicAnnouncement> announcements)
+        {
+            delegate.putAll(announcements);
+        }
+
+        @Override
+        public boolean delete(Id<Node> nodeId)
+        {
+            return delegate.delete(nodeId);
+        }
+
+        @Override
+        public Set<Service> getAll()
+        {
+            return delegate.getAll();
+        }
+
+        @Override
+        public Set<Service> get(String type)
+        {
+            return delegate.get(type);
+        }
+
+        @Override
+        public Set<Service> get(String type, String pool)
+        {
+            return delegate.get(type, pool);
+        }
+
+        @Override
+        public Set<Service> getByProperties(Map<String, String> properties)
+        {
+            return delegate.getByProperties(properties);
+        }
+    }
 }
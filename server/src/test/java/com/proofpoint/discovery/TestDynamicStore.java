@@ -55,6 +55,41 @@ public abstract class TestDynamicStore
         assertEquals(store.getAll(), transform(blue.getServiceAnnouncements(), toServiceWith(nodeId, blue.getLocation(), blue.getPool())));
     }
 
+    @Test
+    public void testPutAll()
+    {
+        Id<Node> blueNodeId = Id.random();
+        DynamicAnnouncement blue = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+
+        Id<Node> redNodeId = Id.random();
+        DynamicAnnouncement red = new DynamicAnnouncement("testing", "poolB", "/US/West/SC4/rack1/host1/vm1/slot2", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "web", ImmutableMap.of("http", "http://localhost:2222"))
+        ));
+
+        store.putAll(ImmutableMap.of(blueNodeId, blue, redNodeId, red));
+
+        assertEqualsIgnoreOrder(store.getAll(), concat(
+                transform(blue.getServiceAnnouncements(), toServiceWith(blueNodeId, blue.getLocation(), blue.getPool())),
+                transform(red.getServiceAnnouncements(), toServiceWith(redNodeId, red.getLocation(), red.getPool()))));
+    }
+
+    @Test
+    public void testGetByProperties()
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicServiceAnnouncement shardOne = new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("shard", "1", "version", "2"));
+        DynamicServiceAnnouncement shardTwo = new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("shard", "2", "version", "2"));
+        DynamicAnnouncement announcement = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(shardOne, shardTwo));
+
+        store.put(nodeId, announcement);
+
+        assertEqualsIgnoreOrder(store.getByProperties(ImmutableMap.of("version", "2")), transform(ImmutableSet.of(shardOne, shardTwo), toServiceWith(nodeId, announcement.getLocation(), announcement.getPool())));
+        assertEqualsIgnoreOrder(store.getByProperties(ImmutableMap.of("version", "2", "shard", "1")), transform(ImmutableSet.of(shardOne), toServiceWith(nodeId, announcement.getLocation(), announcement.getPool())));
+        assertTrue(store.getByProperties(ImmutableMap.of("shard", "3")).isEmpty());
+    }
+
     @Test
     public void testExpires()
     {
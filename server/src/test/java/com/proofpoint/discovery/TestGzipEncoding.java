@@ -0,0 +1,84 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestGzipEncoding
+{
+    @Test
+    public void testAccepted()
+    {
+        assertTrue(GzipEncoding.isAccepted("gzip"));
+        assertTrue(GzipEncoding.isAccepted("GZIP"));
+        assertTrue(GzipEncoding.isAccepted("x-gzip"));
+        assertTrue(GzipEncoding.isAccepted("deflate, gzip"));
+        assertTrue(GzipEncoding.isAccepted("gzip;q=0.5"));
+        assertTrue(GzipEncoding.isAccepted("*"));
+    }
+
+    @Test
+    public void testNotAccepted()
+    {
+        assertFalse(GzipEncoding.isAccepted((String) null));
+        assertFalse(GzipEncoding.isAccepted(""));
+        assertFalse(GzipEncoding.isAccepted("identity"));
+        assertFalse(GzipEncoding.isAccepted("deflate"));
+        assertFalse(GzipEncoding.isAccepted("gzip;q=0"));
+        assertFalse(GzipEncoding.isAccepted("gzip; q=0.000"));
+        assertFalse(GzipEncoding.isAccepted("*;q=0"));
+    }
+
+    @Test
+    public void testExplicitEntryOverridesWildcard()
+    {
+        assertFalse(GzipEncoding.isAccepted("*, gzip;q=0"));
+        assertTrue(GzipEncoding.isAccepted("*;q=0, gzip"));
+    }
+
+    @Test
+    public void testCompressBytes()
+            throws IOException
+    {
+        byte[] content = "{\"environment\":\"testing\",\"services\":[]}".getBytes(Charsets.UTF_8);
+
+        assertEquals(decompress(GzipEncoding.compress(content)), content);
+    }
+
+    @Test
+    public void testCompressStreamingOutput()
+            throws IOException
+    {
+        final byte[] content = "{\"environment\":\"testing\",\"services\":[]}".getBytes(Charsets.UTF_8);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GzipEncoding.compress(new StreamingOutput()
+        {
+            @Override
+            public void write(OutputStream output)
+                    throws IOException
+            {
+                output.write(content);
+            }
+        }).write(bytes);
+
+        assertEquals(decompress(bytes.toByteArray()), content);
+    }
+
+    private static byte[] decompress(byte[] bytes)
+            throws IOException
+    {
+        return ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
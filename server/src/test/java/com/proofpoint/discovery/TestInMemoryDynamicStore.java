@@ -1,15 +1,121 @@
 package com.proofpoint.discovery;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.proofpoint.units.Duration;
 import org.joda.time.DateTime;
+import org.testng.annotations.Test;
 
 import javax.inject.Provider;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Collections2.transform;
+import static com.proofpoint.discovery.DynamicServiceAnnouncement.toServiceWith;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
 
 public class TestInMemoryDynamicStore
     extends TestDynamicStore
 {
+    private InMemoryDynamicStore inMemoryStore;
+
     @Override
     public DynamicStore initializeStore(DiscoveryConfig config, Provider<DateTime> timeProvider)
     {
-        return new InMemoryDynamicStore(config, timeProvider);
+        inMemoryStore = new InMemoryDynamicStore(config, timeProvider);
+        return inMemoryStore;
+    }
+
+    @Test
+    public void testHeartbeatKeepsSnapshot()
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicAnnouncement blue = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+
+        store.put(nodeId, blue);
+        Set<Service> services = store.getAll();
+        assertSame(store.getAll(), services);
+
+        currentTime.increment();
+        store.put(nodeId, blue);
+        assertSame(store.getAll(), services);
+
+        DynamicAnnouncement red = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:2222"))
+        ));
+        store.put(nodeId, red);
+        assertNotSame(store.getAll(), services);
+        assertEquals(store.getAll().size(), 1);
+    }
+
+    @Test
+    public void testHeartbeatsWithoutReadsDrainExpirations()
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicAnnouncement announcement = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+
+        for (int i = 0; i < 1000; i++) {
+            store.put(nodeId, announcement);
+            currentTime.add(new Duration(10, TimeUnit.SECONDS));
+        }
+
+        // heartbeats extend the queued entry rather than queueing another
+        assertEquals(inMemoryStore.getQueuedExpirationCount(), 1);
+    }
+
+    @Test
+    public void testSteadyHeartbeatsDoNotLockReads()
+    {
+        Map<Id<Node>, DynamicAnnouncement> announcements = Maps.newHashMap();
+        for (int i = 0; i < 100; i++) {
+            announcements.put(Id.<Node>random(), new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot" + i, ImmutableSet.of(
+                    new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:" + i))
+            )));
+        }
+        store.putAll(announcements);
+        assertEquals(store.getAll().size(), 100);
+        long refreshes = inMemoryStore.getRefreshCount();
+
+        // every node heartbeats each 10 seconds for several max ages (one minute)
+        for (int i = 0; i < 30; i++) {
+            currentTime.add(new Duration(10, TimeUnit.SECONDS));
+            store.putAll(announcements);
+            for (int read = 0; read < 10; read++) {
+                assertEquals(store.getAll().size(), 100);
+            }
+        }
+
+        assertEquals(inMemoryStore.getRefreshCount(), refreshes);
+        assertEquals(inMemoryStore.getQueuedExpirationCount(), 100);
+    }
+
+    @Test
+    public void testExpirationDrainedByWriteIsNotServed()
+    {
+        Id<Node> expiredId = Id.random();
+        DynamicAnnouncement expired = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:1111"))
+        ));
+        Id<Node> liveId = Id.random();
+        DynamicAnnouncement live = new DynamicAnnouncement("testing", "poolA", "/US/West/SC4/rack1/host1/vm1/slot2", ImmutableSet.of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("http", "http://localhost:2222"))
+        ));
+
+        store.put(expiredId, expired);
+        assertEquals(store.getAll().size(), 1);
+
+        currentTime.add(new Duration(2, TimeUnit.MINUTES));
+        store.put(liveId, live);
+
+        assertEquals(store.getAll(), ImmutableSet.copyOf(transform(live.getServiceAnnouncements(), toServiceWith(liveId, live.getLocation(), live.getPool()))));
     }
 }
@@ -0,0 +1,115 @@
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableMap;
+import com.proofpoint.discovery.client.ServiceDescriptor;
+import com.proofpoint.discovery.client.ServiceSelector;
+import com.proofpoint.discovery.client.ServiceSelectorConfig;
+import com.proofpoint.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.ImmutableSet.of;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestLocalServiceSelectorFactory
+{
+    private InMemoryDynamicStore dynamicStore;
+    private ServiceChangeNotifier changeNotifier;
+    private LocalServiceSelectorFactory factory;
+
+    @BeforeMethod
+    public void setup()
+    {
+        dynamicStore = new InMemoryDynamicStore(new DiscoveryConfig(), new TestingTimeProvider());
+        changeNotifier = new ServiceChangeNotifier();
+        factory = new LocalServiceSelectorFactory(new ServiceSnapshotSource(dynamicStore, new InMemoryStaticStore()), changeNotifier, new DiscoveryConfig());
+    }
+
+    @AfterMethod
+    public void teardown()
+    {
+        factory.stop();
+    }
+
+    @Test
+    public void testSelectorIsCached()
+    {
+        ServiceSelector selector = factory.createServiceSelector("storage", new ServiceSelectorConfig().setPool("alpha"));
+
+        assertSame(factory.createServiceSelector("storage", new ServiceSelectorConfig().setPool("alpha")), selector);
+    }
+
+    @Test
+    public void testListIsBuiltOncePerChange()
+    {
+        Id<Node> redNodeId = Id.random();
+        dynamicStore.put(redNodeId, new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "1")))));
+
+        ServiceSelector selector = factory.createServiceSelector("storage", new ServiceSelectorConfig().setPool("alpha"));
+        List<ServiceDescriptor> first = selector.selectAllServices();
+        assertEquals(first.size(), 1);
+        assertEquals(first.get(0).getNodeId(), redNodeId.toString());
+
+        // a refresh without a change to this type and pool keeps the list
+        dynamicStore.put(Id.<Node>random(), new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "web", ImmutableMap.of("key", "2")))));
+        assertTrue(factory.refreshSelectors());
+        assertSame(selector.selectAllServices(), first);
+        assertEquals(factory.getRebuildCount(), 0);
+
+        dynamicStore.put(Id.<Node>random(), new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "3")))));
+        assertSame(selector.selectAllServices(), first);
+        assertTrue(factory.refreshSelectors());
+        assertEquals(selector.selectAllServices().size(), 2);
+        assertEquals(factory.getRebuildCount(), 1);
+        assertEquals(factory.getRefreshStats().getCount(), 2);
+    }
+
+    @Test
+    public void testStaleSelectorRefreshedByWatchdog()
+            throws InterruptedException
+    {
+        LocalServiceSelectorFactory factory = new LocalServiceSelectorFactory(new ServiceSnapshotSource(dynamicStore, new InMemoryStaticStore()), changeNotifier,
+                new DiscoveryConfig().setSelectorMaxStaleness(new Duration(10, TimeUnit.MILLISECONDS)));
+        ServiceSelector selector = factory.createServiceSelector("storage", new ServiceSelectorConfig().setPool("alpha"));
+
+        // the threads are not running, so callers keep reading the stale list
+        dynamicStore.put(Id.<Node>random(), new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "1")))));
+        Thread.sleep(50);
+        assertTrue(selector.selectAllServices().isEmpty());
+        assertEquals(factory.getStaleRefreshCount(), 0);
+
+        factory.refreshIfStale();
+        assertEquals(selector.selectAllServices().size(), 1);
+        assertEquals(factory.getStaleRefreshCount(), 1);
+        assertEquals(factory.getRebuildCount(), 1);
+    }
+
+    @Test
+    public void testRefreshedOnChange()
+            throws InterruptedException
+    {
+        ServiceSelector selector = factory.createServiceSelector("storage", new ServiceSelectorConfig().setPool("alpha"));
+        assertTrue(selector.selectAllServices().isEmpty());
+
+        factory.start();
+        dynamicStore.put(Id.<Node>random(), new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "1")))));
+        changeNotifier.changed();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (selector.selectAllServices().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(selector.selectAllServices().size(), 1);
+    }
+}
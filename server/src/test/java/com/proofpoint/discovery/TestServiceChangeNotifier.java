@@ -0,0 +1,74 @@
+package com.proofpoint.discovery;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestServiceChangeNotifier
+{
+    @Test
+    public void testChangeBumpsGeneration()
+    {
+        ServiceChangeNotifier notifier = new ServiceChangeNotifier();
+        long generation = notifier.getGeneration();
+
+        notifier.changed();
+
+        assertEquals(notifier.getGeneration(), generation + 1);
+    }
+
+    @Test
+    public void testAwaitReturnsImmediatelyForOldGeneration()
+            throws Exception
+    {
+        ServiceChangeNotifier notifier = new ServiceChangeNotifier();
+        long generation = notifier.getGeneration();
+        notifier.changed();
+
+        assertEquals(notifier.awaitChange(generation, 1, TimeUnit.MINUTES), generation + 1);
+    }
+
+    @Test
+    public void testAwaitTimesOut()
+            throws Exception
+    {
+        ServiceChangeNotifier notifier = new ServiceChangeNotifier();
+        long generation = notifier.getGeneration();
+
+        assertEquals(notifier.awaitChange(generation, 10, TimeUnit.MILLISECONDS), generation);
+    }
+
+    @Test
+    public void testAwaitWakesOnChange()
+            throws Exception
+    {
+        final ServiceChangeNotifier notifier = new ServiceChangeNotifier();
+        final long generation = notifier.getGeneration();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Long> future = executor.submit(new Callable<Long>()
+            {
+                @Override
+                public Long call()
+                        throws Exception
+                {
+                    return notifier.awaitChange(generation, 1, TimeUnit.MINUTES);
+                }
+            });
+
+            notifier.changed();
+
+            assertEquals(future.get(10, TimeUnit.SECONDS).longValue(), generation + 1);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import java.util.Set;
+
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.proofpoint.testing.Assertions.assertEqualsIgnoreOrder;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestServiceIndex
+{
+    private static final Service BLUE = new Service(Id.<Service>random(), null, "storage", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableMap.of("http", "http://localhost:1111"));
+    private static final Service RED = new Service(Id.<Service>random(), null, "storage", "poolB", "/US/West/SC4/rack1/host1/vm1/slot2", ImmutableMap.of("http", "http://localhost:2222"));
+    private static final Service GREEN = new Service(Id.<Service>random(), null, "monitoring", "poolA", "/US/West/SC4/rack1/host1/vm1/slot3", ImmutableMap.of("http", "http://localhost:3333"));
+    private static final Service YELLOW = new Service(Id.<Service>random(), null, "storage", "poolB", "/US/West/SC4/rack1/host1/vm1/slot3", ImmutableMap.of("http", "http://localhost:4444"));
+
+    @Test
+    public void testEmpty()
+    {
+        ServiceIndex index = ServiceIndex.empty();
+        assertTrue(index.getAll().isEmpty());
+        assertTrue(index.get("storage").isEmpty());
+        assertTrue(index.get("storage", "poolA").isEmpty());
+    }
+
+    @Test
+    public void testGetAll()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableSet.of(BLUE, RED, GREEN, YELLOW));
+        assertEqualsIgnoreOrder(index.getAll(), ImmutableSet.of(BLUE, RED, GREEN, YELLOW));
+    }
+
+    @Test
+    public void testGetByType()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableSet.of(BLUE, RED, GREEN, YELLOW));
+
+        assertEqualsIgnoreOrder(index.get("storage"), ImmutableSet.of(BLUE, RED, YELLOW));
+        assertEqualsIgnoreOrder(index.get("monitoring"), ImmutableSet.of(GREEN));
+        assertTrue(index.get("web").isEmpty());
+    }
+
+    @Test
+    public void testGetByPool()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableSet.of(BLUE, RED, GREEN, YELLOW));
+
+        assertEqualsIgnoreOrder(index.getByPool("poolA"), ImmutableSet.of(BLUE, GREEN));
+        assertEqualsIgnoreOrder(index.getByPool("poolB"), ImmutableSet.of(RED, YELLOW));
+        assertTrue(index.getByPool("poolC").isEmpty());
+    }
+
+    @Test
+    public void testGetByProperty()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableSet.of(BLUE, RED, GREEN, YELLOW));
+
+        assertEqualsIgnoreOrder(index.getByProperty("http", "http://localhost:2222"), ImmutableSet.of(RED));
+        assertTrue(index.getByProperty("http", "http://localhost:5555").isEmpty());
+        assertTrue(index.getByProperty("https", "http://localhost:2222").isEmpty());
+    }
+
+    @Test
+    public void testSelect()
+    {
+        Service shardOne = new Service(Id.<Service>random(), null, "storage", "poolA", "/US/West/SC4/rack1/host1/vm1/slot4", ImmutableMap.of("shard", "1", "version", "2"));
+        Service shardTwo = new Service(Id.<Service>random(), null, "storage", "poolB", "/US/West/SC4/rack1/host1/vm1/slot5", ImmutableMap.of("shard", "2", "version", "2"));
+        Service monitoring = new Service(Id.<Service>random(), null, "monitoring", "poolA", "/US/West/SC4/rack1/host1/vm1/slot6", ImmutableMap.of("shard", "1", "version", "2"));
+        ServiceIndex index = ServiceIndex.of(ImmutableSet.of(BLUE, RED, GREEN, YELLOW, shardOne, shardTwo, monitoring));
+
+        assertSame(index.select(ImmutableList.<String>of(), null, ImmutableMap.<String, String>of()), index.getAll());
+        assertSame(index.select(ImmutableList.of("storage"), "poolB", ImmutableMap.<String, String>of()), index.get("storage", "poolB"));
+        assertSame(index.select(ImmutableList.<String>of(), "poolA", ImmutableMap.<String, String>of()), index.getByPool("poolA"));
+        assertEqualsIgnoreOrder(index.select(ImmutableList.of("storage", "monitoring"), "poolA", ImmutableMap.<String, String>of()), ImmutableSet.of(BLUE, GREEN, shardOne, monitoring));
+
+        assertEqualsIgnoreOrder(index.select(ImmutableList.<String>of(), null, ImmutableMap.of("version", "2")), ImmutableSet.of(shardOne, shardTwo, monitoring));
+        assertEqualsIgnoreOrder(index.select(ImmutableList.<String>of(), null, ImmutableMap.of("version", "2", "shard", "1")), ImmutableSet.of(shardOne, monitoring));
+        assertEqualsIgnoreOrder(index.select(ImmutableList.of("storage"), null, ImmutableMap.of("version", "2", "shard", "1")), ImmutableSet.of(shardOne));
+        assertEqualsIgnoreOrder(index.select(ImmutableList.<String>of(), "poolB", ImmutableMap.of("version", "2")), ImmutableSet.of(shardTwo));
+        assertTrue(index.select(ImmutableList.of("storage"), null, ImmutableMap.of("version", "3")).isEmpty());
+    }
+
+    @Test
+    public void testSelectRepeatedType()
+    {
+        Service monitoring = new Service(Id.<Service>random(), null, "monitoring", "poolA", "/US/West/SC4/rack1/host1/vm1/slot6", ImmutableMap.of("shard", "1"));
+        ServiceIndex index = ServiceIndex.of(ImmutableSet.of(BLUE, RED, GREEN, YELLOW, monitoring));
+
+        Set<Service> selected = index.select(ImmutableList.of("storage", "storage"), null, ImmutableMap.<String, String>of());
+        assertEqualsIgnoreOrder(selected, ImmutableSet.of(BLUE, RED, YELLOW));
+        assertEquals(selected.size(), 3);
+
+        selected = index.select(ImmutableList.of("storage", "monitoring", "storage"), "poolA", ImmutableMap.<String, String>of());
+        assertEqualsIgnoreOrder(selected, ImmutableSet.of(BLUE, GREEN, monitoring));
+        assertEquals(selected.size(), 3);
+    }
+
+    @Test
+    public void testGetByPropertiesIntersectsLongLists()
+    {
+        ImmutableSet.Builder<Service> builder = ImmutableSet.builder();
+        ImmutableSet.Builder<Service> expected = ImmutableSet.builder();
+        for (int i = 0; i < 1000; i++) {
+            Service service = new Service(Id.<Service>random(), null, "storage", "poolA", "/US/West/SC4/rack1/host1/vm1/slot" + i,
+                    ImmutableMap.of("even", String.valueOf(i % 2 == 0), "byThree", String.valueOf(i % 3 == 0), "byFive", String.valueOf(i % 5 == 0)));
+            builder.add(service);
+            if (i % 30 == 0) {
+                expected.add(service);
+            }
+        }
+        ServiceIndex index = ServiceIndex.of(builder.build());
+
+        assertEqualsIgnoreOrder(index.getByProperties(ImmutableMap.of("even", "true", "byThree", "true", "byFive", "true")), expected.build());
+        assertEquals(index.getByProperties(ImmutableMap.of("even", "true")).size(), 500);
+        assertTrue(index.getByProperties(ImmutableMap.of("even", "maybe")).isEmpty());
+    }
+
+    @Test
+    public void testOnlySelectedPropertiesAreIndexed()
+    {
+        Service sharded = new Service(Id.<Service>random(), null, "storage", "poolA", "/US/West/SC4/rack1/host1/vm1/slot4", ImmutableMap.of("http", "http://localhost:5555", "shard", "1"));
+        ServiceIndex index = ServiceIndex.of(ImmutableSet.of(BLUE, RED, sharded));
+        assertTrue(index.getIndexedProperties().isEmpty());
+
+        assertEqualsIgnoreOrder(index.getByProperty("shard", "1"), ImmutableSet.of(sharded));
+        assertTrue(index.getByProperty("unknown", "1").isEmpty());
+        assertEquals(index.getIndexedProperties(), ImmutableSet.of("shard"));
+
+        // names selected on before are indexed by the update
+        ServiceIndex updated = ServiceIndex.update(index, ImmutableSet.of(BLUE, RED, GREEN, sharded));
+        assertEquals(updated.getIndexedProperties(), ImmutableSet.of("shard"));
+        assertEqualsIgnoreOrder(updated.getByProperty("shard", "1"), ImmutableSet.of(sharded));
+    }
+
+    @Test
+    public void testGetByTypeAndPool()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableSet.of(BLUE, RED, GREEN, YELLOW));
+
+        assertEqualsIgnoreOrder(index.get("storage", "poolA"), ImmutableSet.of(BLUE));
+        assertEqualsIgnoreOrder(index.get("storage", "poolB"), ImmutableSet.of(RED, YELLOW));
+        assertEqualsIgnoreOrder(index.get("monitoring", "poolA"), ImmutableSet.of(GREEN));
+        assertTrue(index.get("monitoring", "poolB").isEmpty());
+        assertTrue(index.get("web", "poolA").isEmpty());
+    }
+
+    @Test
+    public void testLookupsReturnPrebuiltSets()
+    {
+        ServiceIndex index = ServiceIndex.of(ImmutableSet.of(BLUE, RED, GREEN, YELLOW));
+
+        assertSame(index.get("storage"), index.get("storage"));
+        assertSame(index.get("storage", "poolB"), index.get("storage", "poolB"));
+    }
+
+    @Test
+    public void testDuplicateIdsCollapse()
+    {
+        Service replacement = new Service(BLUE.getId(), null, "storage", "poolA", "/US/West/SC4/rack1/host1/vm1/slot9", ImmutableMap.<String, String>of());
+        ServiceIndex index = ServiceIndex.of(ImmutableList.of(BLUE, replacement));
+
+        assertEquals(index.getAll().size(), 1);
+        assertEquals(index.get("storage").size(), 1);
+        assertEquals(index.get("storage", "poolA").size(), 1);
+    }
+
+    @Test
+    public void testUpdateWithSameContentReturnsPrevious()
+    {
+        ServiceIndex previous = ServiceIndex.of(ImmutableList.of(BLUE, RED, GREEN));
+        ServiceIndex updated = ServiceIndex.update(previous, ImmutableList.of(BLUE, RED, GREEN));
+
+        assertSame(updated, previous);
+    }
+
+    @Test
+    public void testUpdateSharesUnchangedSets()
+    {
+        ServiceIndex previous = ServiceIndex.of(ImmutableList.of(BLUE, RED, GREEN));
+        ServiceIndex updated = ServiceIndex.update(previous, ImmutableList.of(BLUE, RED, GREEN, YELLOW));
+
+        assertSame(updated.get("monitoring"), previous.get("monitoring"));
+        assertSame(updated.get("storage", "poolA"), previous.get("storage", "poolA"));
+        assertNotSame(updated.get("storage", "poolB"), previous.get("storage", "poolB"));
+        assertEqualsIgnoreOrder(updated.get("storage", "poolB"), ImmutableSet.of(RED, YELLOW));
+    }
+
+    @Test
+    public void testPreviousIndexStillAnswersAfterUpdate()
+    {
+        ServiceIndex previous = ServiceIndex.of(ImmutableList.of(BLUE, RED, GREEN));
+        // GREEN moves to another position, while the monitoring set is carried over
+        ServiceIndex updated = ServiceIndex.update(previous, ImmutableList.of(GREEN, YELLOW, RED));
+
+        assertSame(updated.get("monitoring"), previous.get("monitoring"));
+        assertEqualsIgnoreOrder(previous.select(ImmutableList.of("storage", "monitoring"), "poolA", ImmutableMap.<String, String>of()), ImmutableSet.of(BLUE, GREEN));
+        assertEqualsIgnoreOrder(previous.select(ImmutableList.of("monitoring"), null, ImmutableMap.of("http", "http://localhost:3333")), ImmutableSet.of(GREEN));
+        assertEqualsIgnoreOrder(updated.select(ImmutableList.of("monitoring"), null, ImmutableMap.of("http", "http://localhost:3333")), ImmutableSet.of(GREEN));
+    }
+
+    @Test
+    public void testUpdateDetectsPropertyChange()
+    {
+        Service changed = new Service(GREEN.getId(), null, "monitoring", "poolA", GREEN.getLocation(), ImmutableMap.of("http", "http://localhost:9999"));
+
+        ServiceIndex previous = ServiceIndex.of(ImmutableList.of(BLUE, GREEN));
+        ServiceIndex updated = ServiceIndex.update(previous, ImmutableList.of(BLUE, changed));
+
+        assertNotSame(updated, previous);
+        assertSame(updated.get("storage"), previous.get("storage"));
+        assertNotSame(updated.get("monitoring"), previous.get("monitoring"));
+        assertEquals(getOnlyElement(updated.get("monitoring")).getProperties(), changed.getProperties());
+    }
+}
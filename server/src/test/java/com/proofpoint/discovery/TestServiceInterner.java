@@ -0,0 +1,50 @@
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestServiceInterner
+{
+    @Test
+    public void testString()
+    {
+        ServiceInterner interner = new ServiceInterner();
+        String first = interner.intern(new String("storage"));
+        String second = interner.intern(new String("storage"));
+
+        assertTrue(first == second);
+        assertEquals(interner.getStringHitCount(), 1);
+        assertEquals(interner.getStringMissCount(), 1);
+        assertEquals(interner.getStringHitRate(), 0.5);
+    }
+
+    @Test
+    public void testProperties()
+    {
+        ServiceInterner interner = new ServiceInterner();
+        assertEquals(interner.getPropertiesHitRate(), 0.0);
+
+        ImmutableMap<String, String> first = ImmutableMap.of("http", "http://localhost:1111");
+        ImmutableMap<String, String> second = ImmutableMap.of("http", new String("http://localhost:1111"));
+
+        assertTrue(interner.internProperties(first) == first);
+        assertTrue(interner.internProperties(second) == first);
+        assertEquals(interner.getPropertiesHitCount(), 1);
+        assertEquals(interner.getPropertiesMissCount(), 1);
+    }
+
+    @Test
+    public void testService()
+    {
+        ServiceInterner interner = new ServiceInterner();
+        Service first = interner.intern(new Service(Id.<Service>random(), Id.<Node>random(), new String("storage"), new String("alpha"), "/a/b/c", ImmutableMap.of("key", new String("1"))));
+        Service second = interner.intern(new Service(Id.<Service>random(), Id.<Node>random(), new String("storage"), new String("alpha"), "/a/b/c", ImmutableMap.of("key", new String("1"))));
+
+        assertTrue(first.getType() == second.getType());
+        assertTrue(first.getPool() == second.getPool());
+        assertTrue(first.getProperties() == second.getProperties());
+    }
+}
@@ -1,19 +1,48 @@
 package com.proofpoint.discovery;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
 import com.proofpoint.discovery.event.DiscoveryEventConfig;
 import com.proofpoint.discovery.event.DiscoveryEvents;
 import com.proofpoint.event.client.InMemoryEventClient;
+import com.proofpoint.jaxrs.testing.MockUriInfo;
+import com.proofpoint.json.JsonCodec;
 import com.proofpoint.node.NodeInfo;
+import com.proofpoint.units.Duration;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
 import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import static com.google.common.collect.ImmutableSet.of;
 import static com.proofpoint.discovery.DynamicServiceAnnouncement.toServiceWith;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 public class TestServiceResource
 {
@@ -21,14 +50,19 @@ public class TestServiceResource
     private InMemoryStaticStore staticStore;
     private ServiceResource resource;
     private DiscoveryConfig discoveryConfig;
+    private ServiceChangeNotifier changeNotifier;
+    private AdmissionControl admission;
+    private final JsonCodec<Services> servicesCodec = JsonCodec.jsonCodec(Services.class);
 
     @BeforeMethod
     protected void setUp()
     {
-        dynamicStore = new InMemoryDynamicStore(new DiscoveryConfig(), new TestingTimeProvider());
+        changeNotifier = new ServiceChangeNotifier();
+        dynamicStore = new InMemoryDynamicStore(new DiscoveryConfig(), new TestingTimeProvider(), changeNotifier);
         staticStore = new InMemoryStaticStore();
         discoveryConfig = new DiscoveryConfig();
-        resource = new ServiceResource(dynamicStore, staticStore, new NodeInfo("testing"), new DiscoveryEvents (new InMemoryEventClient(), new DiscoveryEventConfig().setEnabledEvents("")), discoveryConfig);
+        admission = new AdmissionControl(new AdmissionConfig().setReadMaxConcurrent(1).setReadMaxQueued(0));
+        resource = new ServiceResource(new ServiceSnapshotSource(dynamicStore, staticStore), new NodeInfo("testing"), new DiscoveryEvents (new InMemoryEventClient(), new DiscoveryEventConfig().setEnabledEvents("")), discoveryConfig, changeNotifier, admission);
     }
 
     @Test
@@ -51,15 +85,15 @@ public class TestServiceResource
         dynamicStore.put(greenNodeId, green);
         dynamicStore.put(blueNodeId, blue);
 
-        assertEquals(resource.getServices("storage"), new Services("testing", of(
+        assertEquals(toServices(resource.getServices("storage", null, null, null, null)), new Services("testing", of(
                 toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage),
                 toServiceWith(greenNodeId, green.getLocation(), green.getPool()).apply(greenStorage),
                 toServiceWith(blueNodeId, blue.getLocation(), blue.getPool()).apply(blueStorage))));
 
-        assertEquals(resource.getServices("web"), new Services("testing", ImmutableSet.of(
+        assertEquals(toServices(resource.getServices("web", null, null, null, null)), new Services("testing", ImmutableSet.of(
                 toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redWeb))));
 
-        assertEquals(resource.getServices("unknown"), new Services("testing", Collections.<Service>emptySet()));
+        assertEquals(toServices(resource.getServices("unknown", null, null, null, null)), new Services("testing", Collections.<Service>emptySet()));
         assertEquals(resource.getByTypeStats().getCount(),3);
         assertEquals(resource.getAllServicesStats().getCount(),0);
         assertEquals(resource.getByTypeAndPoolStats().getCount(),0);
@@ -85,18 +119,87 @@ public class TestServiceResource
         dynamicStore.put(greenNodeId, green);
         dynamicStore.put(blueNodeId, blue);
 
-        assertEquals(resource.getServices("storage", "alpha"), new Services("testing", ImmutableSet.of(
+        assertEquals(toServices(resource.getServices("storage", "alpha", null, null, null, null)), new Services("testing", ImmutableSet.of(
                 toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage),
                 toServiceWith(greenNodeId, green.getLocation(), green.getPool()).apply(greenStorage))));
 
-        assertEquals(resource.getServices("storage", "beta"), new Services("testing", ImmutableSet.of(toServiceWith(blueNodeId, blue.getLocation(), blue.getPool()).apply(blueStorage))));
+        assertEquals(toServices(resource.getServices("storage", "beta", null, null, null, null)), new Services("testing", ImmutableSet.of(toServiceWith(blueNodeId, blue.getLocation(), blue.getPool()).apply(blueStorage))));
 
-        assertEquals(resource.getServices("storage", "unknown"), new Services("testing", Collections.<Service>emptySet()));
+        assertEquals(toServices(resource.getServices("storage", "unknown", null, null, null, null)), new Services("testing", Collections.<Service>emptySet()));
         assertEquals(resource.getByTypeStats().getCount(),0);
         assertEquals(resource.getAllServicesStats().getCount(),0);
         assertEquals(resource.getByTypeAndPoolStats().getCount(),3);
     }
 
+    @Test
+    public void testSelect()
+    {
+        Id<Node> redNodeId = Id.random();
+        DynamicServiceAnnouncement redStorage = new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "1"));
+        DynamicServiceAnnouncement redWeb = new DynamicServiceAnnouncement(Id.<Service>random(), "web", ImmutableMap.of("key", "2"));
+        DynamicAnnouncement red = new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(redStorage, redWeb));
+
+        Id<Node> greenNodeId = Id.random();
+        DynamicServiceAnnouncement greenMonitoring = new DynamicServiceAnnouncement(Id.<Service>random(), "monitoring", ImmutableMap.of("key", "3"));
+        DynamicAnnouncement green = new DynamicAnnouncement("testing", "alpha", "/x/y/z", of(greenMonitoring));
+
+        Id<Node> blueNodeId = Id.random();
+        DynamicServiceAnnouncement blueStorage = new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "1"));
+        DynamicAnnouncement blue = new DynamicAnnouncement("testing", "beta", "/a/b/c", of(blueStorage));
+
+        dynamicStore.put(redNodeId, red);
+        dynamicStore.put(greenNodeId, green);
+        dynamicStore.put(blueNodeId, blue);
+
+        assertEquals(toServices(resource.getServices(new MockUriInfo(URI.create("http://localhost:8080/v1/service?pool=alpha")), null)), new Services("testing", ImmutableSet.of(
+                toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage),
+                toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redWeb),
+                toServiceWith(greenNodeId, green.getLocation(), green.getPool()).apply(greenMonitoring))));
+
+        assertEquals(toServices(resource.getServices(new MockUriInfo(URI.create("http://localhost:8080/v1/service?type=web&type=monitoring")), null)), new Services("testing", ImmutableSet.of(
+                toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redWeb),
+                toServiceWith(greenNodeId, green.getLocation(), green.getPool()).apply(greenMonitoring))));
+
+        assertEquals(toServices(resource.getServices(new MockUriInfo(URI.create("http://localhost:8080/v1/service?type=storage&property.key=1")), null)), new Services("testing", ImmutableSet.of(
+                toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage),
+                toServiceWith(blueNodeId, blue.getLocation(), blue.getPool()).apply(blueStorage))));
+
+        assertEquals(toServices(resource.getServices(new MockUriInfo(URI.create("http://localhost:8080/v1/service?pool=beta&property.key=1")), null)), new Services("testing", ImmutableSet.of(
+                toServiceWith(blueNodeId, blue.getLocation(), blue.getPool()).apply(blueStorage))));
+
+        assertEquals(toServices(resource.getServices(new MockUriInfo(URI.create("http://localhost:8080/v1/service?pool=unknown")), null)), new Services("testing", Collections.<Service>emptySet()));
+        assertEquals(resource.getSelectedServicesStats().getCount(), 5);
+        assertEquals(resource.getAllServicesStats().getCount(), 0);
+    }
+
+    @Test
+    public void testSelectByTypeAndProperties()
+    {
+        Id<Node> redNodeId = Id.random();
+        DynamicServiceAnnouncement redStorage = new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("shard", "1", "version", "2"));
+        DynamicAnnouncement red = new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(redStorage));
+
+        Id<Node> blueNodeId = Id.random();
+        DynamicServiceAnnouncement blueStorage = new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("shard", "2", "version", "2"));
+        DynamicAnnouncement blue = new DynamicAnnouncement("testing", "beta", "/a/b/c", of(blueStorage));
+
+        dynamicStore.put(redNodeId, red);
+        dynamicStore.put(blueNodeId, blue);
+
+        assertEquals(toServices(resource.getServices("storage", null, null, new MockUriInfo(URI.create("http://localhost:8080/v1/service/storage?property.version=2")), null)), new Services("testing", ImmutableSet.of(
+                toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage),
+                toServiceWith(blueNodeId, blue.getLocation(), blue.getPool()).apply(blueStorage))));
+        assertEquals(toServices(resource.getServices("storage", "beta", null, null, new MockUriInfo(URI.create("http://localhost:8080/v1/service/storage/beta?property.version=2")), null)), new Services("testing", ImmutableSet.of(
+                toServiceWith(blueNodeId, blue.getLocation(), blue.getPool()).apply(blueStorage))));
+        assertEquals(toServices(resource.getServices("storage", "alpha", null, null, new MockUriInfo(URI.create("http://localhost:8080/v1/service/storage/alpha?property.shard=2")), null)), new Services("testing", Collections.<Service>emptySet()));
+        assertEquals(resource.getSelectedServicesStats().getCount(), 3);
+        assertEquals(resource.getByTypeStats().getCount(), 0);
+        assertEquals(resource.getByTypeAndPoolStats().getCount(), 0);
+
+        Response watch = resource.getServices("storage", "alpha", "stale", null, new MockUriInfo(URI.create("http://localhost:8080/v1/service/storage/alpha?property.shard=2")), null);
+        assertEquals(watch.getStatus(), Response.Status.BAD_REQUEST.getStatusCode());
+    }
+
     @Test
     public void testGetAll()
     {
@@ -117,7 +220,7 @@ public class TestServiceResource
         dynamicStore.put(greenNodeId, green);
         dynamicStore.put(blueNodeId, blue);
 
-        assertEquals(resource.getServices(), new Services("testing", ImmutableSet.of(
+        assertEquals(toServices(resource.getServices(null, null)), new Services("testing", ImmutableSet.of(
                 toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage),
                 toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redWeb),
                 toServiceWith(greenNodeId, green.getLocation(), green.getPool()).apply(greenStorage),
@@ -127,4 +230,256 @@ public class TestServiceResource
         assertEquals(resource.getAllServicesStats().getCount(),1);
         assertEquals(resource.getByTypeAndPoolStats().getCount(),0);
     }
+
+    @Test
+    public void testEncodedResponseIsReused()
+    {
+        Id<Node> redNodeId = Id.random();
+        DynamicServiceAnnouncement redStorage = new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "1"));
+        dynamicStore.put(redNodeId, new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(redStorage)));
+
+        resource.getServices("storage", "alpha", null, null, null, null);
+        resource.getServices("storage", "alpha", null, null, null, null);
+        assertEquals(resource.getResponseCache().getHitCount(), 1);
+        assertEquals(resource.getResponseCache().getMissCount(), 1);
+
+        // an unrelated change leaves the merged set for this key, and its encoding, in place
+        dynamicStore.put(Id.<Node>random(), new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "web", ImmutableMap.of("key", "2")))));
+        resource.getServices("storage", "alpha", null, null, null, null);
+        assertEquals(resource.getResponseCache().getHitCount(), 2);
+        assertEquals(resource.getResponseCache().getMissCount(), 1);
+    }
+
+    @Test
+    public void testEntityTagAndCacheControl()
+    {
+        Id<Node> redNodeId = Id.random();
+        DynamicServiceAnnouncement redStorage = new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "1"));
+        dynamicStore.put(redNodeId, new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(redStorage)));
+
+        Response first = resource.getServices("storage", "alpha", null, null, null, null);
+        Response second = resource.getServices("storage", "alpha", null, null, null, null);
+
+        EntityTag entityTag = (EntityTag) first.getMetadata().getFirst(HttpHeaders.ETAG);
+        assertNotNull(entityTag);
+        assertFalse(entityTag.isWeak());
+        assertEquals(second.getMetadata().getFirst(HttpHeaders.ETAG), entityTag);
+
+        CacheControl cacheControl = (CacheControl) first.getMetadata().getFirst(HttpHeaders.CACHE_CONTROL);
+        assertEquals(cacheControl.getMaxAge(), (int) discoveryConfig.getDynamicServiceCacheRefresh().convertTo(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testGzip()
+    {
+        Id<Node> redNodeId = Id.random();
+        DynamicServiceAnnouncement redStorage = new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "1"));
+        DynamicAnnouncement red = new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(redStorage));
+        dynamicStore.put(redNodeId, red);
+        Services expected = new Services("testing", ImmutableSet.of(toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage)));
+
+        Response plain = resource.getServices("storage", "alpha", null, null, null, null);
+        Response compressed = resource.getServices("storage", "alpha", null, null, null, requestWithHeader("Accept-Encoding", "gzip, deflate"));
+
+        assertNull(plain.getMetadata().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(compressed.getMetadata().getFirst(HttpHeaders.CONTENT_ENCODING), "gzip");
+        assertEquals(compressed.getMetadata().getFirst(HttpHeaders.VARY), HttpHeaders.ACCEPT_ENCODING);
+        assertEquals(toServices(compressed), expected);
+        assertFalse(compressed.getMetadata().getFirst(HttpHeaders.ETAG).equals(plain.getMetadata().getFirst(HttpHeaders.ETAG)));
+
+        Response all = resource.getServices(null, requestWithHeader("Accept-Encoding", "gzip"));
+        assertEquals(all.getMetadata().getFirst(HttpHeaders.CONTENT_ENCODING), "gzip");
+        assertEquals(toServices(all), expected);
+    }
+
+    @Test
+    public void testEitherEntityTagMatches()
+    {
+        dynamicStore.put(Id.<Node>random(), new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "1")))));
+
+        EntityTag plainTag = (EntityTag) resource.getServices("storage", "alpha", null, null, null, null).getMetadata().getFirst(HttpHeaders.ETAG);
+        EntityTag gzipTag = (EntityTag) resource.getServices("storage", "alpha", null, null, null, requestWithHeader("Accept-Encoding", "gzip")).getMetadata().getFirst(HttpHeaders.ETAG);
+
+        Response response = resource.getServices("storage", "alpha", null, null, null, requestWithHeader("If-None-Match", gzipTag.toString()));
+        assertEquals(response.getStatus(), Response.Status.NOT_MODIFIED.getStatusCode());
+        assertEquals(response.getMetadata().getFirst(HttpHeaders.ETAG), plainTag);
+    }
+
+    @Test
+    public void testShedWhenReadLaneFull()
+    {
+        assertTrue(admission.getReadLane().enter());
+        try {
+            Response response = resource.getServices("storage", "alpha", null, null, null, null);
+            assertEquals(response.getStatus(), Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+            assertEquals(response.getMetadata().getFirst("Retry-After"), 1);
+            assertEquals(admission.getReadLane().getShedCount(), 1);
+            assertEquals(resource.getByTypeAndPoolStats().getCount(), 0);
+
+            // watches have a lane of their own
+            Response watch = resource.getServices("storage", "alpha", "stale", new Duration(1, TimeUnit.SECONDS), null, null);
+            assertEquals(watch.getStatus(), Response.Status.OK.getStatusCode());
+        }
+        finally {
+            admission.getReadLane().exit();
+        }
+    }
+
+    @Test
+    public void testReadLaneHeldUntilServicesWritten()
+            throws IOException
+    {
+        Response response = resource.getServices(null, null);
+        assertEquals(admission.getReadLane().getActive(), 1);
+
+        ((StreamingOutput) response.getEntity()).write(new ByteArrayOutputStream());
+        assertEquals(admission.getReadLane().getActive(), 0);
+    }
+
+    @Test
+    public void testReadLaneExitedForHead()
+    {
+        HttpServletRequest head = (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class}, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("getMethod")) {
+                    return "HEAD";
+                }
+                return null;
+            }
+        });
+
+        // the entity of a response to HEAD is never written
+        assertEquals(resource.getServices(null, head).getStatus(), Response.Status.OK.getStatusCode());
+        assertEquals(admission.getReadLane().getActive(), 0);
+    }
+
+    @Test
+    public void testMatchesEntityTag()
+    {
+        assertFalse(ServiceResource.matchesEntityTag(null, "abc"));
+        assertFalse(ServiceResource.matchesEntityTag("", "abc"));
+        assertFalse(ServiceResource.matchesEntityTag("\"xyz\"", "abc"));
+        assertFalse(ServiceResource.matchesEntityTag("abc", "abc"));
+        assertTrue(ServiceResource.matchesEntityTag("\"abc\"", "abc"));
+        assertTrue(ServiceResource.matchesEntityTag("W/\"abc\"", "abc"));
+        assertTrue(ServiceResource.matchesEntityTag("\"xyz\", \"abc\"", "abc"));
+        assertTrue(ServiceResource.matchesEntityTag("*", "abc"));
+    }
+
+    @Test
+    public void testWaitForChangeWithStaleTagReturnsImmediately()
+    {
+        Id<Node> redNodeId = Id.random();
+        DynamicServiceAnnouncement redStorage = new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "1"));
+        DynamicAnnouncement red = new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(redStorage));
+        dynamicStore.put(redNodeId, red);
+
+        Response response = resource.getServices("storage", "alpha", "stale", new Duration(1, TimeUnit.MINUTES), null, null);
+
+        assertEquals(toServices(response), new Services("testing", ImmutableSet.of(toServiceWith(redNodeId, red.getLocation(), red.getPool()).apply(redStorage))));
+        assertEquals(resource.getActiveWatchCount(), 0);
+    }
+
+    @Test
+    public void testWaitForChangeTimesOut()
+    {
+        dynamicStore.put(Id.<Node>random(), new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "1")))));
+
+        EntityTag entityTag = (EntityTag) resource.getServices("storage", "alpha", null, null, null, null).getMetadata().getFirst(HttpHeaders.ETAG);
+
+        Response response = resource.getServices("storage", "alpha", entityTag.getValue(), new Duration(10, TimeUnit.MILLISECONDS), null, null);
+
+        assertEquals(response.getStatus(), Response.Status.NOT_MODIFIED.getStatusCode());
+        assertEquals(response.getMetadata().getFirst(HttpHeaders.ETAG), entityTag);
+    }
+
+    @Test
+    public void testWaitForChangeWakesOnChange()
+            throws Exception
+    {
+        dynamicStore.put(Id.<Node>random(), new DynamicAnnouncement("testing", "alpha", "/a/b/c", of(
+                new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "1")))));
+
+        final EntityTag entityTag = (EntityTag) resource.getServices("storage", "alpha", null, null, null, null).getMetadata().getFirst(HttpHeaders.ETAG);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Response> future = executor.submit(new Callable<Response>()
+            {
+                @Override
+                public Response call()
+                {
+                    return resource.getServices("storage", "alpha", entityTag.getValue(), new Duration(1, TimeUnit.MINUTES), null, null);
+                }
+            });
+
+            // an unrelated change does not complete the watch
+            changeNotifier.changed();
+            Thread.sleep(100);
+            assertFalse(future.isDone());
+
+            Id<Node> greenNodeId = Id.random();
+            DynamicServiceAnnouncement greenStorage = new DynamicServiceAnnouncement(Id.<Service>random(), "storage", ImmutableMap.of("key", "2"));
+            // the store signals the change itself
+            dynamicStore.put(greenNodeId, new DynamicAnnouncement("testing", "alpha", "/x/y/z", of(greenStorage)));
+
+            Response response = future.get(10, TimeUnit.SECONDS);
+            assertEquals(toServices(response).getServices().size(), 2);
+            assertFalse(response.getMetadata().getFirst(HttpHeaders.ETAG).equals(entityTag));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Services toServices(Response response)
+    {
+        assertEquals(response.getStatus(), Response.Status.OK.getStatusCode());
+
+        byte[] bytes;
+        if (response.getEntity() instanceof StreamingOutput) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                ((StreamingOutput) response.getEntity()).write(out);
+            }
+            catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            bytes = out.toByteArray();
+        }
+        else {
+            bytes = (byte[]) response.getEntity();
+        }
+
+        if (GzipEncoding.GZIP.equals(response.getMetadata().getFirst(HttpHeaders.CONTENT_ENCODING))) {
+            try {
+                bytes = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+            }
+            catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return servicesCodec.fromJson(new String(bytes, Charsets.UTF_8));
+    }
+
+    private static HttpServletRequest requestWithHeader(final String name, final String value)
+    {
+        return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class}, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("getHeader") && name.equalsIgnoreCase((String) args[0])) {
+                    return value;
+                }
+                return null;
+            }
+        });
+    }
 }
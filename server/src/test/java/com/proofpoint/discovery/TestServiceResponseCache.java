@@ -0,0 +1,95 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.proofpoint.discovery.ServiceResponseCache.CachedResponse;
+import com.proofpoint.json.JsonCodec;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+public class TestServiceResponseCache
+{
+    private static final List<String> KEY = ImmutableList.of("storage", "poolA");
+
+    private static final Service BLUE = new Service(Id.<Service>random(), Id.<Node>random(), "storage", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableMap.of("http", "http://localhost:1111"));
+    private static final Service RED = new Service(Id.<Service>random(), null, "storage", "poolA", "/US/West/SC4/rack1/host1/vm1/slot2", ImmutableMap.of("http", "http://localhost:2222"));
+
+    private final JsonCodec<Services> codec = JsonCodec.jsonCodec(Services.class);
+    private ServiceResponseCache cache;
+
+    @BeforeMethod
+    public void setup()
+    {
+        cache = new ServiceResponseCache("testing");
+    }
+
+    @Test
+    public void testEncodesServices()
+    {
+        CachedResponse response = cache.get(KEY, ImmutableSet.of(BLUE, RED));
+
+        assertEquals(response.getServiceCount(), 2);
+        assertEquals(decode(response), new Services("testing", ImmutableSet.of(BLUE, RED)));
+    }
+
+    @Test
+    public void testReusedForSameSnapshot()
+    {
+        Set<Service> services = ImmutableSet.of(BLUE, RED);
+
+        CachedResponse first = cache.get(KEY, services);
+        CachedResponse second = cache.get(KEY, services);
+
+        assertSame(second, first);
+        assertEquals(second.getEntityTag(), first.getEntityTag());
+        assertEquals(cache.getHitCount(), 1);
+        assertEquals(cache.getMissCount(), 1);
+    }
+
+    @Test
+    public void testInvalidatedBySnapshotSwap()
+    {
+        CachedResponse first = cache.get(KEY, ImmutableSet.of(BLUE, RED));
+        CachedResponse second = cache.get(KEY, ImmutableSet.of(RED));
+
+        assertNotSame(second, first);
+        assertFalse(second.getEntityTag().equals(first.getEntityTag()));
+        assertEquals(decode(second), new Services("testing", ImmutableSet.of(RED)));
+        assertEquals(cache.getHitCount(), 0);
+        assertEquals(cache.getMissCount(), 2);
+    }
+
+    @Test
+    public void testEmptyResultsAreNotRetained()
+    {
+        CachedResponse response = cache.get(KEY, ImmutableSet.<Service>of());
+
+        assertEquals(response.getServiceCount(), 0);
+        assertEquals(decode(response), new Services("testing", ImmutableSet.<Service>of()));
+        assertEquals(cache.getSize(), 0);
+    }
+
+    @Test
+    public void testEntityTagDependsOnlyOnContent()
+    {
+        CachedResponse first = cache.get(KEY, ImmutableSet.of(BLUE, RED));
+        CachedResponse second = new ServiceResponseCache("testing").get(KEY, ImmutableSet.of(BLUE, RED));
+
+        assertEquals(second.getEntityTag(), first.getEntityTag());
+    }
+
+    private Services decode(CachedResponse response)
+    {
+        return codec.fromJson(new String(response.getJson(), Charsets.UTF_8));
+    }
+}
@@ -0,0 +1,131 @@
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.proofpoint.testing.Assertions.assertEqualsIgnoreOrder;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestServiceSnapshot
+{
+    private static final Service BLUE = new Service(Id.<Service>random(), Id.<Node>random(), "storage", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableMap.of("http", "http://localhost:1111"));
+    private static final Service RED = new Service(Id.<Service>random(), null, "storage", "poolA", "/US/West/SC4/rack1/host1/vm1/slot2", ImmutableMap.of("http", "http://localhost:2222"));
+    private static final Service GREEN = new Service(Id.<Service>random(), Id.<Node>random(), "monitoring", "poolA", "/US/West/SC4/rack1/host1/vm1/slot3", ImmutableMap.of("http", "http://localhost:3333"));
+
+    @Test
+    public void testEmpty()
+    {
+        ServiceSnapshot snapshot = ServiceSnapshot.empty();
+        assertTrue(snapshot.getAll().isEmpty());
+        assertTrue(snapshot.get("storage").isEmpty());
+        assertTrue(snapshot.get("storage", "poolA").isEmpty());
+    }
+
+    @Test
+    public void testMergesStores()
+    {
+        ServiceSnapshot snapshot = ServiceSnapshot.update(ServiceSnapshot.empty(), ImmutableSet.of(BLUE, GREEN), ImmutableSet.of(RED));
+
+        assertEqualsIgnoreOrder(snapshot.getAll(), ImmutableSet.of(BLUE, RED, GREEN));
+        assertEqualsIgnoreOrder(snapshot.get("storage"), ImmutableSet.of(BLUE, RED));
+        assertEqualsIgnoreOrder(snapshot.get("storage", "poolA"), ImmutableSet.of(BLUE, RED));
+        assertEqualsIgnoreOrder(snapshot.get("monitoring", "poolA"), ImmutableSet.of(GREEN));
+    }
+
+    @Test
+    public void testSameStoreSetsKeepSnapshot()
+    {
+        Set<Service> dynamicServices = ImmutableSet.of(BLUE);
+        Set<Service> staticServices = ImmutableSet.of(RED);
+
+        ServiceSnapshot snapshot = ServiceSnapshot.update(ServiceSnapshot.empty(), dynamicServices, staticServices);
+
+        assertTrue(snapshot.isBuiltFrom(dynamicServices, staticServices));
+        assertSame(ServiceSnapshot.update(snapshot, dynamicServices, staticServices), snapshot);
+    }
+
+    @Test
+    public void testUnchangedKeysAreShared()
+    {
+        Set<Service> staticServices = ImmutableSet.of(RED);
+        ServiceSnapshot first = ServiceSnapshot.update(ServiceSnapshot.empty(), ImmutableSet.of(BLUE), staticServices);
+        ServiceSnapshot second = ServiceSnapshot.update(first, ImmutableSet.of(BLUE, GREEN), staticServices);
+
+        assertNotSame(second, first);
+        assertSame(second.get("storage", "poolA"), first.get("storage", "poolA"));
+        assertEquals(second.get("monitoring", "poolA"), ImmutableSet.of(GREEN));
+    }
+
+    @Test
+    public void testSourceRebuildsOnlyAfterStoreChange()
+    {
+        InMemoryStaticStore staticStore = new InMemoryStaticStore();
+        staticStore.put(RED);
+        ServiceSnapshotSource source = new ServiceSnapshotSource(new InMemoryDynamicStore(new DiscoveryConfig(), new TestingTimeProvider()), staticStore);
+
+        ServiceSnapshot first = source.getSnapshot();
+        assertSame(source.getSnapshot(), first);
+        assertEquals(source.getRebuildCount(), 1);
+
+        staticStore.put(new Service(Id.<Service>random(), null, "web", "poolA", "/US/West/SC4/rack1/host1/vm1/slot4", ImmutableMap.of("http", "http://localhost:4444")));
+        ServiceSnapshot second = source.getSnapshot();
+        assertNotSame(second, first);
+        assertEquals(second.getAll().size(), 2);
+        assertSame(second.get("storage", "poolA"), first.get("storage", "poolA"));
+        assertEquals(source.getRebuildCount(), 2);
+    }
+
+    @Test
+    public void testConcurrentReadersMergeOnce()
+            throws Exception
+    {
+        InMemoryStaticStore staticStore = new InMemoryStaticStore();
+        staticStore.put(RED);
+        final ServiceSnapshotSource source = new ServiceSnapshotSource(new InMemoryDynamicStore(new DiscoveryConfig(), new TestingTimeProvider()), staticStore);
+        source.getSnapshot();
+
+        staticStore.put(new Service(Id.<Service>random(), null, "web", "poolA", "/US/West/SC4/rack1/host1/vm1/slot4", ImmutableMap.of("http", "http://localhost:4444")));
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<ServiceSnapshot>> futures = Lists.newArrayList();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executor.submit(new Callable<ServiceSnapshot>()
+                {
+                    @Override
+                    public ServiceSnapshot call()
+                            throws Exception
+                    {
+                        start.await();
+                        return source.getSnapshot();
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<ServiceSnapshot> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(source.getRebuildCount(), 2);
+        assertEquals(source.getSnapshot().getAll().size(), 2);
+    }
+}
@@ -0,0 +1,139 @@
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestServiceTable
+{
+    private static final Id<Node> NODE_ID = Id.random();
+    private static final Service BLUE = new Service(Id.<Service>random(), NODE_ID, "storage", "poolA", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableMap.of("http", "http://localhost:1111"));
+    private static final Service RED = new Service(Id.<Service>random(), NODE_ID, "storage", "poolB", "/US/West/SC4/rack1/host1/vm1/slot1", ImmutableMap.of("http", "http://localhost:2222"));
+    private static final Service GREEN = new Service(Id.<Service>random(), null, "monitoring", "poolA", "/US/West/SC4/rack1/host1/vm1/slot2", ImmutableMap.<String, String>of());
+
+    @Test
+    public void testEmpty()
+    {
+        assertTrue(ServiceTable.empty().isEmpty());
+        assertFalse(ServiceTable.empty().contains(BLUE));
+    }
+
+    @Test
+    public void testRoundTrip()
+    {
+        ServiceTable table = ServiceTable.copyOf(ImmutableList.of(BLUE, RED, GREEN));
+
+        assertEquals(table.size(), 3);
+        assertFullyEqual(ImmutableList.copyOf(table), ImmutableList.of(BLUE, RED, GREEN));
+        assertNull(ImmutableList.copyOf(table).get(2).getNodeId());
+    }
+
+    @Test
+    public void testContains()
+    {
+        ServiceTable table = ServiceTable.copyOf(ImmutableList.of(BLUE, RED));
+
+        assertTrue(table.contains(BLUE));
+        assertTrue(table.contains(RED));
+        assertFalse(table.contains(GREEN));
+        assertFalse(table.contains("storage"));
+        assertEquals(table, ImmutableSet.of(BLUE, RED));
+    }
+
+    @Test
+    public void testDuplicateIdsCollapse()
+    {
+        Service replacement = new Service(BLUE.getId(), null, "web", "poolC", "/US/West/SC4/rack1/host1/vm1/slot9", ImmutableMap.<String, String>of());
+        ServiceTable table = ServiceTable.copyOf(ImmutableList.of(BLUE, replacement));
+
+        assertEquals(table.size(), 1);
+        assertEquals(getOnlyElement(table).getType(), "storage");
+    }
+
+    @Test
+    public void testGrowsPastInitialCapacity()
+    {
+        ImmutableList.Builder<Service> builder = ImmutableList.builder();
+        for (int i = 0; i < 1000; i++) {
+            builder.add(new Service(Id.<Service>random(), Id.<Node>random(), "storage", "pool" + (i % 7), "/US/West/SC4/rack1/host1/vm1/slot" + i, ImmutableMap.of("http", "http://localhost:" + i)));
+        }
+        List<Service> services = builder.build();
+        ServiceTable table = ServiceTable.copyOf(services);
+
+        assertEquals(table.size(), 1000);
+        assertFullyEqual(ImmutableList.copyOf(table), services);
+        for (Service service : services) {
+            assertTrue(table.contains(service));
+        }
+    }
+
+    @Test
+    public void testAddRows()
+    {
+        ServiceTable table = ServiceTable.copyOf(ImmutableList.of(BLUE, RED, GREEN));
+
+        ServiceTable.Builder builder = ServiceTable.builder().add(GREEN);
+        builder.addRows(table, 1, 3);
+        ServiceTable copy = builder.build();
+
+        assertFullyEqual(ImmutableList.copyOf(copy), ImmutableList.of(GREEN, RED));
+    }
+
+    @Test
+    public void testCopyOfTableIsSame()
+    {
+        ServiceTable table = ServiceTable.copyOf(ImmutableList.of(BLUE, RED));
+        assertSame(ServiceTable.copyOf(table), table);
+    }
+
+    @Test
+    public void testBuildReturnsPreviousWhenUnchanged()
+    {
+        ServiceTable previous = ServiceTable.builder().addAll(ImmutableList.of(BLUE, RED)).build();
+
+        assertSame(ServiceTable.builder().addAll(ImmutableList.of(BLUE, RED)).build(previous), previous);
+        ServiceTable updated = ServiceTable.builder().addAll(ImmutableList.of(BLUE, RED, GREEN)).build(previous);
+        assertEquals(updated.size(), 3);
+        assertFullyEqual(ImmutableList.copyOf(updated), ImmutableList.of(BLUE, RED, GREEN));
+    }
+
+    @Test
+    public void testHasSameServices()
+    {
+        ServiceTable table = ServiceTable.copyOf(ImmutableList.of(BLUE, RED));
+        Service changed = new Service(RED.getId(), NODE_ID, "storage", "poolB", RED.getLocation(), ImmutableMap.of("http", "http://localhost:9999"));
+
+        assertTrue(table.hasSameServices(ServiceTable.copyOf(ImmutableList.of(BLUE, RED))));
+        assertFalse(table.hasSameServices(ServiceTable.copyOf(ImmutableList.of(BLUE, changed))));
+        assertFalse(table.hasSameServices(ServiceTable.copyOf(ImmutableList.of(RED, BLUE))));
+        assertFalse(table.hasSameServices(ServiceTable.copyOf(ImmutableList.of(BLUE))));
+    }
+
+    /**
+     * Service equality only looks at the id.
+     */
+    private static void assertFullyEqual(List<Service> actual, List<Service> expected)
+    {
+        assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < actual.size(); i++) {
+            Service left = actual.get(i);
+            Service right = expected.get(i);
+            assertEquals(left.getId(), right.getId());
+            assertEquals(left.getNodeId(), right.getNodeId());
+            assertEquals(left.getType(), right.getType());
+            assertEquals(left.getPool(), right.getPool());
+            assertEquals(left.getLocation(), right.getLocation());
+            assertEquals(left.getProperties(), right.getProperties());
+        }
+    }
+}
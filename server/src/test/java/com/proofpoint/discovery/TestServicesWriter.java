@@ -0,0 +1,76 @@
+package com.proofpoint.discovery;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.proofpoint.json.JsonCodec;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Sets.union;
+import static org.testng.Assert.assertEquals;
+
+public class TestServicesWriter
+{
+    private final JsonCodec<Services> codec = JsonCodec.jsonCodec(Services.class);
+
+    @Test
+    public void testMatchesCodec()
+            throws IOException
+    {
+        Set<Service> services = ImmutableSet.of(
+                new Service(Id.<Service>random(), Id.<Node>random(), "storage", "alpha", "/a/b/c", ImmutableMap.of("http", "http://localhost:1111", "key", "value")),
+                new Service(Id.<Service>random(), null, "web", "beta", "/x/y/z", ImmutableMap.<String, String>of()));
+
+        Services expected = new Services("testing", services);
+        Services actual = codec.fromJson(write(new ServicesWriter("testing", services)));
+
+        assertEquals(actual, expected);
+
+        // Service equality only compares ids
+        Map<Id<Service>, Service> actualById = Maps.uniqueIndex(actual.getServices(), new Function<Service, Id<Service>>()
+        {
+            @Override
+            public Id<Service> apply(Service service)
+            {
+                return service.getId();
+            }
+        });
+        for (Service service : services) {
+            assertEquals(actualById.get(service.getId()).toString(), service.toString());
+        }
+    }
+
+    @Test
+    public void testEmpty()
+            throws IOException
+    {
+        assertEquals(write(new ServicesWriter("testing", ImmutableSet.<Service>of())), "{\"environment\":\"testing\",\"services\":[]}");
+    }
+
+    @Test
+    public void testUnionWrittenOnce()
+            throws IOException
+    {
+        Service blue = new Service(Id.<Service>random(), null, "storage", "alpha", "/a/b/c", ImmutableMap.of("key", "blue"));
+        Service red = new Service(Id.<Service>random(), null, "storage", "alpha", "/a/b/c", ImmutableMap.of("key", "red"));
+
+        Services actual = codec.fromJson(write(new ServicesWriter("testing", union(ImmutableSet.of(blue, red), ImmutableSet.of(red)))));
+
+        assertEquals(actual.getServices().size(), 2);
+    }
+
+    private static String write(ServicesWriter writer)
+            throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.write(bytes);
+        return new String(bytes.toByteArray(), Charsets.UTF_8);
+    }
+}
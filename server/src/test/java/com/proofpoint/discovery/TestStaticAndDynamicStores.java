@@ -26,8 +26,8 @@ public class TestStaticAndDynamicStores
 
         Cluster cluster = new DiscoveryModule().getCluster(CassandraServerSetup.getServerInfo(), new NodeInfo("testing"));
 
-        CassandraStaticStore staticStore = new CassandraStaticStore(storeConfig, cluster, new TestingTimeProvider(), new DiscoveryConfig());
-        CassandraDynamicStore dynamicStore = new CassandraDynamicStore(storeConfig, new DiscoveryConfig(), new TestingTimeProvider(), cluster);
+        CassandraStaticStore staticStore = new CassandraStaticStore(storeConfig, cluster, new TestingTimeProvider(), new DiscoveryConfig(), new ServiceChangeNotifier());
+        CassandraDynamicStore dynamicStore = new CassandraDynamicStore(storeConfig, new DiscoveryConfig(), new TestingTimeProvider(), cluster, new ServiceChangeNotifier());
         new CassandraSchemaInitialization(cluster, storeConfig).waitForInit();
         dynamicStore.initialize();
 
@@ -1,17 +1,26 @@
 package com.proofpoint.discovery;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.proofpoint.discovery.event.DiscoveryEventConfig;
 import com.proofpoint.discovery.event.DiscoveryEvents;
 import com.proofpoint.event.client.InMemoryEventClient;
 import com.proofpoint.jaxrs.testing.MockUriInfo;
+import com.proofpoint.json.JsonCodec;
 import com.proofpoint.node.NodeInfo;
+import com.proofpoint.units.Duration;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
@@ -23,13 +32,22 @@ public class TestStaticAnnouncementResource
     private InMemoryStaticStore store;
     private StaticAnnouncementResource resource;
     private DiscoveryConfig discoveryConfig;
+    private StoreWriteExecutor writeExecutor;
+    private final JsonCodec<Services> servicesCodec = JsonCodec.jsonCodec(Services.class);
 
     @BeforeMethod
     public void setup()
     {
         store = new InMemoryStaticStore();
         discoveryConfig = new DiscoveryConfig();
-        resource = new StaticAnnouncementResource(store, new NodeInfo("testing"), new DiscoveryEvents (new InMemoryEventClient(), new DiscoveryEventConfig().setEnabledEvents("")), discoveryConfig);
+        writeExecutor = new StoreWriteExecutor(discoveryConfig, new AdmissionConfig());
+        resource = new StaticAnnouncementResource(store, writeExecutor, new AdmissionControl(new AdmissionConfig()), new NodeInfo("testing"), new DiscoveryEvents (new InMemoryEventClient(), new DiscoveryEventConfig().setEnabledEvents("")), discoveryConfig);
+    }
+
+    @AfterMethod
+    public void teardown()
+    {
+        writeExecutor.shutdown();
     }
 
     @Test
@@ -106,6 +124,7 @@ public class TestStaticAnnouncementResource
 
     @Test
     public void testGet()
+            throws IOException
     {
         Service blue = new Service(Id.<Service>random(), null, "storage", "alpha", "/a/b/c", ImmutableMap.of("key", "valueBlue"));
         Service red = new Service(Id.<Service>random(), null, "storage", "alpha", "/a/b/c", ImmutableMap.of("key", "valueRed"));
@@ -113,7 +132,9 @@ public class TestStaticAnnouncementResource
         store.put(red);
         store.put(blue);
 
-        Services actual = resource.get();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ((StreamingOutput) resource.get(null).getEntity()).write(bytes);
+        Services actual = servicesCodec.fromJson(new String(bytes.toByteArray(), Charsets.UTF_8));
         Services expected = new Services("testing", ImmutableSet.of(red, blue));
 
         assertEquals(actual, expected);
@@ -121,4 +142,97 @@ public class TestStaticAnnouncementResource
         assertEquals(resource.getStaticDeleteStats().getCount(),0);
         assertEquals(resource.getStaticPostStats().getCount(),0);
     }
+
+    @Test
+    public void testPostThatTimesOutIsAcceptedRatherThanRetried()
+            throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        InMemoryStaticStore slowStore = new InMemoryStaticStore()
+        {
+            @Override
+            public void put(Service service)
+            {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.put(service);
+            }
+        };
+        StoreWriteExecutor slowExecutor = new StoreWriteExecutor(new DiscoveryConfig().setStoreWriteTimeout(new Duration(10, TimeUnit.MILLISECONDS)), new AdmissionConfig());
+        StaticAnnouncementResource slowResource = new StaticAnnouncementResource(slowStore, slowExecutor, new AdmissionControl(new AdmissionConfig()), new NodeInfo("testing"), new DiscoveryEvents(new InMemoryEventClient(), new DiscoveryEventConfig().setEnabledEvents("")), discoveryConfig);
+
+        StaticAnnouncement announcement = new StaticAnnouncement("testing", "storage", "alpha", "/a/b", ImmutableMap.of("http", "http://localhost:1111"));
+        try {
+            Response response = slowResource.post(announcement, new MockUriInfo(URI.create("http://localhost:8080/v1/announcement/static")), null);
+
+            // the write already started, so a retry would announce the service twice
+            assertEquals(response.getStatus(), Response.Status.ACCEPTED.getStatusCode());
+            Service service = (Service) response.getEntity();
+            assertTrue(response.getMetadata().getFirst("Location").toString().endsWith("/v1/announcement/static/" + service.getId()));
+
+            release.countDown();
+            while (slowStore.getAll().isEmpty()) {
+                Thread.sleep(1);
+            }
+            assertEquals(slowStore.getAll(), ImmutableSet.of(service));
+        }
+        finally {
+            release.countDown();
+            slowExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPutUsesClientId()
+    {
+        StaticAnnouncement announcement = new StaticAnnouncement("testing", "storage", "alpha", "/a/b", ImmutableMap.of("http", "http://localhost:1111"));
+        Id<Service> id = Id.random();
+
+        Response response = resource.put(id, announcement, new MockUriInfo(URI.create("http://localhost:8080/v1/announcement/static")), null);
+        assertEquals(response.getStatus(), Response.Status.CREATED.getStatusCode());
+        assertEquals(response.getMetadata().getFirst("Location").toString(), "http://localhost:8080/v1/announcement/static/" + id);
+
+        // repeating the put leaves a single service
+        resource.put(id, announcement, new MockUriInfo(URI.create("http://localhost:8080/v1/announcement/static")), null);
+        assertEquals(store.getAll().size(), 1);
+        assertEquals(store.getAll().iterator().next().getId(), id);
+    }
+
+    @Test
+    public void testPutThatTimesOutIsRetried()
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        InMemoryStaticStore slowStore = new InMemoryStaticStore()
+        {
+            @Override
+            public void put(Service service)
+            {
+                try {
+                    release.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.put(service);
+            }
+        };
+        StoreWriteExecutor slowExecutor = new StoreWriteExecutor(new DiscoveryConfig().setStoreWriteTimeout(new Duration(10, TimeUnit.MILLISECONDS)), new AdmissionConfig());
+        StaticAnnouncementResource slowResource = new StaticAnnouncementResource(slowStore, slowExecutor, new AdmissionControl(new AdmissionConfig()), new NodeInfo("testing"), new DiscoveryEvents(new InMemoryEventClient(), new DiscoveryEventConfig().setEnabledEvents("")), discoveryConfig);
+
+        StaticAnnouncement announcement = new StaticAnnouncement("testing", "storage", "alpha", "/a/b", ImmutableMap.of("http", "http://localhost:1111"));
+        try {
+            Response response = slowResource.put(Id.<Service>random(), announcement, new MockUriInfo(URI.create("http://localhost:8080/v1/announcement/static")), null);
+
+            // the client picked the id, so retrying cannot announce the service twice
+            assertEquals(response.getStatus(), Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+        }
+        finally {
+            release.countDown();
+            slowExecutor.shutdown();
+        }
+    }
 }
@@ -75,6 +75,21 @@ public abstract class TestStaticStore
         assertEqualsIgnoreOrder(store.get("storage", "poolB"), ImmutableSet.of(RED, YELLOW));
     }
 
+    @Test
+    public void testGetByProperties()
+    {
+        Service shardOne = new Service(Id.<Service>random(), null, "storage", "poolA", "/US/West/SC4/rack1/host1/vm1/slot4", ImmutableMap.of("shard", "1", "version", "2"));
+        Service shardTwo = new Service(Id.<Service>random(), null, "storage", "poolB", "/US/West/SC4/rack1/host1/vm1/slot5", ImmutableMap.of("shard", "2", "version", "2"));
+        store.put(BLUE);
+        store.put(shardOne);
+        store.put(shardTwo);
+
+        assertEqualsIgnoreOrder(store.getByProperties(ImmutableMap.of("version", "2")), ImmutableSet.of(shardOne, shardTwo));
+        assertEqualsIgnoreOrder(store.getByProperties(ImmutableMap.of("version", "2", "shard", "2")), ImmutableSet.of(shardTwo));
+        assertEqualsIgnoreOrder(store.getByProperties(ImmutableMap.of("http", "http://localhost:1111")), ImmutableSet.of(BLUE));
+        assertTrue(store.getByProperties(ImmutableMap.of("version", "3")).isEmpty());
+    }
+
     @Test
     public void testDelete()
     {
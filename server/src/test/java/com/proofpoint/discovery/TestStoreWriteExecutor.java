@@ -0,0 +1,249 @@
+package com.proofpoint.discovery;
+
+import com.proofpoint.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.fail;
+
+public class TestStoreWriteExecutor
+{
+    private StoreWriteExecutor writeExecutor;
+    private ExecutorService callers;
+    private CountDownLatch release;
+
+    @BeforeMethod
+    public void setup()
+    {
+        writeExecutor = new StoreWriteExecutor(new DiscoveryConfig()
+                .setStoreWriteThreads(1)
+                .setStoreWriteTimeout(new Duration(1, TimeUnit.MINUTES)),
+                new AdmissionConfig().setWriteMaxConcurrent(1));
+        callers = Executors.newCachedThreadPool();
+        release = new CountDownLatch(1);
+    }
+
+    @AfterMethod
+    public void teardown()
+    {
+        release.countDown();
+        callers.shutdownNow();
+        writeExecutor.shutdown();
+    }
+
+    @Test
+    public void testReturnsResult()
+    {
+        assertEquals(writeExecutor.execute(new Callable<String>()
+        {
+            @Override
+            public String call()
+            {
+                return "written";
+            }
+        }), "written");
+    }
+
+    @Test
+    public void testWriteFailurePropagates()
+    {
+        try {
+            writeExecutor.execute(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                {
+                    throw new IllegalStateException("boom");
+                }
+            });
+            fail("expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "boom");
+        }
+    }
+
+    @Test
+    public void testRejectsWhenFull()
+            throws Exception
+    {
+        // one write runs and one waits in the queue; a third has nowhere to go
+        Future<?> running = callers.submit(executeBlockedWrite());
+        waitForActiveWrites(1);
+        Future<?> queued = callers.submit(executeBlockedWrite());
+        waitForQueuedWrites(1);
+
+        try {
+            writeExecutor.execute(blockedWrite());
+            fail("expected RejectedExecutionException");
+        }
+        catch (RejectedExecutionException expected) {
+        }
+        assertEquals(writeExecutor.getRejectedCount(), 1);
+
+        release.countDown();
+        running.get(10, TimeUnit.SECONDS);
+        queued.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testStartedWriteThatTimesOutMayComplete()
+    {
+        StoreWriteExecutor impatient = new StoreWriteExecutor(new DiscoveryConfig().setStoreWriteTimeout(new Duration(10, TimeUnit.MILLISECONDS)), new AdmissionConfig());
+        try {
+            impatient.execute(blockedWrite());
+            fail("expected StoreWriteTimeoutException");
+        }
+        catch (StoreWriteTimeoutException expected) {
+        }
+        finally {
+            release.countDown();
+            impatient.shutdown();
+        }
+        assertEquals(impatient.getTimedOutCount(), 1);
+    }
+
+    @Test
+    public void testFailureAfterTimeoutIsCounted()
+            throws Exception
+    {
+        StoreWriteExecutor impatient = new StoreWriteExecutor(new DiscoveryConfig().setStoreWriteTimeout(new Duration(10, TimeUnit.MILLISECONDS)), new AdmissionConfig());
+        try {
+            impatient.execute(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                        throws InterruptedException
+                {
+                    release.await();
+                    throw new IllegalStateException("boom");
+                }
+            });
+            fail("expected StoreWriteTimeoutException");
+        }
+        catch (StoreWriteTimeoutException expected) {
+        }
+        try {
+            assertEquals(impatient.getLateFailureCount(), 0);
+            release.countDown();
+            while (impatient.getLateFailureCount() < 1) {
+                Thread.sleep(1);
+            }
+        }
+        finally {
+            impatient.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectsWriteThatDidNotStartInTime()
+            throws Exception
+    {
+        final StoreWriteExecutor impatient = new StoreWriteExecutor(new DiscoveryConfig()
+                .setStoreWriteThreads(1)
+                .setStoreWriteTimeout(new Duration(100, TimeUnit.MILLISECONDS)),
+                new AdmissionConfig().setWriteMaxConcurrent(1));
+        final AtomicBoolean queuedWriteRan = new AtomicBoolean();
+        try {
+            // the only writer thread is busy until released, so the second write stays queued
+            Future<?> running = callers.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                {
+                    try {
+                        impatient.execute(blockedWrite());
+                    }
+                    catch (StoreWriteTimeoutException ignored) {
+                    }
+                    return null;
+                }
+            });
+            while (impatient.getActiveCount() < 1) {
+                Thread.sleep(1);
+            }
+
+            try {
+                impatient.execute(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                    {
+                        queuedWriteRan.set(true);
+                        return null;
+                    }
+                });
+                fail("expected RejectedExecutionException");
+            }
+            catch (RejectedExecutionException expected) {
+            }
+
+            release.countDown();
+            running.get(10, TimeUnit.SECONDS);
+
+            // the queued write is dequeued once the thread is free, but must not run
+            while (impatient.getCompletedCount() < 2) {
+                Thread.sleep(1);
+            }
+            assertFalse(queuedWriteRan.get());
+        }
+        finally {
+            release.countDown();
+            impatient.shutdown();
+        }
+    }
+
+    private Callable<Void> blockedWrite()
+    {
+        return new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                    throws InterruptedException
+            {
+                release.await();
+                return null;
+            }
+        };
+    }
+
+    private Callable<Void> executeBlockedWrite()
+    {
+        return new Callable<Void>()
+        {
+            @Override
+            public Void call()
+            {
+                return writeExecutor.execute(blockedWrite());
+            }
+        };
+    }
+
+    private void waitForActiveWrites(int count)
+            throws InterruptedException
+    {
+        while (writeExecutor.getActiveCount() < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void waitForQueuedWrites(int count)
+            throws InterruptedException
+    {
+        while (writeExecutor.getQueuedCount() < count) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.proofpoint.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.proofpoint.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestWriteBatcher
+{
+    private List<Map<String, String>> flushed;
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setup()
+    {
+        flushed = new CopyOnWriteArrayList<Map<String, String>>();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterMethod
+    public void teardown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testBatchSizeOneFlushesEachWrite()
+    {
+        WriteBatcher<String, String> batcher = new WriteBatcher<String, String>(recordingFlusher(), 1, new Duration(1, TimeUnit.MINUTES), 100);
+
+        batcher.write("a", "1");
+        batcher.write("b", "2");
+
+        assertEquals(flushed, ImmutableList.of(ImmutableMap.of("a", "1"), ImmutableMap.of("b", "2")));
+        assertEquals(batcher.getBatchCount(), 2);
+        assertEquals(batcher.getAverageBatchSize(), 1.0);
+    }
+
+    @Test
+    public void testPartialBatchFlushedAfterDelay()
+    {
+        WriteBatcher<String, String> batcher = new WriteBatcher<String, String>(recordingFlusher(), 10, new Duration(10, TimeUnit.MILLISECONDS), 100);
+
+        batcher.write("a", "1");
+
+        assertEquals(flushed, ImmutableList.of(ImmutableMap.of("a", "1")));
+    }
+
+    @Test
+    public void testConcurrentWritesShareBatch()
+            throws Exception
+    {
+        WriteBatcher<String, String> batcher = new WriteBatcher<String, String>(recordingFlusher(), 3, new Duration(1, TimeUnit.MINUTES), 100);
+
+        List<Future<?>> futures = Lists.newArrayList();
+        for (String key : ImmutableList.of("a", "b", "c")) {
+            futures.add(executor.submit(write(batcher, key, "value")));
+        }
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(flushed, ImmutableList.of(ImmutableMap.of("a", "value", "b", "value", "c", "value")));
+        assertEquals(batcher.getBatchCount(), 1);
+        assertEquals(batcher.getFlushedWriteCount(), 3);
+    }
+
+    @Test
+    public void testRepeatedKeyCollapses()
+            throws Exception
+    {
+        WriteBatcher<String, String> batcher = new WriteBatcher<String, String>(recordingFlusher(), 10, new Duration(200, TimeUnit.MILLISECONDS), 100);
+
+        Future<?> first = executor.submit(write(batcher, "a", "1"));
+        Future<?> second = executor.submit(write(batcher, "a", "2"));
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+
+        assertEquals(flushed.size(), 1);
+        assertEquals(flushed.get(0).keySet(), ImmutableSet.of("a"));
+        assertEquals(batcher.getCollapsedWriteCount(), 1);
+    }
+
+    @Test
+    public void testRepeatedKeyKeepsMergedValue()
+            throws Exception
+    {
+        WriteBatcher<String, String> batcher = new WriteBatcher<String, String>(recordingFlusher(), 10, new Duration(200, TimeUnit.MILLISECONDS), 100);
+
+        Future<?> newer = executor.submit(write(batcher, "a", "2"));
+        Thread.sleep(50);
+        Future<?> older = executor.submit(write(batcher, "a", "1"));
+        newer.get(10, TimeUnit.SECONDS);
+        older.get(10, TimeUnit.SECONDS);
+
+        assertEquals(flushed, ImmutableList.of(ImmutableMap.of("a", "2")));
+        assertEquals(batcher.getCollapsedWriteCount(), 1);
+    }
+
+    @Test
+    public void testFlushFailurePropagatesToWriter()
+    {
+        WriteBatcher<String, String> batcher = new WriteBatcher<String, String>(new WriteBatcher.Flusher<String, String>()
+        {
+            @Override
+            public void flush(Map<String, String> batch)
+            {
+                throw new IllegalStateException("boom");
+            }
+
+            @Override
+            public String merge(String pending, String value)
+            {
+                return value;
+            }
+        }, 1, new Duration(1, TimeUnit.MINUTES), 100);
+
+        try {
+            batcher.write("a", "1");
+            fail("expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "boom");
+        }
+    }
+
+    @Test
+    public void testWriteAfterShutdownIsRejected()
+            throws Exception
+    {
+        WriteBatcher<String, String> batcher = new WriteBatcher<String, String>(recordingFlusher(), 10, new Duration(1, TimeUnit.MINUTES), 100);
+        batcher.shutdown();
+
+        // neither write may join a batch that is never flushed
+        for (int i = 0; i < 2; i++) {
+            Future<?> write = executor.submit(write(batcher, "a", "1"));
+            try {
+                write.get(10, TimeUnit.SECONDS);
+                fail("expected RejectedExecutionException");
+            }
+            catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+        }
+        assertEquals(flushed, ImmutableList.of());
+    }
+
+    private WriteBatcher.Flusher<String, String> recordingFlusher()
+    {
+        return new WriteBatcher.Flusher<String, String>()
+        {
+            @Override
+            public void flush(Map<String, String> batch)
+            {
+                flushed.add(batch);
+            }
+
+            @Override
+            public String merge(String pending, String value)
+            {
+                // the greater value wins, whichever order the writes arrive in
+                return pending.compareTo(value) >= 0 ? pending : value;
+            }
+        };
+    }
+
+    private static Callable<Void> write(final WriteBatcher<String, String> batcher, final String key, final String value)
+    {
+        return new Callable<Void>()
+        {
+            @Override
+            public Void call()
+            {
+                batcher.write(key, value);
+                return null;
+            }
+        };
+    }
+}